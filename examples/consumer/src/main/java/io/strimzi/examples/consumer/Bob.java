@@ -9,6 +9,9 @@ import io.strimzi.kafka.oauth.client.ClientConfig;
 import io.strimzi.kafka.oauth.common.Config;
 import io.strimzi.kafka.oauth.common.ConfigProperties;
 import io.strimzi.kafka.oauth.common.End2EndEncryption;
+import io.strimzi.kafka.oauth.common.End2EndDecryptionPipeline;
+import io.strimzi.kafka.oauth.common.End2EndEncryptionSerializer;
+import io.strimzi.kafka.oauth.common.End2EndSession;
 //import io.strimzi.kafka.oauth.common.SECP256K1;
 import io.strimzi.kafka.oauth.common.WEB3;
 
@@ -17,9 +20,12 @@ import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.AuthenticationException;
 import org.apache.kafka.common.errors.AuthorizationException;
 import org.apache.kafka.common.errors.InterruptException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 
 import com.nimbusds.jose.JOSEException;
@@ -40,12 +46,18 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.security.Provider;
 import java.security.Security;
 import java.text.ParseException;
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.jsse.provider.BouncyCastleJsseProvider;
@@ -54,6 +66,7 @@ import org.bouncycastle.jsse.provider.BouncyCastleJsseProvider;
  * An example consumer implementation
  */
 @SuppressFBWarnings("THROWS_METHOD_THROWS_RUNTIMEEXCEPTION")
+@SuppressWarnings("checkstyle:ClassDataAbstractionCoupling")
 public class Bob {
 
     /**
@@ -142,32 +155,108 @@ public class Bob {
         Properties props = buildConsumerConfig(defaults);
 
         //Properties props = buildConsumerConfig();
-        Consumer<String, String> consumer = new KafkaConsumer<>(props);
-        consumer.subscribe(Arrays.asList(topic));
         //SECP256K1 secp256k1 = new SECP256K1();
         End2EndEncryption e2ee = new End2EndEncryption(alicePublic.nimbusdsJWK, bob.nimbusdsJWK);
+        // Values from Alice are decrypted on a pool of worker threads, and committed once printed
+        final End2EndDecryptionPipeline pipeline = new End2EndDecryptionPipeline(new End2EndSession(e2ee), Runtime.getRuntime().availableProcessors());
+        // the session settings of Alice, which tell how long the key-establishment record of a session may take to arrive
+        final long maxAgeMs = Long.parseLong(properties.getProperty(End2EndEncryptionSerializer.E2EE_SESSION_MAX_AGE_MS,
+                String.valueOf(End2EndSession.DEFAULT_MAX_AGE_MS)));
+        final long handshakeInterval = Long.parseLong(properties.getProperty(End2EndEncryptionSerializer.E2EE_SESSION_HANDSHAKE_INTERVAL,
+                String.valueOf(End2EndSession.DEFAULT_HANDSHAKE_INTERVAL)));
+        Map<TopicPartition, Long> waiting = new HashMap<>();
+        Consumer<String, byte[]> consumer = new KafkaConsumer<>(props, new StringDeserializer(), new ByteArrayDeserializer());
+        consumer.subscribe(Arrays.asList(topic));
 
         for (int i = 0; ; i++) {
             try {
-                ConsumerRecords<String, String> records = consumer.poll(Duration.ofSeconds(10));
-                for (ConsumerRecord<String, String> record : records) {
-                    System.out.println("Consumed message - " + i + ": " + e2ee.token2Message(record.value()));
-                }
+                resume(consumer, waiting);
+                ConsumerRecords<String, byte[]> records = consumer.poll(Duration.ofSeconds(waiting.isEmpty() ? 10 : 1));
+                consume(consumer, pipeline.decrypt(records), i, waiting, maxAgeMs, handshakeInterval);
+
             } catch (InterruptException e) {
                 throw new RuntimeException("Interrupted while consuming message - " + i + "!");
 
             } catch (AuthenticationException | AuthorizationException e) {
+                waiting.clear();
                 consumer.close();
-                consumer = new KafkaConsumer<>(props);
+                consumer = new KafkaConsumer<>(props, new StringDeserializer(), new ByteArrayDeserializer());
+                consumer.subscribe(Arrays.asList(topic));
             }
+        }
 
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                throw new RuntimeException("Interrupted while sleeping!");
+    }
+
+    /**
+     * Print the decrypted records, and commit their offsets.
+     * <p>
+     * A record of a session whose key-establishment record has not been received yet, e.g. because Bob resumed from a
+     * committed offset within the session, is not committed while the key-establishment record, which Alice repeats every
+     * <code>handshakeInterval</code> records of the session, may still arrive: the partition is rewound to the record and
+     * paused until new records are appended to it, see {@link #resume(Consumer, Map)}.
+     * If the batch holds enough records after it to contain the next key-establishment record, or the session has expired,
+     * the record can no longer be decrypted, and is reported as failed.
+     * </p>
+     */
+    private static void consume(Consumer<String, byte[]> consumer, List<End2EndDecryptionPipeline.Decrypted<String>> results, int i,
+                                Map<TopicPartition, Long> waiting, long maxAgeMs, long handshakeInterval) {
+        // the results are in offset order within each partition
+        Map<TopicPartition, Long> ends = new HashMap<>();
+        for (End2EndDecryptionPipeline.Decrypted<String> result : results) {
+            ends.put(new TopicPartition(result.record().topic(), result.record().partition()), result.record().offset() + 1);
+        }
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (End2EndDecryptionPipeline.Decrypted<String> result : results) {
+            ConsumerRecord<String, byte[]> record = result.record();
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            if (waiting.containsKey(partition)) {
+                // read again once resumed
+                continue;
             }
+            long end = ends.get(partition);
+            if (result.isUnknownSession() && end - record.offset() < handshakeInterval && record.timestamp() + maxAgeMs > now) {
+                System.out.println("Waiting for the session key of message at " + partition + "@" + record.offset());
+                consumer.seek(partition, record.offset());
+                consumer.pause(Collections.singleton(partition));
+                waiting.put(partition, end);
+                continue;
+            }
+            if (result.isValid()) {
+                System.out.println("Consumed message - " + i + ": " + (result.value() == null ? null : new String(result.value(), StandardCharsets.UTF_8)));
+            } else {
+                System.out.println("Failed to decrypt message at " + partition + "@" + record.offset() + ": " + result.error().getMessage());
+            }
+            offsets.put(partition, new OffsetAndMetadata(record.offset() + 1));
+        }
+        if (!offsets.isEmpty()) {
+            consumer.commitSync(offsets);
         }
+    }
 
+    /**
+     * Resume the paused partitions to which records have been appended since they were paused, so that the records
+     * waiting for their session key are read once more with the new records. A partition that is no longer assigned
+     * is forgotten.
+     * Once the session of a waiting record has expired, no new record can carry its key, so the record is reported as
+     * failed the next time it is read.
+     */
+    private static void resume(Consumer<String, byte[]> consumer, Map<TopicPartition, Long> waiting) {
+        if (waiting.isEmpty()) {
+            return;
+        }
+        waiting.keySet().retainAll(consumer.assignment());
+        Map<TopicPartition, Long> ends = consumer.endOffsets(waiting.keySet());
+        Iterator<Map.Entry<TopicPartition, Long>> it = waiting.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<TopicPartition, Long> e = it.next();
+            Long end = ends.get(e.getKey());
+            if (end != null && end > e.getValue()) {
+                consumer.resume(Collections.singleton(e.getKey()));
+                it.remove();
+            }
+        }
     }
 
     @SuppressWarnings("deprecation")
@@ -203,11 +292,10 @@ public class Bob {
 
         p.setProperty(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "ubuntu:9092");
         p.setProperty(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
-        p.setProperty(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
 
         p.setProperty(ConsumerConfig.GROUP_ID_CONFIG, "consumer-group");
-        p.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "10");
-        p.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "true");
+        p.setProperty(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "500");
+        p.setProperty(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
 
         //p.setProperty("ssl.cipher.suites", "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256,TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384");
         p.setProperty("ssl.keymanager.algorithm", "PKIX");
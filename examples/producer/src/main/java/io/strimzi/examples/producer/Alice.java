@@ -8,6 +8,8 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.strimzi.kafka.oauth.client.ClientConfig;
 //import io.strimzi.kafka.oauth.common.SECP256K1;
 import io.strimzi.kafka.oauth.common.End2EndEncryption;
+import io.strimzi.kafka.oauth.common.End2EndEncryptionSerializer;
+import io.strimzi.kafka.oauth.common.End2EndSession;
 import io.strimzi.kafka.oauth.common.Config;
 import io.strimzi.kafka.oauth.common.ConfigProperties;
 import io.strimzi.kafka.oauth.common.WEB3;
@@ -33,6 +35,7 @@ import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.crypto.ECDSASigner;
 import com.nimbusds.jose.JOSEException;
 
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.util.Date;
 import java.util.UUID;
@@ -145,15 +148,22 @@ public class Alice {
 
         Properties props = buildProducerConfig(defaults);
 
-        Producer<String, String> producer = new KafkaProducer<>(props);
         //SECP256K1 secp256k1 = new SECP256K1();
         End2EndEncryption e2ee = new End2EndEncryption(alice.nimbusdsJWK, bobPublic.nimbusdsJWK);
+        // Values are encrypted for Bob by the serializer, the session key is announced in the first record of a session,
+        // and repeated every handshake interval records, so the records are keyed by Alice's address to keep them on one partition
+        End2EndSession session = new End2EndSession(e2ee, End2EndSession.DEFAULT_MAX_RECORDS,
+                Long.parseLong(properties.getProperty(End2EndEncryptionSerializer.E2EE_SESSION_MAX_AGE_MS,
+                        String.valueOf(End2EndSession.DEFAULT_MAX_AGE_MS))),
+                Long.parseLong(properties.getProperty(End2EndEncryptionSerializer.E2EE_SESSION_HANDSHAKE_INTERVAL,
+                        String.valueOf(End2EndSession.DEFAULT_HANDSHAKE_INTERVAL))));
+        Producer<String, byte[]> producer = new KafkaProducer<>(props, new StringSerializer(), new End2EndEncryptionSerializer(session));
 
         for (int i = 0; ; i++) {
             try {
                 String hello = UUID.randomUUID().toString();
                 System.out.println(hello);
-                producer.send(new ProducerRecord<>(topic, e2ee.message2Token(hello)))
+                producer.send(new ProducerRecord<>(topic, alice.address, hello.getBytes(StandardCharsets.UTF_8)))
                         .get();
                 //System.out.println("Testing ... ... ... ... ... ...");
                 //secp256k1.testECDH();
@@ -166,7 +176,7 @@ public class Alice {
                 if (e.getCause() instanceof AuthenticationException
                         || e.getCause() instanceof AuthorizationException) {
                     producer.close();
-                    producer = new KafkaProducer<>(props);
+                    producer = new KafkaProducer<>(props, new StringSerializer(), new End2EndEncryptionSerializer(session));
                 } else {
                     throw new RuntimeException("Failed to send message: " + i, e);
                 }
@@ -253,7 +263,6 @@ public class Alice {
         p.setProperty(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "ubuntu:9092");
         //p.setProperty("bootstrap.servers", "ubuntu");
         p.setProperty(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        p.setProperty(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
 
         p.setProperty(ProducerConfig.ACKS_CONFIG, "all");
 
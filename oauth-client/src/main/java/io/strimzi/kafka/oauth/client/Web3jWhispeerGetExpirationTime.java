@@ -10,7 +10,7 @@ import org.web3j.crypto.Credentials;
 import org.web3j.protocol.Web3j;
 import org.web3j.protocol.core.DefaultBlockParameterName;
 import org.web3j.protocol.core.methods.request.Transaction;
-import org.web3j.protocol.http.HttpService;
+import io.strimzi.kafka.oauth.web3.BlockPinnedCallCache;
 import org.web3j.tx.gas.DefaultGasProvider;
 import  org.web3j.protocol.core.methods.response.EthCall;
 
@@ -65,10 +65,9 @@ public class Web3jWhispeerGetExpirationTime {
         String aliceAddress = properties.getProperty("aliceAddress");
         String adminAddress = properties.getProperty("adminAddress");
 
+        //create Web3j
+        Web3j web3j = Web3j.build(BlockPinnedCallCache.forUrls(alchemyProvider));
         try {
-            //create Web3j
-            Web3j web3j = Web3j.build(new HttpService(alchemyProvider));
-
             /*
              * There are two way to get info from contract which have been deployed in the ETH
              * 
@@ -86,11 +85,12 @@ public class Web3jWhispeerGetExpirationTime {
             getExpirationTimeWithAdminPrivateKey(web3j, whispeerContractAddress, adminPrivateKey, aliceAddress);
 
             getExpirationTimeWithAdminAddress(web3j, whispeerContractAddress, adminAddress, aliceAddress);
-
-            web3j.shutdown();
         } catch (Exception e) {
             System.out.println("Exception Occure");
             e.printStackTrace();
+        } finally {
+            // Shut down the provider, which stops its background threads
+            web3j.shutdown();
         }
     }
     
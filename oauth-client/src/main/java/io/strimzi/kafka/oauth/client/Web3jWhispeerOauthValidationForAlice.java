@@ -18,7 +18,7 @@ import java.util.concurrent.TimeUnit;
 import org.web3j.crypto.Credentials;
 import org.web3j.crypto.Hash;
 import org.web3j.protocol.Web3j;
-import org.web3j.protocol.http.HttpService;
+import io.strimzi.kafka.oauth.web3.BlockPinnedCallCache;
 import org.web3j.tx.gas.DefaultGasProvider;
 import org.web3j.protocol.core.DefaultBlockParameterName;
 import org.web3j.protocol.core.methods.response.EthEstimateGas;
@@ -85,11 +85,20 @@ public class Web3jWhispeerOauthValidationForAlice {
     }
 
     private static Result alicePay(String provider, String fromPrivate, String to, BigInteger payment) {
+        Web3j web3j = Web3j.build(BlockPinnedCallCache.forUrls(provider));
+        try {
+            return alicePay(web3j, fromPrivate, to, payment);
+        } finally {
+            // Shut down the provider, which stops its background threads
+            web3j.shutdown();
+        }
+    }
+
+    private static Result alicePay(Web3j web3j, String fromPrivate, String to, BigInteger payment) {
 
         String transHash = null;
         Result result = new Result();
         
-        Web3j web3j = Web3j.build(new HttpService(provider));  
         Credentials credentials = Credentials.create(fromPrivate);
         String aliceAddress = credentials.getAddress();
         String from = aliceAddress;
@@ -103,8 +112,6 @@ public class Web3jWhispeerOauthValidationForAlice {
             e.printStackTrace();
             result.status = false;
             result.info = "failied to get expirationTime";
-            // Shut down the provider
-            web3j.shutdown();
             return result;
         }
         long current = System.currentTimeMillis() / 1000;
@@ -113,8 +120,6 @@ public class Web3jWhispeerOauthValidationForAlice {
         if (expirationTime.longValue() > current) {
             result.status = true;
             result.info = "expirationTime is bigger than current. User is active";
-            // Shut down the provider
-            web3j.shutdown();
             return result;
         }
 
@@ -196,9 +201,6 @@ public class Web3jWhispeerOauthValidationForAlice {
             System.out.println("Alice's expiration time: " + whispeer.getExpirationTime(aliceAddress).send());
 
         } catch (Exception e) {
-            // Shut down the provider
-            web3j.shutdown();
-            
             if (transHash == null) {
                 result.status = false;
                 result.info = "Exception Occure before the transaction construction. " + e.getMessage();
@@ -213,8 +215,6 @@ public class Web3jWhispeerOauthValidationForAlice {
             e.printStackTrace();
         }
 
-        // Shut down the provider
-        web3j.shutdown();
         return result;
     }
 
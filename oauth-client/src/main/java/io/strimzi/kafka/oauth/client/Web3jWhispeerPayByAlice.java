@@ -18,7 +18,7 @@ import java.util.concurrent.TimeUnit;
 import org.web3j.crypto.Credentials;
 import org.web3j.crypto.Hash;
 import org.web3j.protocol.Web3j;
-import org.web3j.protocol.http.HttpService;
+import io.strimzi.kafka.oauth.web3.BlockPinnedCallCache;
 import org.web3j.tx.gas.DefaultGasProvider;
 import org.web3j.protocol.core.DefaultBlockParameterName;
 import org.web3j.protocol.core.methods.response.EthEstimateGas;
@@ -84,7 +84,7 @@ public class Web3jWhispeerPayByAlice {
             // cp Whispeer.java ~/kafka/whispeer-kafka-oauth/oauth-client/src/main/java/io/strimzi/kafka/oauth/client/
 
             //Step4: Now you can create and deploy your smart contract:
-            web3j = Web3j.build(new HttpService(alchemy));  
+            web3j = Web3j.build(BlockPinnedCallCache.forUrls(alchemy));  
             Credentials credentials = Credentials.create(alicePrivate);
 
             Whispeer whispeer = Whispeer.load(whispeerAddress, web3j, credentials, new DefaultGasProvider());
@@ -208,9 +208,12 @@ public class Web3jWhispeerPayByAlice {
             }
             
             e.printStackTrace();
+        } finally {
+            // Shut down the provider, which stops its background threads
+            if (web3j != null) {
+                web3j.shutdown();
+            }
         }
-        // Shut down the provider
-        web3j.shutdown();
     }
 
     private static BigInteger getBaseFee(Web3j web3j) {
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * AES-GCM encryption of {@link EncryptedEnvelope}s between {@link ByteBuffer}s, heap or direct, supplied by the caller.
+ * <p>
+ * The {@link Cipher} instances are kept per thread, so a record only costs the initialisation of the cipher with its
+ * key and nonce, and the AES-GCM operation itself, which the JDK runs with the AES-NI and CLMUL instructions where available.
+ * </p>
+ * <p>
+ * Under a fresh key, such as an {@link End2EndSession} key drawn at random by the sender, which no other instance seals
+ * under, the nonce is a counter of the key, so no random numbers are drawn per record, and a nonce is never repeated.
+ * Under any other key, such as the key derived with ECDH from static keys, which every producer with the same keys
+ * derives again, in this JVM or another, the nonce is a full 96 bit random number.
+ * </p>
+ */
+final class AesGcmEngine {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final int NONCE_PREFIX_SIZE = EncryptedEnvelope.NONCE_SIZE - 8;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(TRANSFORMATION + " not supported", e);
+        }
+    });
+
+    // The nonce passed to the cipher, which only accepts it in an array
+    private static final ThreadLocal<byte[]> NONCE = ThreadLocal.withInitial(() -> new byte[EncryptedEnvelope.NONCE_SIZE]);
+
+    private AesGcmEngine() {
+    }
+
+    /**
+     * Get the size of the envelope of a message
+     *
+     * @param messageSize The size of the message
+     * @return The size of the envelope
+     */
+    static int sealedSize(int messageSize) {
+        return EncryptedEnvelope.HEADER_SIZE + messageSize + EncryptedEnvelope.TAG_SIZE;
+    }
+
+    /**
+     * Encrypt the remaining bytes of the message into the envelope buffer, at its position.
+     * The position of the message is moved to its limit, and the position of the envelope past the envelope.
+     * The buffers may be the same memory, if the message starts {@link EncryptedEnvelope#HEADER_SIZE} bytes after the envelope.
+     *
+     * @param key The shared key
+     * @param message The message
+     * @param envelope The buffer the envelope is written to, with room for {@link #sealedSize(int)} bytes
+     * @return The size of the envelope
+     */
+    static int seal(SharedKeyCache.SharedKey key, ByteBuffer message, ByteBuffer envelope) {
+        int size = sealedSize(message.remaining());
+        if (envelope.remaining() < size) {
+            throw new IllegalArgumentException("Envelope buffer too small: " + envelope.remaining() + " bytes, " + size + " required");
+        }
+
+        byte[] nonce = NONCE.get();
+        if (key.isFresh()) {
+            long counter = key.nextNonce();
+            Arrays.fill(nonce, 0, NONCE_PREFIX_SIZE, (byte) 0);
+            for (int i = 0; i < 8; i++) {
+                nonce[NONCE_PREFIX_SIZE + i] = (byte) (counter >>> (8 * (7 - i)));
+            }
+        } else {
+            RANDOM.nextBytes(nonce);
+        }
+
+        int start = envelope.position();
+        envelope.put(EncryptedEnvelope.VERSION);
+        envelope.putLong(key.keyId());
+        envelope.put(nonce);
+
+        try {
+            Cipher cipher = CIPHER.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key.secretKey(), new GCMParameterSpec(EncryptedEnvelope.TAG_SIZE * 8, nonce));
+            updateAAD(cipher, envelope, start);
+            cipher.doFinal(message, envelope);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to encrypt the message", e);
+        }
+        return size;
+    }
+
+    /**
+     * Decrypt the remaining bytes of the envelope into the message buffer, at its position.
+     * The position of the envelope is moved to its limit, and the position of the message past the message.
+     * The buffers may be the same memory, to decrypt in place.
+     *
+     * @param key The shared key
+     * @param envelope The envelope
+     * @param message The buffer the message is written to, with room for the remaining bytes of the envelope
+     *                less {@link EncryptedEnvelope#HEADER_SIZE} and {@link EncryptedEnvelope#TAG_SIZE}
+     * @return The size of the message
+     * @throws GeneralSecurityException If the envelope is malformed, was sealed under another key, or fails authentication
+     */
+    static int open(SharedKeyCache.SharedKey key, ByteBuffer envelope, ByteBuffer message) throws GeneralSecurityException {
+        int length = envelope.remaining();
+        if (length < EncryptedEnvelope.HEADER_SIZE + EncryptedEnvelope.TAG_SIZE) {
+            throw new GeneralSecurityException("Encrypted message too short: " + length + " bytes");
+        }
+        int start = envelope.position();
+        byte version = envelope.get(start);
+        if (version != EncryptedEnvelope.VERSION) {
+            throw new GeneralSecurityException("Unsupported encrypted message version: " + version);
+        }
+        if (envelope.getLong(start + 1) != key.keyId()) {
+            throw new GeneralSecurityException("Encrypted message was sealed under another key");
+        }
+
+        byte[] nonce = NONCE.get();
+        envelope.position(start + EncryptedEnvelope.AAD_SIZE);
+        envelope.get(nonce);
+
+        Cipher cipher = CIPHER.get();
+        cipher.init(Cipher.DECRYPT_MODE, key.secretKey(), new GCMParameterSpec(EncryptedEnvelope.TAG_SIZE * 8, nonce));
+        updateAAD(cipher, envelope, start);
+        return cipher.doFinal(envelope, message);
+    }
+
+    // Pass the version and the key id at start as associated data, leaving the envelope positioned after the header
+    private static void updateAAD(Cipher cipher, ByteBuffer envelope, int start) {
+        int limit = envelope.limit();
+        envelope.limit(start + EncryptedEnvelope.AAD_SIZE).position(start);
+        cipher.updateAAD(envelope);
+        envelope.limit(limit).position(start + EncryptedEnvelope.HEADER_SIZE);
+    }
+}
@@ -52,6 +52,16 @@ public interface BearerTokenWithPayload extends OAuthBearerToken {
      */
     ObjectNode getJSON();
 
+    /**
+     * Get the wallet identity established when the token was validated, if the token was validated by a handler
+     * that checks the wallet signature.
+     *
+     * @return The identity, or null if not available
+     */
+    default Web3Identity getWeb3Identity() {
+        return null;
+    }
+
     /**
      * This method returns an id of the current instance of this object.
      * It is used for debugging purposes - e.g. logging that allows tracking of an individual instance
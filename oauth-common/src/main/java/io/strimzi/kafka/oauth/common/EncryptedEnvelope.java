@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * The binary format of an end-to-end encrypted message:
+ * <pre>
+ *   version (1 byte) | key id (8 bytes) | nonce (12 bytes) | ciphertext | tag (16 bytes)
+ * </pre>
+ * <p>
+ * The message is encrypted with AES-GCM under the key shared by the sender and the recipient. The tag authenticates
+ * the message, and the version and key id, which are passed as associated data. Only the holders of the shared key
+ * can produce a valid tag, so no signature is needed. The key id lets the recipient tell a message sealed under
+ * another key from a tampered one.
+ * </p>
+ * <p>
+ * The byte array methods wrap {@link AesGcmEngine}, which also seals and opens envelopes in caller-supplied buffers.
+ * </p>
+ */
+final class EncryptedEnvelope {
+
+    static final byte VERSION = 1;
+
+    static final int NONCE_SIZE = 12;
+
+    static final int TAG_SIZE = 16;
+
+    // The version and the key id, which are authenticated but not encrypted
+    static final int AAD_SIZE = 1 + 8;
+
+    static final int HEADER_SIZE = AAD_SIZE + NONCE_SIZE;
+
+    private EncryptedEnvelope() {
+    }
+
+    /**
+     * Encrypt the message
+     *
+     * @param key The shared key
+     * @param message The message
+     * @return The envelope
+     */
+    static byte[] seal(SharedKeyCache.SharedKey key, byte[] message) {
+        byte[] envelope = new byte[AesGcmEngine.sealedSize(message.length)];
+        AesGcmEngine.seal(key, ByteBuffer.wrap(message), ByteBuffer.wrap(envelope));
+        return envelope;
+    }
+
+    /**
+     * Decrypt the message
+     *
+     * @param key The shared key
+     * @param envelope The envelope
+     * @return The message
+     * @throws GeneralSecurityException If the envelope is malformed, was sealed under another key, or fails authentication
+     */
+    static byte[] open(SharedKeyCache.SharedKey key, byte[] envelope) throws GeneralSecurityException {
+        return open(key, envelope, 0, envelope.length);
+    }
+
+    /**
+     * Decrypt the message from a part of a buffer
+     *
+     * @param key The shared key
+     * @param buffer The buffer
+     * @param offset The offset of the envelope in the buffer
+     * @param length The length of the envelope
+     * @return The message
+     * @throws GeneralSecurityException If the envelope is malformed, was sealed under another key, or fails authentication
+     */
+    static byte[] open(SharedKeyCache.SharedKey key, byte[] buffer, int offset, int length) throws GeneralSecurityException {
+        if (length < HEADER_SIZE + TAG_SIZE) {
+            throw new GeneralSecurityException("Encrypted message too short: " + length + " bytes");
+        }
+        byte[] message = new byte[length - HEADER_SIZE - TAG_SIZE];
+        AesGcmEngine.open(key, ByteBuffer.wrap(buffer, offset, length), ByteBuffer.wrap(message));
+        return message;
+    }
+
+    /**
+     * Get the id of the key the envelope was sealed under
+     *
+     * @param envelope The envelope
+     * @return The key id
+     * @throws GeneralSecurityException If the envelope is malformed
+     */
+    static long keyId(byte[] envelope) throws GeneralSecurityException {
+        if (envelope.length < HEADER_SIZE + TAG_SIZE) {
+            throw new GeneralSecurityException("Encrypted message too short: " + envelope.length + " bytes");
+        }
+        return ByteBuffer.wrap(envelope, 1, 8).getLong();
+    }
+}
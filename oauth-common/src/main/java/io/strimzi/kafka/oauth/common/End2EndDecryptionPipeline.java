@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import io.strimzi.kafka.oauth.validator.DaemonThreadFactory;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decrypts the records of a poll on a pool of worker threads, so that the consumer is not limited by the crypto
+ * throughput of the polling thread.
+ * <p>
+ * The records are consumed with a <code>ByteArrayDeserializer</code>, and passed to {@link #decrypt(ConsumerRecords)},
+ * which returns the results in the order of the batch, i.e. in offset order within each partition. Once the results
+ * have been handled, the offsets can be committed with <code>commitSync()</code>, with auto commit disabled, so that
+ * a record is only committed after it was delivered.
+ * </p>
+ * <p>
+ * A record of an {@link End2EndSession} can only be decrypted once the key-establishment record of its session has been
+ * opened. The key-establishment records of the batch, whose signature checks are the expensive part, are therefore
+ * opened in parallel first, and the other records in parallel after them. A record of a session whose key-establishment
+ * record is not in the batch, nor in an earlier one, is reported by {@link Decrypted#isUnknownSession()}: its offset
+ * should not be committed, so that it is read again once the key-establishment record, repeated within the session, arrives.
+ * </p>
+ */
+public final class End2EndDecryptionPipeline implements AutoCloseable {
+
+    private final End2EndSession session;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+
+    /**
+     * Create a new instance with its own pool of daemon threads
+     *
+     * @param session The session of the sender and the recipient
+     * @param parallelism The number of worker threads
+     */
+    public End2EndDecryptionPipeline(End2EndSession session, int parallelism) {
+        this(session, Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory()), true);
+    }
+
+    /**
+     * Create a new instance using the executor, which is not shut down by {@link #close()}
+     *
+     * @param session The session of the sender and the recipient
+     * @param executor The executor the records are decrypted on
+     */
+    public End2EndDecryptionPipeline(End2EndSession session, ExecutorService executor) {
+        this(session, executor, false);
+    }
+
+    private End2EndDecryptionPipeline(End2EndSession session, ExecutorService executor, boolean ownExecutor) {
+        this.session = session;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * Decrypt the values of the records
+     *
+     * @param records The records of a poll, with encrypted values
+     * @param <K> The type of the record keys
+     * @return The results, in the order of the records
+     */
+    public <K> List<Decrypted<K>> decrypt(ConsumerRecords<K, byte[]> records) {
+        List<ConsumerRecord<K, byte[]>> batch = new ArrayList<>(records.count());
+        for (ConsumerRecord<K, byte[]> record : records) {
+            batch.add(record);
+        }
+
+        List<CompletableFuture<Decrypted<K>>> results = new ArrayList<>(batch.size());
+        for (ConsumerRecord<K, byte[]> record : batch) {
+            results.add(isHandshake(record) ? submit(record) : null);
+        }
+        // the sessions of the batch are established before the other records are opened
+        for (CompletableFuture<Decrypted<K>> result : results) {
+            if (result != null) {
+                await(result);
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (results.get(i) == null) {
+                results.set(i, submit(batch.get(i)));
+            }
+        }
+
+        List<Decrypted<K>> decrypted = new ArrayList<>(batch.size());
+        for (CompletableFuture<Decrypted<K>> result : results) {
+            decrypted.add(await(result));
+        }
+        return decrypted;
+    }
+
+    private static boolean isHandshake(ConsumerRecord<?, byte[]> record) {
+        byte[] value = record.value();
+        return value != null && value.length > 0 && value[0] == End2EndSession.HANDSHAKE;
+    }
+
+    private <K> CompletableFuture<Decrypted<K>> submit(ConsumerRecord<K, byte[]> record) {
+        return CompletableFuture.supplyAsync(() -> {
+            if (record.value() == null) {
+                return new Decrypted<>(record, null, null);
+            }
+            try {
+                return new Decrypted<>(record, session.open(record.value()), null);
+            } catch (GeneralSecurityException e) {
+                return new Decrypted<>(record, null, e);
+            }
+        }, executor);
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Failed to decrypt the record", e.getCause());
+        }
+    }
+
+    /**
+     * Shut down the worker threads, if they were created by this instance
+     */
+    @Override
+    public void close() {
+        if (ownExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The result of the decryption of a record
+     *
+     * @param <K> The type of the record key
+     */
+    public static final class Decrypted<K> {
+        private final ConsumerRecord<K, byte[]> record;
+        private final byte[] value;
+        private final GeneralSecurityException error;
+
+        Decrypted(ConsumerRecord<K, byte[]> record, byte[] value, GeneralSecurityException error) {
+            this.record = record;
+            this.value = value;
+            this.error = error;
+        }
+
+        /**
+         * @return The record, with the encrypted value
+         */
+        public ConsumerRecord<K, byte[]> record() {
+            return record;
+        }
+
+        /**
+         * @return The decrypted value, or null if the record has no value or could not be decrypted
+         */
+        public byte[] value() {
+            return value;
+        }
+
+        /**
+         * @return The reason the record could not be decrypted, or null
+         */
+        public GeneralSecurityException error() {
+            return error;
+        }
+
+        /**
+         * @return True if the record was decrypted, or has no value
+         */
+        public boolean isValid() {
+            return error == null;
+        }
+
+        /**
+         * @return True if the record could not be decrypted yet, because the key-establishment record of its session
+         * has not been received
+         */
+        public boolean isUnknownSession() {
+            return error instanceof End2EndSession.UnknownSessionException;
+        }
+    }
+}
@@ -17,21 +17,13 @@ import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.SignedJWT;
 
 import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
-import org.bouncycastle.crypto.agreement.ECDHBasicAgreement;
-import org.bouncycastle.crypto.digests.SHA256Digest;
-import org.bouncycastle.crypto.ec.CustomNamedCurves;
 import org.bouncycastle.crypto.generators.ECKeyPairGenerator;
-import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
-import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.crypto.params.ECKeyGenerationParameters;
 import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
-import org.bouncycastle.crypto.params.HKDFParameters;
-import org.bouncycastle.jce.ECNamedCurveTable;
-import org.bouncycastle.math.ec.ECCurve;
-import org.bouncycastle.math.ec.ECPoint;
 
-import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
@@ -50,16 +42,42 @@ import javax.crypto.spec.SecretKeySpec;
 
 /**
  * A class with methods for introspecting a JWT token
+ * <p>
+ * The symmetric key derived with ECDH and HKDF from a (local private key, peer public key) pair is cached, in the instance
+ * and in a bounded cache shared by all instances, so that a message only costs the AES operation. A cached key expires
+ * after the shared key TTL, which bounds how long it is kept in memory. Since ECDH is deterministic, the key derived
+ * again is the same key: a fresh key per session is provided by {@link End2EndSession}.
+ * </p>
  */
 public class End2EndEncryption {
 
+    /**
+     * The default time in millis after which a derived shared key is derived again
+     */
+    public static final long DEFAULT_SHARED_KEY_TTL_MS = 3600 * 1000;
+
+    private static final String LEGACY_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<Cipher> LEGACY_CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(LEGACY_TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(LEGACY_TRANSFORMATION + " not supported", e);
+        }
+    });
+
     private String algorithm;
     private String mode;
-    private String curveName;
     private ECKey aliceJWK;
     private ECKey bobJWK;
     //private IvParameterSpec iv;
 
+    private final long sharedKeyTtlMs;
+    private volatile SharedKeyCache.SharedKey encryptionKey;
+    private volatile SharedKeyCache.SharedKey decryptionKey;
+
     /**
      * Create a new instance
      */
@@ -75,17 +93,96 @@ public class End2EndEncryption {
         this.algorithm = "AES";
         this.mode = "CBC";
         //this.iv = generateIV();
-        this.curveName = "secp256k1";
+        this.sharedKeyTtlMs = DEFAULT_SHARED_KEY_TTL_MS;
     }
 
     public End2EndEncryption(ECKey aliceJWK, ECKey bobJWK) {
+        this(aliceJWK, bobJWK, DEFAULT_SHARED_KEY_TTL_MS);
+    }
+
+    /**
+     * Create a new instance
+     *
+     * @param aliceJWK The key of the sender, with the private key when used to encrypt
+     * @param bobJWK The key of the recipient, with the private key when used to decrypt
+     * @param sharedKeyTtlMs The time in millis after which a derived shared key is derived again
+     */
+    public End2EndEncryption(ECKey aliceJWK, ECKey bobJWK, long sharedKeyTtlMs) {
         this.aliceJWK = aliceJWK;
         this.bobJWK = bobJWK;
 
         this.algorithm = "AES";
         this.mode = "CBC";
         //this.iv = generateIV();
-        this.curveName = "secp256k1";
+        this.sharedKeyTtlMs = sharedKeyTtlMs;
+    }
+
+    /**
+     * Encrypt the message for the peer into a binary envelope, see {@link End2EndEncryptionSerializer}.
+     * This requires the private key of the sender.
+     *
+     * @param message The message
+     * @return The envelope
+     */
+    public byte[] seal(byte[] message) {
+        return EncryptedEnvelope.seal(encryptionKey(), message);
+    }
+
+    /**
+     * Decrypt a binary envelope created by {@link #seal(byte[])}, see {@link End2EndEncryptionDeserializer}.
+     * This requires the private key of the recipient.
+     *
+     * @param envelope The envelope
+     * @return The message
+     * @throws GeneralSecurityException If the envelope is malformed, was sealed under another key, or fails authentication
+     */
+    public byte[] open(byte[] envelope) throws GeneralSecurityException {
+        return EncryptedEnvelope.open(decryptionKey(), envelope);
+    }
+
+    /**
+     * Encrypt the remaining bytes of the message into a binary envelope, written at the position of the envelope buffer.
+     * Nothing is allocated per message, and the buffers may be direct. This requires the private key of the sender.
+     *
+     * @param message The message
+     * @param envelope The buffer the envelope is written to, with room for {@link #sealedSize(int)} bytes
+     * @return The size of the envelope
+     */
+    public int seal(ByteBuffer message, ByteBuffer envelope) {
+        return AesGcmEngine.seal(encryptionKey(), message, envelope);
+    }
+
+    /**
+     * Decrypt the remaining bytes of a binary envelope into the message buffer, at its position.
+     * The buffers may be direct, and may be the same memory to decrypt in place. This requires the private key of the recipient.
+     *
+     * @param envelope The envelope
+     * @param message The buffer the message is written to, with room for {@link #openedSize(int)} bytes
+     * @return The size of the message
+     * @throws GeneralSecurityException If the envelope is malformed, was sealed under another key, or fails authentication
+     */
+    public int open(ByteBuffer envelope, ByteBuffer message) throws GeneralSecurityException {
+        return AesGcmEngine.open(decryptionKey(), envelope, message);
+    }
+
+    /**
+     * Get the size of the binary envelope of a message
+     *
+     * @param messageSize The size of the message
+     * @return The size of the envelope
+     */
+    public static int sealedSize(int messageSize) {
+        return AesGcmEngine.sealedSize(messageSize);
+    }
+
+    /**
+     * Get the size of the message in a binary envelope
+     *
+     * @param envelopeSize The size of the envelope
+     * @return The size of the message
+     */
+    public static int openedSize(int envelopeSize) {
+        return envelopeSize - EncryptedEnvelope.HEADER_SIZE - EncryptedEnvelope.TAG_SIZE;
     }
 
     public String message2Token(String message) {
@@ -166,8 +263,7 @@ public class End2EndEncryption {
 
             String encryptedMessageBase64 = claimsSet.getClaim("encryptedMessage").toString();
             byte[] encryptedMessage = Base64.getDecoder().decode(encryptedMessageBase64);
-            String decryptedMessageBase64 = decryptedMessage(encryptedMessage, algorithm, mode, ivParam, aliceJWK, bobJWK);
-            message = new String(Base64.getDecoder().decode(decryptedMessageBase64));
+            message = new String(decryptedMessage(encryptedMessage, algorithm, mode, ivParam, aliceJWK, bobJWK));
 
         } catch (JOSEException | ParseException e) {
             System.out.println("Exception Occure when token2message");
@@ -176,37 +272,39 @@ public class End2EndEncryption {
         return message;
     }
     private String encryptedMessage(String message, String algorithm, String mode, IvParameterSpec iv, ECKey aliceJWK, ECKey bobJWK) {
-        ECCurve curve = ECNamedCurveTable.getParameterSpec(this.curveName).getCurve();
-        ECDomainParameters domainParameters = new ECDomainParameters(CustomNamedCurves.getByName(this.curveName));
-        //Convert private ECKey to ECPrivateKeyParameters
-        BigInteger alicePrivateKeyInt = aliceJWK.getD().decodeToBigInteger();
-        ECPrivateKeyParameters alicePrivateKey = new ECPrivateKeyParameters(alicePrivateKeyInt, domainParameters);
-        //Convert public ECKey to ECPublicKeyParameters
-        ECPoint bobPoint = curve.createPoint(bobJWK.getX().decodeToBigInteger(), bobJWK.getY().decodeToBigInteger());
-        ECPublicKeyParameters bobPublicKey = new ECPublicKeyParameters(bobPoint, domainParameters);
-
-        byte[] sharedSecretAlice = computeSharedSecret(alicePrivateKey, bobPublicKey);
-        //System.out.printf("sharedSecretAlice in encryptedMessage is: %s%n", Base64.getEncoder().encodeToString(sharedSecretAlice));
-        byte[] encryptedMsg = encrypt(message, algorithm, mode, iv, sharedSecretAlice);
+        byte[] encryptedMsg = encrypt(message, algorithm, mode, iv, encryptionKey().secretKey());
         String encryptedMsgBase64 = Base64.getEncoder().encodeToString(encryptedMsg);
         return encryptedMsgBase64;
     }
 
-    private String decryptedMessage(byte[] message, String algorithm, String mode, IvParameterSpec iv, ECKey aliceJWK, ECKey bobJWK) {
-        ECCurve curve = ECNamedCurveTable.getParameterSpec(this.curveName).getCurve();
-        ECDomainParameters domainParameters = new ECDomainParameters(CustomNamedCurves.getByName(this.curveName));
-        //Convert private ECKey to ECPrivateKeyParameters
-        BigInteger alicePrivateKeyInt = bobJWK.getD().decodeToBigInteger();
-        ECPrivateKeyParameters alicePrivateKey = new ECPrivateKeyParameters(alicePrivateKeyInt, domainParameters);
-        //Convert public ECKey to ECPublicKeyParameters
-        ECPoint bobPoint = curve.createPoint(aliceJWK.getX().decodeToBigInteger(), aliceJWK.getY().decodeToBigInteger());
-        ECPublicKeyParameters bobPublicKey = new ECPublicKeyParameters(bobPoint, domainParameters);
+    private byte[] decryptedMessage(byte[] message, String algorithm, String mode, IvParameterSpec iv, ECKey aliceJWK, ECKey bobJWK) {
+        return decrypt(message, algorithm, mode, iv, decryptionKey().secretKey());
+    }
 
-        byte[] sharedSecretAlice = computeSharedSecret(alicePrivateKey, bobPublicKey);
-        //System.out.printf("sharedSecretAlice in decryptedMessage is: %s%n", Base64.getEncoder().encodeToString(sharedSecretAlice));
-        byte[] decryptedMsg = decrypt(message, algorithm, mode, iv, sharedSecretAlice);
-        String decryptedMsgBase64 = Base64.getEncoder().encodeToString(decryptedMsg);
-        return decryptedMsgBase64;
+    SharedKeyCache.SharedKey encryptionKey() {
+        SharedKeyCache.SharedKey key = encryptionKey;
+        if (key == null || key.isExpired(System.currentTimeMillis())) {
+            key = SharedKeyCache.get(aliceJWK, bobJWK, sharedKeyTtlMs);
+            encryptionKey = key;
+        }
+        return key;
+    }
+
+    ECKey senderJWK() {
+        return aliceJWK;
+    }
+
+    ECKey recipientJWK() {
+        return bobJWK;
+    }
+
+    SharedKeyCache.SharedKey decryptionKey() {
+        SharedKeyCache.SharedKey key = decryptionKey;
+        if (key == null || key.isExpired(System.currentTimeMillis())) {
+            key = SharedKeyCache.get(bobJWK, aliceJWK, sharedKeyTtlMs);
+            decryptionKey = key;
+        }
+        return key;
     }
 
     public void testECDH() {
@@ -248,21 +346,21 @@ public class End2EndEncryption {
             IvParameterSpec iv = generateIV();
 
             // Step 5: Encrypt the data 
-            byte[] encryptedMessageBytes = encrypt(message, algorithm, mode, iv, sharedSecretAlice);
+            byte[] encryptedMessageBytes = encrypt(message, algorithm, mode, iv, new SecretKeySpec(sharedSecretAlice, "AES"));
             String encryptedMessage = encryptedMessage(message, algorithm, mode, iv, aliceJWK, bobJWK);
             System.out.println("Encrypted message 1: " + Base64.getEncoder().encodeToString(encryptedMessageBytes));
             System.out.println("Encrypted message 2: " + encryptedMessage);
             // Step 6: Transmit ciphertext, IV, algorithm, and mode to Bob 
 
             // Step 7：Decrypt message with shared secret
-            byte[] decryptedMessageBytes = decrypt(encryptedMessageBytes, algorithm, mode, iv, sharedSecretBob);
+            byte[] decryptedMessageBytes = decrypt(encryptedMessageBytes, algorithm, mode, iv, new SecretKeySpec(sharedSecretBob, "AES"));
             // Convert the received string back to a byte array
             //byte[] decodedByteArray = Base64.getDecoder().decode(receivedString);
             // Convert byte array back to a string
             String decryptedMessageStr = new String(decryptedMessageBytes);
             System.out.println("Decrypted message 1: " + decryptedMessageStr);
-            String decryptedMessage = decryptedMessage(Base64.getDecoder().decode(encryptedMessage), algorithm, mode, iv, bobJWK, aliceJWK);
-            System.out.println("Decrypted message 2: " + new String(Base64.getDecoder().decode(decryptedMessage)));
+            byte[] decryptedMessage = decryptedMessage(Base64.getDecoder().decode(encryptedMessage), algorithm, mode, iv, bobJWK, aliceJWK);
+            System.out.println("Decrypted message 2: " + new String(decryptedMessage));
         } catch (java.lang.Exception e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -270,25 +368,15 @@ public class End2EndEncryption {
     }
 
     private AsymmetricCipherKeyPair generateKeyPair() {
-        ECDomainParameters domainParameters = new ECDomainParameters(CustomNamedCurves.getByName(this.curveName));
         // Generate key pair
         ECKeyPairGenerator generator = new ECKeyPairGenerator();
-        ECKeyGenerationParameters generationParameters = new ECKeyGenerationParameters(domainParameters, new SecureRandom());
+        ECKeyGenerationParameters generationParameters = new ECKeyGenerationParameters(SharedKeyCache.DOMAIN, new SecureRandom());
         generator.init(generationParameters);
         return generator.generateKeyPair();
     }
 
     private byte[] computeSharedSecret(ECPrivateKeyParameters privateKey, ECPublicKeyParameters publicKey) {
-        ECDHBasicAgreement agreement = new ECDHBasicAgreement();
-        agreement.init(privateKey);
-        BigInteger sharedSecret = agreement.calculateAgreement(publicKey);
-        //return sharedSecret.toByteArray();
-        // To fix the length of sharedkey to 256bits
-        HKDFBytesGenerator kdf = new HKDFBytesGenerator(new SHA256Digest());
-        kdf.init(new HKDFParameters(sharedSecret.toByteArray(), null, null));
-        byte[] derivedKey = new byte[32]; // 256-bit key length
-        kdf.generateBytes(derivedKey, 0, derivedKey.length);
-        return derivedKey;
+        return SharedKeyCache.deriveKey(privateKey, publicKey);
     }
 
     // Generate a random IV
@@ -299,17 +387,20 @@ public class End2EndEncryption {
         //       For demonstration purposes, this uses a random fixed IV
         //       Never reuse the same IV with the same key
         //       IV should be securely transmitted or included with the ciphertext
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(iv);
+        RANDOM.nextBytes(iv);
         return new IvParameterSpec(iv);
     }
 
-    private byte[] encrypt(String message, String algorithm, String mode, IvParameterSpec iv, byte[] sharedSecret) {
+    private static Cipher cipher(String algorithm, String mode) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        String transformation = algorithm + "/" + mode + "/PKCS5Padding";
+        return LEGACY_TRANSFORMATION.equals(transformation) ? LEGACY_CIPHER.get() : Cipher.getInstance(transformation);
+    }
+
+    private byte[] encrypt(String message, String algorithm, String mode, IvParameterSpec iv, SecretKeySpec secretKey) {
         Cipher cipher;
         byte[] encryptMsg = null;
         try {
-            cipher = Cipher.getInstance(algorithm + "/" + mode + "/PKCS5Padding");
-            SecretKeySpec secretKey = new SecretKeySpec(sharedSecret, "AES");
+            cipher = cipher(algorithm, mode);
             cipher.init(Cipher.ENCRYPT_MODE, secretKey, iv);
             encryptMsg = cipher.doFinal(message.getBytes());
         } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
@@ -325,12 +416,11 @@ public class End2EndEncryption {
         return encryptMsg;
     }
 
-    private byte[] decrypt(byte[] encryptedMessage, String algorithm, String mode, IvParameterSpec iv, byte[] sharedSecret) {
+    private byte[] decrypt(byte[] encryptedMessage, String algorithm, String mode, IvParameterSpec iv, SecretKeySpec secretKey) {
         Cipher cipher;
         byte[] decryptedBytes = null;
         try {
-            cipher = Cipher.getInstance(algorithm + "/" + mode + "/PKCS5Padding");
-            SecretKeySpec secretKey = new SecretKeySpec(sharedSecret, "AES");
+            cipher = cipher(algorithm, mode);
             cipher.init(Cipher.DECRYPT_MODE, secretKey, iv);
             decryptedBytes = cipher.doFinal(encryptedMessage);
         } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.security.GeneralSecurityException;
+import java.util.Map;
+
+/**
+ * A Kafka <code>Deserializer</code> that decrypts the records of {@link End2EndEncryptionSerializer}
+ * into <code>byte[]</code> values, see {@link End2EndSession}.
+ * <p>
+ * It can be passed to the consumer already set up, or be configured by class name with the following properties:
+ * </p>
+ * <ul>
+ * <li><em>whispeer.e2ee.local.jwk</em> The key of the recipient, with the private key, as an <code>ECKey</code> or its JSON</li>
+ * <li><em>whispeer.e2ee.peer.jwk</em> The public key of the sender, as an <code>ECKey</code> or its JSON</li>
+ * </ul>
+ * <p>
+ * A record that can not be decrypted fails with a <code>SerializationException</code>.
+ * </p>
+ */
+public class End2EndEncryptionDeserializer implements Deserializer<byte[]> {
+
+    private End2EndSession session;
+
+    /**
+     * Create a new instance, to be configured through {@link #configure(Map, boolean)}
+     */
+    public End2EndEncryptionDeserializer() {
+    }
+
+    /**
+     * Create a new instance
+     *
+     * @param e2ee The encryption between the sender and the recipient
+     */
+    public End2EndEncryptionDeserializer(End2EndEncryption e2ee) {
+        this(new End2EndSession(e2ee));
+    }
+
+    /**
+     * Create a new instance
+     *
+     * @param session The session between the sender and the recipient
+     */
+    public End2EndEncryptionDeserializer(End2EndSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        if (session == null) {
+            session = new End2EndSession(new End2EndEncryption(End2EndEncryptionSerializer.jwk(configs, End2EndEncryptionSerializer.E2EE_PEER_JWK),
+                    End2EndEncryptionSerializer.jwk(configs, End2EndEncryptionSerializer.E2EE_LOCAL_JWK)));
+        }
+    }
+
+    @Override
+    public byte[] deserialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (session == null) {
+            throw new IllegalStateException("End2EndEncryptionDeserializer has not been configured");
+        }
+        try {
+            return session.open(data);
+        } catch (GeneralSecurityException e) {
+            throw new SerializationException("Failed to decrypt a record of topic " + topic, e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import com.nimbusds.jose.jwk.ECKey;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.text.ParseException;
+import java.util.Map;
+
+/**
+ * A Kafka <code>Serializer</code> that encrypts <code>byte[]</code> values for the recipient within an {@link End2EndSession}.
+ * <p>
+ * It can be passed to the producer already set up, or be configured by class name with the following properties:
+ * </p>
+ * <ul>
+ * <li><em>whispeer.e2ee.local.jwk</em> The key of the sender, with the private key, as an <code>ECKey</code> or its JSON</li>
+ * <li><em>whispeer.e2ee.peer.jwk</em> The public key of the recipient, as an <code>ECKey</code> or its JSON</li>
+ * <li><em>whispeer.e2ee.session.max.records</em> The number of records after which a new session is started.<br>
+ * The default value is <em>1000000</em>.</li>
+ * <li><em>whispeer.e2ee.session.max.age.ms</em> The age in millis after which a new session is started.<br>
+ * The default value is <em>3600000</em>.</li>
+ * <li><em>whispeer.e2ee.session.handshake.interval</em> The number of records of a session between two key-establishment records,
+ * see {@link End2EndSession}.<br>
+ * A larger interval adds less overhead per record, a smaller one lets a consumer that starts reading within a session
+ * decrypt sooner, 1 makes every record decryptable on its own.<br>
+ * The default value is <em>256</em>.</li>
+ * </ul>
+ */
+public class End2EndEncryptionSerializer implements Serializer<byte[]> {
+
+    /**
+     * "whispeer.e2ee.local.jwk"
+     */
+    public static final String E2EE_LOCAL_JWK = "whispeer.e2ee.local.jwk";
+
+    /**
+     * "whispeer.e2ee.peer.jwk"
+     */
+    public static final String E2EE_PEER_JWK = "whispeer.e2ee.peer.jwk";
+
+    /**
+     * "whispeer.e2ee.session.max.records"
+     */
+    public static final String E2EE_SESSION_MAX_RECORDS = "whispeer.e2ee.session.max.records";
+
+    /**
+     * "whispeer.e2ee.session.max.age.ms"
+     */
+    public static final String E2EE_SESSION_MAX_AGE_MS = "whispeer.e2ee.session.max.age.ms";
+
+    /**
+     * "whispeer.e2ee.session.handshake.interval"
+     */
+    public static final String E2EE_SESSION_HANDSHAKE_INTERVAL = "whispeer.e2ee.session.handshake.interval";
+
+    private End2EndSession session;
+
+    /**
+     * Create a new instance, to be configured through {@link #configure(Map, boolean)}
+     */
+    public End2EndEncryptionSerializer() {
+    }
+
+    /**
+     * Create a new instance
+     *
+     * @param e2ee The encryption between the sender and the recipient
+     */
+    public End2EndEncryptionSerializer(End2EndEncryption e2ee) {
+        this(new End2EndSession(e2ee));
+    }
+
+    /**
+     * Create a new instance
+     *
+     * @param session The session between the sender and the recipient
+     */
+    public End2EndEncryptionSerializer(End2EndSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        if (session == null) {
+            Config config = new Config(configs);
+            session = new End2EndSession(new End2EndEncryption(jwk(configs, E2EE_LOCAL_JWK), jwk(configs, E2EE_PEER_JWK)),
+                    config.getValueAsLong(E2EE_SESSION_MAX_RECORDS, End2EndSession.DEFAULT_MAX_RECORDS),
+                    config.getValueAsLong(E2EE_SESSION_MAX_AGE_MS, End2EndSession.DEFAULT_MAX_AGE_MS),
+                    config.getValueAsLong(E2EE_SESSION_HANDSHAKE_INTERVAL, End2EndSession.DEFAULT_HANDSHAKE_INTERVAL));
+        }
+    }
+
+    @Override
+    public byte[] serialize(String topic, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (session == null) {
+            throw new IllegalStateException("End2EndEncryptionSerializer has not been configured");
+        }
+        return session.seal(data);
+    }
+
+    static ECKey jwk(Map<String, ?> configs, String key) {
+        Object value = configs.get(key);
+        if (value instanceof ECKey) {
+            return (ECKey) value;
+        }
+        if (value == null) {
+            throw new ConfigException("Missing '" + key + "'");
+        }
+        try {
+            return ECKey.parse(value.toString());
+        } catch (ParseException e) {
+            throw new ConfigException("Invalid '" + key + "'", e);
+        }
+    }
+}
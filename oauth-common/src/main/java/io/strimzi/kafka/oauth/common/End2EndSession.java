@@ -0,0 +1,288 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import org.web3j.crypto.Hash;
+import org.web3j.crypto.Sign;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * An end-to-end encryption session between a sender and a recipient, which pays for the asymmetric crypto once per
+ * session rather than once per record.
+ * <p>
+ * The sender picks a random session key and announces it in a key-establishment record: the session key, sealed under
+ * the ECDH key shared with the recipient, and signed with the secp256k1 key of the sender. The following records are
+ * only sealed under the session key, with AES-GCM, in the format of {@link EncryptedEnvelope}, whose key id is the id
+ * of the session. The key-establishment record also carries a message of the session, so a session does not
+ * add records to the topic:
+ * </p>
+ * <pre>
+ *   2 (1 byte) | session id (8 bytes) | sealed session key (69 bytes) | signature (65 bytes) | envelope of the message
+ * </pre>
+ * <p>
+ * The key-establishment record is repeated every <code>handshakeInterval</code> records of the session, so that a
+ * recipient that starts reading within a session, e.g. a consumer that joins late or resumes from a committed offset,
+ * can decrypt the records from the next key-establishment record on. The interval trades the overhead of the 143 bytes
+ * of a key-establishment record against how many records a late recipient has to wait for: by default one record in
+ * {@value #DEFAULT_HANDSHAKE_INTERVAL} carries the session key, which adds less than a byte per record, and keeps the next
+ * key-establishment record within one poll of a consumer with the default <code>max.poll.records</code> of 500.
+ * An interval of 1 makes every record decryptable on its own.
+ * A new session is started once the current one has sealed the maximum number of records, or has reached the maximum age.
+ * </p>
+ * <p>
+ * The recipient verifies the signature once per session, and keeps the keys of the recently used sessions.
+ * A record of a session whose key-establishment record has not been received can not be decrypted, so the records
+ * of a sender should go to a single partition, e.g. by giving them the same record key.
+ * Records sealed directly under the shared ECDH key, by {@link End2EndEncryption#seal(byte[])}, are also accepted.
+ * </p>
+ */
+public final class End2EndSession {
+
+    /**
+     * The default maximum number of records sealed under one session key
+     */
+    public static final long DEFAULT_MAX_RECORDS = 1000000;
+
+    /**
+     * The default maximum age of a session in millis
+     */
+    public static final long DEFAULT_MAX_AGE_MS = 3600 * 1000;
+
+    /**
+     * The default number of records between two key-establishment records of a session
+     */
+    public static final long DEFAULT_HANDSHAKE_INTERVAL = 256;
+
+    static final byte HANDSHAKE = 2;
+
+    private static final int SESSION_KEY_SIZE = 32;
+
+    private static final int SEALED_KEY_SIZE = EncryptedEnvelope.HEADER_SIZE + SESSION_KEY_SIZE + EncryptedEnvelope.TAG_SIZE;
+
+    // The part of the key-establishment record covered by the signature
+    private static final int SIGNED_SIZE = 1 + 8 + SEALED_KEY_SIZE;
+
+    private static final int SIGNATURE_SIZE = 65;
+
+    static final int HANDSHAKE_SIZE = SIGNED_SIZE + SIGNATURE_SIZE;
+
+    private static final int RECEIVED_SESSIONS_MAX_SIZE = 64;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final End2EndEncryption e2ee;
+    private final long maxRecords;
+    private final long maxAgeMs;
+    private final long handshakeInterval;
+
+    // sender side, guarded by this
+    private Session current;
+    private WEB3 signer;
+
+    // recipient side, the keys of the recent sessions in access order, guarded by itself
+    private final LinkedHashMap<Long, SharedKeyCache.SharedKey> received = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile BigInteger senderPublicKey;
+
+    /**
+     * Create a new instance with the default rotation thresholds
+     *
+     * @param e2ee The encryption between the sender and the recipient
+     */
+    public End2EndSession(End2EndEncryption e2ee) {
+        this(e2ee, DEFAULT_MAX_RECORDS, DEFAULT_MAX_AGE_MS);
+    }
+
+    /**
+     * Create a new instance
+     *
+     * @param e2ee The encryption between the sender and the recipient
+     * @param maxRecords The number of records after which the sender starts a new session
+     * @param maxAgeMs The age in millis after which the sender starts a new session
+     */
+    public End2EndSession(End2EndEncryption e2ee, long maxRecords, long maxAgeMs) {
+        this(e2ee, maxRecords, maxAgeMs, DEFAULT_HANDSHAKE_INTERVAL);
+    }
+
+    /**
+     * Create a new instance
+     *
+     * @param e2ee The encryption between the sender and the recipient
+     * @param maxRecords The number of records after which the sender starts a new session
+     * @param maxAgeMs The age in millis after which the sender starts a new session
+     * @param handshakeInterval The number of records of a session between two key-establishment records
+     */
+    public End2EndSession(End2EndEncryption e2ee, long maxRecords, long maxAgeMs, long handshakeInterval) {
+        if (maxRecords <= 0) {
+            throw new IllegalArgumentException("maxRecords <= 0");
+        }
+        if (handshakeInterval <= 0) {
+            throw new IllegalArgumentException("handshakeInterval <= 0");
+        }
+        this.e2ee = e2ee;
+        this.maxRecords = maxRecords;
+        this.maxAgeMs = maxAgeMs;
+        this.handshakeInterval = handshakeInterval;
+    }
+
+    /**
+     * Encrypt the message for the recipient. The first record of a session, and every <code>handshakeInterval</code>
+     * record after it, is a key-establishment record. This requires the private key of the sender.
+     * <p>
+     * The records are sealed under the lock of the session, so that the records of a session are produced
+     * in the order in which it decided which of them carry the key-establishment record.
+     * </p>
+     *
+     * @param message The message
+     * @return The record value
+     */
+    public synchronized byte[] seal(byte[] message) {
+        long now = System.currentTimeMillis();
+        if (current == null || current.records >= maxRecords || current.key.isExpired(now)) {
+            current = newSession(now);
+        }
+        boolean handshake = current.records % handshakeInterval == 0;
+        current.records++;
+
+        if (!handshake) {
+            return EncryptedEnvelope.seal(current.key, message);
+        }
+        byte[] record = Arrays.copyOf(current.handshake, HANDSHAKE_SIZE + AesGcmEngine.sealedSize(message.length));
+        AesGcmEngine.seal(current.key, ByteBuffer.wrap(message), ByteBuffer.wrap(record, HANDSHAKE_SIZE, record.length - HANDSHAKE_SIZE));
+        return record;
+    }
+
+    private Session newSession(long now) {
+        byte[] keyBytes = new byte[SESSION_KEY_SIZE];
+        RANDOM.nextBytes(keyBytes);
+        SharedKeyCache.SharedKey key = new SharedKeyCache.SharedKey(new SecretKeySpec(keyBytes, "AES"), now + maxAgeMs, true);
+
+        ByteBuffer handshake = ByteBuffer.allocate(HANDSHAKE_SIZE);
+        handshake.put(HANDSHAKE);
+        handshake.putLong(key.keyId());
+        handshake.put(EncryptedEnvelope.seal(e2ee.encryptionKey(), keyBytes));
+
+        if (signer == null) {
+            signer = new WEB3(e2ee.senderJWK());
+        }
+        Sign.SignatureData signature = Sign.signMessage(Hash.sha256(Arrays.copyOf(handshake.array(), SIGNED_SIZE)), signer.web3KeyPair, false);
+        handshake.put(signature.getR());
+        handshake.put(signature.getS());
+        handshake.put(signature.getV()[0]);
+        return new Session(key, handshake.array());
+    }
+
+    /**
+     * Decrypt a record created by {@link #seal(byte[])}, or by {@link End2EndEncryption#seal(byte[])}.
+     * This requires the private key of the recipient.
+     *
+     * @param record The record value
+     * @return The message
+     * @throws UnknownSessionException If the record belongs to a session whose key-establishment record has not been received
+     * @throws GeneralSecurityException If the record is malformed, or fails authentication
+     */
+    public byte[] open(byte[] record) throws GeneralSecurityException {
+        if (record.length == 0) {
+            throw new GeneralSecurityException("Empty encrypted message");
+        }
+        if (record[0] == HANDSHAKE) {
+            SharedKeyCache.SharedKey key = establish(record);
+            return EncryptedEnvelope.open(key, record, HANDSHAKE_SIZE, record.length - HANDSHAKE_SIZE);
+        }
+
+        long keyId = EncryptedEnvelope.keyId(record);
+        SharedKeyCache.SharedKey key = receivedKey(keyId);
+        if (key == null) {
+            key = e2ee.decryptionKey();
+            if (key.keyId() != keyId) {
+                throw new UnknownSessionException("Encrypted message of an unknown session, its key-establishment record has not been received");
+            }
+        }
+        return EncryptedEnvelope.open(key, record);
+    }
+
+    private SharedKeyCache.SharedKey establish(byte[] record) throws GeneralSecurityException {
+        if (record.length < HANDSHAKE_SIZE) {
+            throw new GeneralSecurityException("Key-establishment record too short: " + record.length + " bytes");
+        }
+        long sessionId = ByteBuffer.wrap(record, 1, 8).getLong();
+        SharedKeyCache.SharedKey key = receivedKey(sessionId);
+        if (key != null) {
+            // the records of the session are authenticated by the session key
+            return key;
+        }
+
+        Sign.SignatureData signature = new Sign.SignatureData(record[HANDSHAKE_SIZE - 1],
+                Arrays.copyOfRange(record, SIGNED_SIZE, SIGNED_SIZE + 32),
+                Arrays.copyOfRange(record, SIGNED_SIZE + 32, SIGNED_SIZE + 64));
+        BigInteger signerKey = Sign.signedMessageHashToKey(Hash.sha256(Arrays.copyOf(record, SIGNED_SIZE)), signature);
+        if (!signerKey.equals(senderPublicKey())) {
+            throw new GeneralSecurityException("Key-establishment record not signed by the sender");
+        }
+
+        byte[] keyBytes = EncryptedEnvelope.open(e2ee.decryptionKey(), record, 9, SEALED_KEY_SIZE);
+        key = new SharedKeyCache.SharedKey(new SecretKeySpec(keyBytes, "AES"), Long.MAX_VALUE);
+        if (key.keyId() != sessionId) {
+            throw new GeneralSecurityException("Session id does not match the session key");
+        }
+
+        synchronized (received) {
+            received.put(sessionId, key);
+            if (received.size() > RECEIVED_SESSIONS_MAX_SIZE) {
+                // drop the least recently used session
+                Iterator<Long> it = received.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        return key;
+    }
+
+    private SharedKeyCache.SharedKey receivedKey(long sessionId) {
+        synchronized (received) {
+            return received.get(sessionId);
+        }
+    }
+
+    private BigInteger senderPublicKey() {
+        BigInteger result = senderPublicKey;
+        if (result == null) {
+            result = WEB3.publicWEB3(e2ee.senderJWK()).publicKey;
+            senderPublicKey = result;
+        }
+        return result;
+    }
+
+    /**
+     * The exception thrown when a record belongs to a session whose key-establishment record has not been received.
+     * The record can be decrypted once the key-establishment record, which is repeated within the session, has been opened.
+     */
+    public static final class UnknownSessionException extends GeneralSecurityException {
+
+        private static final long serialVersionUID = 1L;
+
+        UnknownSessionException(String message) {
+            super(message);
+        }
+    }
+
+    private static class Session {
+        final SharedKeyCache.SharedKey key;
+        final byte[] handshake;
+        long records;
+
+        Session(SharedKeyCache.SharedKey key, byte[] handshake) {
+            this.key = key;
+            this.handshake = handshake;
+        }
+    }
+}
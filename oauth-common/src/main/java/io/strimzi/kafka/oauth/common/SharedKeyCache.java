@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.util.Base64URL;
+import org.bouncycastle.crypto.agreement.ECDHBasicAgreement;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.params.HKDFParameters;
+import org.bouncycastle.math.ec.ECPoint;
+import org.web3j.crypto.Hash;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the AES keys derived with ECDH and HKDF from a (local private key, peer public key) pair,
+ * shared by all the {@link End2EndEncryption} instances of the JVM.
+ * <p>
+ * A pair is identified by the SHA-256 of the local private key and the peer public key, so that a key supplied with
+ * the public key of another party, but not its private key, never gets the key cached for that party.
+ * </p>
+ */
+final class SharedKeyCache {
+
+    static final ECDomainParameters DOMAIN = new ECDomainParameters(CustomNamedCurves.getByName("secp256k1"));
+
+    private static final int MAX_SIZE = 1000;
+
+    private static final ConcurrentHashMap<String, SharedKey> KEYS = new ConcurrentHashMap<>();
+
+    private SharedKeyCache() {
+    }
+
+    /**
+     * Get the key of the pair, deriving it if it is not cached or has expired
+     *
+     * @param localJWK The local key, with the private key
+     * @param peerJWK The public key of the peer
+     * @param ttlMs The time in millis after which a newly derived key expires
+     * @return The key
+     */
+    static SharedKey get(ECKey localJWK, ECKey peerJWK, long ttlMs) {
+        String id = id(localJWK, peerJWK);
+        long now = System.currentTimeMillis();
+        SharedKey key = KEYS.get(id);
+        if (key != null && !key.isExpired(now)) {
+            return key;
+        }
+
+        ECPrivateKeyParameters privateKey = new ECPrivateKeyParameters(localJWK.getD().decodeToBigInteger(), DOMAIN);
+        ECPoint peerPoint = DOMAIN.getCurve().createPoint(peerJWK.getX().decodeToBigInteger(), peerJWK.getY().decodeToBigInteger());
+        key = new SharedKey(new SecretKeySpec(deriveKey(privateKey, new ECPublicKeyParameters(peerPoint, DOMAIN)), "AES"), now + ttlMs);
+
+        if (KEYS.size() >= MAX_SIZE) {
+            Iterator<String> it = KEYS.keySet().iterator();
+            if (it.hasNext()) {
+                KEYS.remove(it.next());
+            }
+        }
+        KEYS.put(id, key);
+        return key;
+    }
+
+    /**
+     * Derive a 256 bit key from the ECDH shared secret
+     *
+     * @param privateKey The local private key
+     * @param publicKey The public key of the peer
+     * @return The key
+     */
+    static byte[] deriveKey(ECPrivateKeyParameters privateKey, ECPublicKeyParameters publicKey) {
+        ECDHBasicAgreement agreement = new ECDHBasicAgreement();
+        agreement.init(privateKey);
+        BigInteger sharedSecret = agreement.calculateAgreement(publicKey);
+        // To fix the length of sharedkey to 256bits
+        HKDFBytesGenerator kdf = new HKDFBytesGenerator(new SHA256Digest());
+        kdf.init(new HKDFParameters(sharedSecret.toByteArray(), null, null));
+        byte[] derivedKey = new byte[32];
+        kdf.generateBytes(derivedKey, 0, derivedKey.length);
+        return derivedKey;
+    }
+
+    private static String id(ECKey localJWK, ECKey peerJWK) {
+        return Base64URL.encode(Hash.sha256(localJWK.getD().decode())) + "/" + peerJWK.getX() + "." + peerJWK.getY();
+    }
+
+    static class SharedKey {
+        private final SecretKeySpec secretKey;
+        private final long keyId;
+        private final long expiresAtMs;
+        // The counter of the nonces sealed under a fresh key, or null if the key may be used by other instances
+        private final AtomicLong nonceCounter;
+
+        SharedKey(SecretKeySpec secretKey, long expiresAtMs) {
+            this(secretKey, expiresAtMs, false);
+        }
+
+        /**
+         * @param secretKey The key
+         * @param expiresAtMs The time in millis at which the key expires
+         * @param fresh True if the key was drawn at random for this instance, which is the only one to seal under it
+         */
+        SharedKey(SecretKeySpec secretKey, long expiresAtMs, boolean fresh) {
+            this.secretKey = secretKey;
+            // The first 8 bytes of the SHA-256 of the key, which identify the key without revealing it
+            this.keyId = ByteBuffer.wrap(Hash.sha256(secretKey.getEncoded())).getLong();
+            this.expiresAtMs = expiresAtMs;
+            this.nonceCounter = fresh ? new AtomicLong() : null;
+        }
+
+        SecretKeySpec secretKey() {
+            return secretKey;
+        }
+
+        long keyId() {
+            return keyId;
+        }
+
+        boolean isExpired(long nowMs) {
+            return expiresAtMs <= nowMs;
+        }
+
+        /**
+         * @return True if the nonces sealed under the key can be drawn from a counter
+         */
+        boolean isFresh() {
+            return nonceCounter != null;
+        }
+
+        long nextNonce() {
+            return nonceCounter.getAndIncrement();
+        }
+    }
+}
@@ -4,99 +4,153 @@
  */
 package io.strimzi.kafka.oauth.common;
 
-import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.jwk.Curve;
 import com.nimbusds.jose.jwk.ECKey;
 import com.nimbusds.jose.jwk.JWK;
-import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
 import com.nimbusds.jose.util.Base64URL;
 import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.BigIntegers;
 import org.bouncycastle.util.encoders.Hex;
+import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.bouncycastle.asn1.x9.X9IntegerConverter;
 import org.bouncycastle.crypto.ec.CustomNamedCurves;
 import org.bouncycastle.crypto.params.ECDomainParameters;
-//import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.jce.spec.ECPrivateKeySpec;
 
 import java.io.IOException;
 import java.math.BigInteger;
-import java.security.KeyPair;
-//import java.security.Security;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
 import java.security.interfaces.ECPrivateKey;
-import java.util.Locale;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.web3j.crypto.Hash;
 import org.web3j.crypto.Keys;
 import org.web3j.crypto.Sign;
 import org.web3j.utils.Numeric;
 import org.web3j.crypto.ECKeyPair;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import org.asynchttpclient.DefaultAsyncHttpClient;
 import org.asynchttpclient.Response;
 import org.asynchttpclient.AsyncHttpClient;
 
 /**
- * A class with methods for introspecting a JWT token
+ * The identity of a wallet: its secp256k1 key pair, or only its public key, and the Ethereum address derived from it.
+ * <p>
+ * Instances are immutable. The identities created from a public key with {@link #publicWEB3(BigInteger)} never hold
+ * a private key, and are kept in a bounded cache keyed by the public key, so that the point decoding and the keccak
+ * hashing of the address derivation are done once per wallet rather than once per token.
+ * </p>
  */
 public class WEB3 {
-    public ECPrivateKey ecPrivateKey;
-    public ECPoint point;
-    public String address;
 
-    public ECKey nimbusdsJWK;
-    public ECKeyPair web3KeyPair;
+    /**
+     * The JWS algorithm name of tokens signed with a recoverable secp256k1 signature
+     */
+    public static final String RECOVERABLE_ALGORITHM = "ES256K-R";
+
+    private static final X9ECParameters CURVE = CustomNamedCurves.getByName("secp256k1");
+    private static final ECDomainParameters DOMAIN = new ECDomainParameters(CURVE);
+    private static final int FIELD_SIZE = new X9IntegerConverter().getByteLength(CURVE.getCurve());
+    private static final BouncyCastleProvider PROVIDER = new BouncyCastleProvider();
+
+    private static final int PUBLIC_CACHE_MAX_SIZE = 10000;
+    private static final ConcurrentHashMap<BigInteger, WEB3> PUBLIC_CACHE = new ConcurrentHashMap<>();
+
+    public final ECPrivateKey ecPrivateKey;
+    public final ECPoint point;
+    public final String address;
+    public final WalletAddress walletAddress;
+
+    public final ECKey nimbusdsJWK;
+    public final ECKeyPair web3KeyPair;
     //prefix without '0x04' from uncompressed public key
-    public BigInteger publicKey;
+    public final BigInteger publicKey;
+
+    private final byte[] publicKeyHash;
+    private volatile String checksumAddress;
+
     /**
-     * Create a new instance
+     * Create a new instance with a newly generated key pair
      */
     public WEB3() {
+        this(generatePrivateKey());
+    }
+
+    public WEB3(ECKey jwk) {
+        this(jwk.getD().decodeToBigInteger(), jwk);
+    }
+
+    public WEB3(ECPrivateKey ecPrivateKey) {
+        this(ecPrivateKey, ecPrivateKey.getS(), null);
+    }
+
+    public WEB3(BigInteger privateKey) {
+        this(privateKey, null);
+    }
+
+    private WEB3(BigInteger privateKey, ECKey jwk) {
+        this(toECPrivateKey(privateKey), privateKey, jwk);
+    }
+
+    private WEB3(ECPrivateKey ecPrivateKey, BigInteger privateKey, ECKey jwk) {
+        this(ecPrivateKey, privateKey, Sign.publicPointFromPrivate(privateKey).normalize(), jwk);
+    }
+
+    private WEB3(ECPrivateKey ecPrivateKey, BigInteger privateKey, ECPoint point, ECKey jwk) {
+        this(ecPrivateKey, point, toPublicKey(point), privateKey, jwk);
+    }
+
+    private WEB3(ECPrivateKey ecPrivateKey, ECPoint point, BigInteger publicKey, BigInteger privateKey, ECKey jwk) {
+        this.ecPrivateKey = ecPrivateKey;
+        this.point = point;
+        this.publicKey = publicKey;
+        this.web3KeyPair = privateKey != null ? new ECKeyPair(privateKey, publicKey) : null;
+        this.publicKeyHash = Hash.sha3(Numeric.toBytesPadded(publicKey, 2 * FIELD_SIZE));
+        this.walletAddress = WalletAddress.fromBytes(publicKeyHash, publicKeyHash.length - 20);
+        this.address = walletAddress.toString();
+
+        if (jwk != null) {
+            this.nimbusdsJWK = jwk;
+        } else {
+            ECKey.Builder builder = new ECKey.Builder(Curve.SECP256K1,
+                    Base64URL.encode(point.getAffineXCoord().getEncoded()), Base64URL.encode(point.getAffineYCoord().getEncoded()));
+            if (privateKey != null) {
+                builder.d(Base64URL.encode(align2FieldSizeBytes(privateKey)));
+            }
+            this.nimbusdsJWK = builder.build();
+        }
+    }
+
+    private static ECPrivateKey generatePrivateKey() {
         try {
-            //this.jwk = new ECKeyGenerator(Curve.SECP256K1).generate();
-            // Add BouncyCastleProvider to the Security Providers list
-            // Security.addProvider(new BouncyCastleProvider());
-            // Security.insertProviderAt(new BouncyCastleProvider(), 1);
-            this.nimbusdsJWK = new ECKeyGenerator(Curve.SECP256K1).generate();
-            KeyPair javaKeyPair = this.nimbusdsJWK.toKeyPair();
-            this.ecPrivateKey = (ECPrivateKey) javaKeyPair.getPrivate();
-            this.web3KeyPair = ECKeyPair.create(align2FieldSize(this.ecPrivateKey.getS())); 
-            this.point = Sign.publicPointFromPrivate(align2FieldSize(this.web3KeyPair.getPrivateKey()));
-            this.publicKey = this.web3KeyPair.getPublicKey();
-            this.address = Keys.getAddress(align2FieldSize(this.publicKey));
-        } catch (JOSEException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", PROVIDER);
+            generator.initialize(new ECGenParameterSpec("secp256k1"));
+            return (ECPrivateKey) generator.generateKeyPair().getPrivate();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to generate a secp256k1 key pair", e);
         }
     }
 
-    public WEB3(ECKey jwk) {
+    private static ECPrivateKey toECPrivateKey(BigInteger privateKey) {
         try {
-            this.nimbusdsJWK = jwk;
-            KeyPair javaKeyPair = jwk.toKeyPair();
-            this.ecPrivateKey = (ECPrivateKey) javaKeyPair.getPrivate();
-            this.web3KeyPair = ECKeyPair.create(align2FieldSize(this.ecPrivateKey.getS())); 
-            this.point = Sign.publicPointFromPrivate(align2FieldSize(this.web3KeyPair.getPrivateKey()));
-            this.publicKey = this.web3KeyPair.getPublicKey();
-            this.address = Keys.getAddress(align2FieldSize(this.publicKey));
-        } catch (JOSEException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            return (ECPrivateKey) KeyFactory.getInstance("EC", PROVIDER)
+                    .generatePrivate(new ECPrivateKeySpec(privateKey, ECNamedCurveTable.getParameterSpec("secp256k1")));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid secp256k1 private key", e);
         }
     }
 
-    public WEB3(ECPrivateKey ecPrivateKey) {
-        this.ecPrivateKey = ecPrivateKey;
-        this.web3KeyPair = ECKeyPair.create(align2FieldSize(ecPrivateKey.getS())); 
-        this.point = Sign.publicPointFromPrivate(align2FieldSize(this.web3KeyPair.getPrivateKey()));
-        this.publicKey = this.web3KeyPair.getPublicKey();
-        this.address = Keys.getAddress(align2FieldSize(this.publicKey));
-        byte[] x = this.point.normalize().getXCoord().getEncoded();
-        byte[] y = this.point.normalize().getYCoord().getEncoded();
-        this.nimbusdsJWK = new ECKey.Builder(Curve.SECP256K1, Base64URL.encode(x), Base64URL.encode(y))
-                .d(Base64URL.encode(align2FieldSize(ecPrivateKey.getS())))
-                .build();
+    private static BigInteger toPublicKey(ECPoint point) {
+        byte[] encoded = point.getEncoded(false);
+        return new BigInteger(1, Arrays.copyOfRange(encoded, 1, encoded.length));
     }
 
     //There are many types of publickey in this, compressed, uncompressed, hybird
@@ -122,23 +176,48 @@ public class WEB3 {
     //All these types can be decode by curve.decodePoint function
     //prefix without '0x04' from uncompressed public key
     public static WEB3 publicWEB3(BigInteger publicKey) {
-        WEB3 web3 = new WEB3();
-        web3.ecPrivateKey = null;
-        web3.web3KeyPair = null;
-        web3.publicKey = publicKey;
-        web3.address = Keys.getAddress(web3.publicKey);
-        ECDomainParameters curv = new ECDomainParameters(CustomNamedCurves.getByName("secp256k1"));
-        X9IntegerConverter x9 = new X9IntegerConverter();
-        byte[] compEnc = x9.integerToBytes(web3.publicKey, 1 + x9.getByteLength(curv.getCurve()) * 2);
-        compEnc[0] = 0x04;
-        web3.point = curv.getCurve().decodePoint(compEnc);
-        byte[] x = web3.point.normalize().getXCoord().getEncoded();
-        byte[] y = web3.point.normalize().getYCoord().getEncoded();
-        //this.address = Keys.getAddress(this.ecKeyPair.getPublicKey());
-        web3.nimbusdsJWK = new ECKey.Builder(Curve.SECP256K1, Base64URL.encode(x), Base64URL.encode(y)).build();
+        WEB3 web3 = PUBLIC_CACHE.get(publicKey);
+        if (web3 == null) {
+            byte[] encoded = new byte[1 + 2 * FIELD_SIZE];
+            encoded[0] = 0x04;
+            BigIntegers.asUnsignedByteArray(publicKey, encoded, 1, 2 * FIELD_SIZE);
+            ECPoint point = DOMAIN.getCurve().decodePoint(encoded).normalize();
+            web3 = new WEB3(null, point, publicKey, null, null);
+
+            if (PUBLIC_CACHE.size() >= PUBLIC_CACHE_MAX_SIZE) {
+                Iterator<BigInteger> it = PUBLIC_CACHE.keySet().iterator();
+                if (it.hasNext()) {
+                    PUBLIC_CACHE.remove(it.next());
+                }
+            }
+            PUBLIC_CACHE.putIfAbsent(publicKey, web3);
+        }
         return web3;
     }
 
+    /**
+     * Get the address in the EIP-55 mixed case checksum encoding
+     *
+     * @return The checksum address, with the 0x prefix
+     */
+    public String checksumAddress() {
+        String checksum = checksumAddress;
+        if (checksum == null) {
+            checksum = Keys.toChecksumAddress(address);
+            checksumAddress = checksum;
+        }
+        return checksum;
+    }
+
+    /**
+     * Get the keccak-256 hash of the public key, whose last 20 bytes are the address
+     *
+     * @return The hash
+     */
+    public byte[] publicKeyHash() {
+        return publicKeyHash.clone();
+    }
+
     public static boolean checkProvider(String provider) {
 
         boolean status = false;
@@ -205,63 +284,36 @@ public class WEB3 {
 //        return publicWEB3(publicKeyBig);
 //    }
 
-    // Convert raw bytes to hexadecimal string
-    private static String bytesToHex(byte[] bytes) {
-        StringBuilder hexString = new StringBuilder();
-        for (byte b : bytes) {
-            String hex = String.format("%02x", b);
-            hexString.append(hex);
-        }
-        return hexString.toString();
-    }
-
     public static WEB3 publicWEB3(JWK publicKey) {
-        // Create an ObjectMapper instance
-        ObjectMapper objectMapper = new ObjectMapper();
-        // Parse the JSON string to create the JsonNode
-        JsonNode jsonNode = null;
-        try {
-            jsonNode = objectMapper.readTree(publicKey.toJSONString());
-//            System.out.printf("publicKey json: %n%s%n", publicKey.toJSONString());
-        } catch (JsonProcessingException e) {
-            e.printStackTrace();
-        }
-//        System.out.printf("pioint.y: %n%s%n", jsonNode.get("y"));
-        Base64URL yBase64 = Base64URL.from(jsonNode.get("y").toString());
-        byte[] yBytes = yBase64.decode();
-//        System.out.printf("pioint.y: %n%s%n", yBytes.toString());
-//        System.out.printf("pioint.y: %n%d%n", yBytes.length);
-//        System.out.printf("pioint.y: %n%s%n", Base64URL.encode(yBytes));
-        String yHexStr = bytesToHex(yBytes);
-
-//        System.out.printf("pioint.x: %n%s%n", jsonNode.get("x"));
-        Base64URL xBase64 = Base64URL.from(jsonNode.get("x").toString());
-        byte[] xBytes = xBase64.decode();
-        String xHexStr = bytesToHex(xBytes);
-
-        String publicKeyHexStr = xHexStr + yHexStr;
-//        System.out.printf("publicKeyStr: %n%s%n", publicKeyHexStr);
-        BigInteger publicKeyBig = new BigInteger(publicKeyHexStr, 16);
-        return publicWEB3(publicKeyBig);
+        ECKey ecKey = publicKey.toECKey();
+        byte[] encoded = new byte[2 * FIELD_SIZE];
+        BigIntegers.asUnsignedByteArray(ecKey.getX().decodeToBigInteger(), encoded, 0, FIELD_SIZE);
+        BigIntegers.asUnsignedByteArray(ecKey.getY().decodeToBigInteger(), encoded, FIELD_SIZE, FIELD_SIZE);
+        return publicWEB3(new BigInteger(1, encoded));
     }
 
-    public WEB3(BigInteger privateKey) {
-        try {
-            this.point = Sign.publicPointFromPrivate(align2FieldSize(privateKey));
-            byte[] x = this.point.normalize().getXCoord().getEncoded();
-            byte[] y = this.point.normalize().getYCoord().getEncoded();
-            this.nimbusdsJWK = new ECKey.Builder(Curve.SECP256K1, Base64URL.encode(x), Base64URL.encode(y))
-                    .d(Base64URL.encode(align2FieldSize(privateKey)))
-                    .build();
-            KeyPair javaKeyPair = this.nimbusdsJWK.toKeyPair();
-            this.ecPrivateKey = (ECPrivateKey) javaKeyPair.getPrivate();
-            this.web3KeyPair = ECKeyPair.create(align2FieldSize(this.ecPrivateKey.getS())); 
-            this.publicKey = this.web3KeyPair.getPublicKey();
-            this.address = Keys.getAddress(align2FieldSize(this.publicKey));
-        } catch (JOSEException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+    /**
+     * Create a compact ES256K-R token for the claims, signed with the recoverable signature of the wallet key.
+     * <p>
+     * The header carries no public key, the broker recovers it, and the wallet address, from the signature.
+     *
+     * @param claims The JSON object with the token claims
+     * @return The compact serialized token
+     */
+    public String signRecoverableToken(String claims) {
+        if (this.web3KeyPair == null) {
+            throw new IllegalStateException("Signing requires the private key");
         }
+        String signingInput = Base64URL.encode("{\"alg\":\"" + RECOVERABLE_ALGORITHM + "\",\"typ\":\"JWT\"}")
+                + "." + Base64URL.encode(claims);
+        byte[] hash = Hash.sha256(signingInput.getBytes(StandardCharsets.US_ASCII));
+        Sign.SignatureData signature = Sign.signMessage(hash, this.web3KeyPair, false);
+
+        byte[] rsv = new byte[65];
+        System.arraycopy(signature.getR(), 0, rsv, 0, 32);
+        System.arraycopy(signature.getS(), 0, rsv, 32, 32);
+        rsv[64] = signature.getV()[0];
+        return signingInput + "." + Base64URL.encode(rsv);
     }
 
     public void printWeb3() {
@@ -283,32 +335,8 @@ public class WEB3 {
         System.out.printf("address: %n%s%n", this.address);
     }
 
-    private BigInteger align2FieldSize(BigInteger s) {
-        ECDomainParameters curv = new ECDomainParameters(CustomNamedCurves.getByName("secp256k1"));
-        X9IntegerConverter x9 = new X9IntegerConverter();
-        int fieldSize = x9.getByteLength(curv.getCurve());
-        //System.out.printf("s.toByteArray().length: %n%d%n", s.toByteArray().length);
-        //System.out.printf("fieldSize: %n%d%n", fieldSize);
-        //System.out.printf("(length / fieldSize) * fieldSize: %n%d%n", (s.toByteArray().length / fieldSize) * fieldSize);
-        byte[] sBytes = x9.integerToBytes(s, (s.toByteArray().length / fieldSize) * fieldSize);
-        //System.out.printf("sBytes.length: %n%d%n", sBytes.length);
-        //BigInteger b = BigIntegers.fromUnsignedByteArray(sBytes);
-        BigInteger b = new BigInteger(1, sBytes);
-        //System.out.printf("align2FieldSize convert: %n%s%n%s%n", Hex.toHexString(s.toByteArray()), Hex.toHexString(b.toByteArray()));
-        return b;
-    }
-
-    private byte[] align2FieldSizeBytes(BigInteger s) {
-        ECDomainParameters curv = new ECDomainParameters(CustomNamedCurves.getByName("secp256k1"));
-        X9IntegerConverter x9 = new X9IntegerConverter();
-        int fieldSize = x9.getByteLength(curv.getCurve());
-        //System.out.printf("s.toByteArray().length: %n%d%n", s.toByteArray().length);
-        //System.out.printf("fieldSize: %n%d%n", fieldSize);
-        //System.out.printf("(length / fieldSize) * fieldSize: %n%d%n", (s.toByteArray().length / fieldSize) * fieldSize);
-        byte[] sBytes = x9.integerToBytes(s, (s.toByteArray().length / fieldSize) * fieldSize);
-        //System.out.printf("sBytes.length: %n%d%n", sBytes.length);
-        //BigInteger b = BigIntegers.fromUnsignedByteArray(sBytes);
-        return sBytes;
+    private static byte[] align2FieldSizeBytes(BigInteger s) {
+        return BigIntegers.asUnsignedByteArray(FIELD_SIZE, s);
     }
 
     public static void testWEB3() {
@@ -326,38 +354,12 @@ public class WEB3 {
     }
 
     public boolean isValidAddress(String address) {
-        if (!address.matches("^[0-9a-fA-F]{40}$")) {
-            return false;
-        }
-
-        // Check if the address is checksummed
-        try {
-            Locale en = Locale.forLanguageTag("en");
-            String checkSum = Keys.toChecksumAddress(address);
-            String checkSumLow = checkSum.toLowerCase(en);
-            String addressLow = address.toLowerCase(en);
-            return addressLow.equals(checkSumLow.substring(2));
-        } catch (Exception e) {
-            // Invalid format or error during checksum validation
-            return false;
-        }
+        return WalletAddress.ofTopic(address) != null;
     }
 
     //Only Alice can read the topic of address(Alice)
     public boolean accessReadTopic(String topicName) {
-        if (!isValidAddress(topicName)) {
-            return false;
-        }
-
-        try {
-            Locale en = Locale.forLanguageTag("en");
-            String topicNameLow = topicName.toLowerCase(en);
-            String addressLow = address.toLowerCase(en);
-            return addressLow.equals(topicNameLow);
-        } catch (Exception e) {
-            // Invalid format or error during checksum validation
-            return false;
-        }
+        return walletAddress.equals(WalletAddress.ofTopic(topicName));
     }
 
     public static void printCurveParamByWeb3j() {
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A 20 byte Ethereum address, held in three primitive fields.
+ * <p>
+ * Addresses are parsed from 40 hexadecimal characters, in any case and without the 0x prefix, which is how Whispeer
+ * names the topic of a wallet. The mixed case of an EIP-55 checksum address is accepted but not verified.
+ * Equality is checked in constant time.
+ * </p>
+ * <p>
+ * Topic names are parsed once and kept in a bounded cache, so that authorizing an action on a topic does not allocate
+ * or hash anything once the topic name has been seen.
+ * </p>
+ */
+public final class WalletAddress {
+
+    private static final int HEX_LENGTH = 40;
+
+    private static final int TOPIC_CACHE_MAX_SIZE = 10000;
+
+    // marks topic names that are not addresses, as the cache cannot hold null values
+    private static final WalletAddress NONE = new WalletAddress(0, 0, 0);
+
+    private static final ConcurrentHashMap<String, WalletAddress> TOPICS = new ConcurrentHashMap<>();
+
+    private final long high;
+    private final long middle;
+    private final int low;
+
+    private WalletAddress(long high, long middle, int low) {
+        this.high = high;
+        this.middle = middle;
+        this.low = low;
+    }
+
+    /**
+     * Create an address from 20 bytes, e.g. the last 20 bytes of the keccak-256 hash of a public key
+     *
+     * @param bytes The buffer
+     * @param offset The offset of the address in the buffer
+     * @return The address
+     */
+    public static WalletAddress fromBytes(byte[] bytes, int offset) {
+        long high = 0;
+        long middle = 0;
+        int low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = high << 8 | (bytes[offset + i] & 0xff);
+            middle = middle << 8 | (bytes[offset + 8 + i] & 0xff);
+        }
+        for (int i = 16; i < 20; i++) {
+            low = low << 8 | (bytes[offset + i] & 0xff);
+        }
+        return new WalletAddress(high, middle, low);
+    }
+
+    /**
+     * Parse an address from 40 hexadecimal characters
+     *
+     * @param s The characters
+     * @return The address, or null if the characters are not an address
+     */
+    public static WalletAddress parse(CharSequence s) {
+        if (s == null || s.length() != HEX_LENGTH) {
+            return null;
+        }
+        long high = 0;
+        long middle = 0;
+        int low = 0;
+        for (int i = 0; i < HEX_LENGTH; i++) {
+            int v = hexValue(s.charAt(i));
+            if (v < 0) {
+                return null;
+            }
+            if (i < 16) {
+                high = high << 4 | v;
+            } else if (i < 32) {
+                middle = middle << 4 | v;
+            } else {
+                low = low << 4 | v;
+            }
+        }
+        return new WalletAddress(high, middle, low);
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the address named by the topic, parsing the topic name only the first time it is seen
+     *
+     * @param topicName The topic name
+     * @return The address, or null if the topic name is not an address
+     */
+    public static WalletAddress ofTopic(String topicName) {
+        WalletAddress address = TOPICS.get(topicName);
+        if (address == null) {
+            address = parse(topicName);
+            if (address == null) {
+                address = NONE;
+            }
+            if (TOPICS.size() >= TOPIC_CACHE_MAX_SIZE) {
+                Iterator<String> it = TOPICS.keySet().iterator();
+                if (it.hasNext()) {
+                    TOPICS.remove(it.next());
+                }
+            }
+            TOPICS.putIfAbsent(topicName, address);
+        }
+        return address == NONE ? null : address;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof WalletAddress)) {
+            return false;
+        }
+        WalletAddress other = (WalletAddress) o;
+        return ((high ^ other.high) | (middle ^ other.middle) | (low ^ other.low)) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high) * 31 * 31 + Long.hashCode(middle) * 31 + low;
+    }
+
+    /**
+     * Get the address as 40 lower case hexadecimal characters, without the 0x prefix
+     *
+     * @return The address
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(HEX_LENGTH);
+        appendHex(sb, high, 16);
+        appendHex(sb, middle, 16);
+        appendHex(sb, low, 8);
+        return sb.toString();
+    }
+
+    private static void appendHex(StringBuilder sb, long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            sb.append(Character.forDigit((int) (value >>> (4 * i)) & 0xf, 16));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The wallet identity established when the token of a session was validated: the wallet, the expiry of the token and
+ * the token payload.
+ * <p>
+ * It is created by the SASL validator callback handler once the token signature and the on-chain access have been
+ * checked, and is carried by the {@link BearerTokenWithPayload} of the session, so that an authorizer can rely on it
+ * without parsing or verifying the token again.
+ * </p>
+ */
+public final class Web3Identity {
+
+    private final WEB3 web3;
+    private final long expiresAtMs;
+    private final JsonNode payload;
+
+    /**
+     * Create a new instance
+     *
+     * @param web3 The validated wallet identity
+     * @param expiresAtMs The expiry time of the token in millis
+     * @param payload The token payload, which is copied
+     */
+    public Web3Identity(WEB3 web3, long expiresAtMs, JsonNode payload) {
+        if (web3 == null) {
+            throw new IllegalArgumentException("web3 == null");
+        }
+        this.web3 = web3;
+        this.expiresAtMs = expiresAtMs;
+        this.payload = payload == null ? null : payload.deepCopy();
+    }
+
+    /**
+     * Get the wallet identity
+     *
+     * @return The wallet identity
+     */
+    public WEB3 web3() {
+        return web3;
+    }
+
+    /**
+     * Get the wallet address
+     *
+     * @return The address
+     */
+    public WalletAddress address() {
+        return web3.walletAddress;
+    }
+
+    /**
+     * Get the expiry time of the token
+     *
+     * @return The time in millis
+     */
+    public long expiresAtMs() {
+        return expiresAtMs;
+    }
+
+    /**
+     * Check if the token has expired
+     *
+     * @param nowMs The current time in millis
+     * @return true if the token expired at or before the given time
+     */
+    public boolean isExpired(long nowMs) {
+        return expiresAtMs <= nowMs;
+    }
+
+    /**
+     * Get the token payload. It is shared by all the users of this identity and must not be modified.
+     *
+     * @return The payload
+     */
+    public JsonNode payload() {
+        return payload;
+    }
+
+    @Override
+    public String toString() {
+        return "Web3Identity (address: " + web3.address + ", expiresAtMs: " + expiresAtMs
+                + " [" + TimeUtil.formatIsoDateTimeUTC(expiresAtMs) + " UTC])";
+    }
+}
@@ -4,39 +4,27 @@
  */
 package io.strimzi.kafka.oauth.validator;
 
-import com.nimbusds.jose.JWSVerifier;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.nimbusds.jose.crypto.ECDSAVerifier;
 import com.nimbusds.jwt.SignedJWT;
 import com.nimbusds.jose.jwk.ECKey;
 import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.util.Base64URL;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.strimzi.kafka.oauth.common.JSONUtil;
 import io.strimzi.kafka.oauth.common.TimeUtil;
 import io.strimzi.kafka.oauth.common.TokenInfo;
 import io.strimzi.kafka.oauth.common.WEB3;
+import io.strimzi.kafka.oauth.web3.ExpirationIndex;
+import io.strimzi.kafka.oauth.web3.ExpirationLookup;
 
+import org.bouncycastle.util.BigIntegers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import static io.strimzi.kafka.oauth.validator.TokenValidationException.Status;
 
-import org.web3j.abi.FunctionEncoder;
-import org.web3j.abi.FunctionReturnDecoder;
-import org.web3j.abi.datatypes.Address;
-import org.web3j.abi.datatypes.Function;
-import org.web3j.abi.datatypes.Type;
-import org.web3j.protocol.Web3j;
-import org.web3j.protocol.core.DefaultBlockParameterName;
-import org.web3j.protocol.core.methods.request.Transaction;
-import org.web3j.protocol.core.methods.response.EthCall;
-import org.web3j.protocol.http.HttpService;
-
 import java.io.IOException;
 import java.math.BigInteger;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This class is responsible for validating the JWT token signatures during session authentication.
@@ -55,10 +43,13 @@ import java.util.Map;
 public class AccessValidator {
 
     private static final Logger log = LoggerFactory.getLogger(JWTSignatureValidator.class);
+
+    private static final int COORDINATE_SIZE = 32;
     private final String token;
     private final boolean ethValidation;
     private WEB3 web3;
     private JsonNode payload;
+    private DecisionFreshness freshness = DecisionFreshness.FRESH;
 
     @SuppressWarnings("checkstyle:ParameterNumber")
     public AccessValidator(String token,
@@ -69,77 +60,196 @@ public class AccessValidator {
         this.payload = null;
     }
 
-    public boolean ethValidate(Map<String, BigInteger> whiteList, Map<String, BigInteger> blackList, String provider, String adminAdress, String whispeerAdress) {
+    /**
+     * Check on-chain that the wallet address of the token holder has a valid subscription.
+     * <p>
+     * The result of the lookup is remembered in the whitelist until the on-chain expiration time,
+     * or in the blacklist for <code>blackListTtlMs</code> if the subscription has already expired.
+     *
+     * @param whiteList The cache of addresses with a valid subscription
+     * @param blackList The cache of addresses with an expired subscription
+     * @param blackListTtlMs How long in millis an address stays in the blacklist
+     * @param lookup The on-chain lookup of the expiration time, shared by concurrent authentications
+     * @return true if the subscription is valid
+     */
+    public boolean ethValidate(ExpirationCache whiteList, ExpirationCache blackList, long blackListTtlMs, ExpirationLookup lookup) {
+        return ethValidate(whiteList, blackList, blackListTtlMs, lookup, null, 0, 0);
+    }
 
-        boolean status = false;
-        long current = System.currentTimeMillis() / 1000;
-        String address = this.web3.address;
+    /**
+     * Check that the wallet address of the token holder has a valid subscription, consulting the local index of
+     * <code>Payments</code> events first.
+     * <p>
+     * An address whose indexed subscription has not expired is accepted without any on-chain lookup. Addresses not found
+     * in the index, or whose indexed subscription has expired, are looked up on-chain as by
+     * {@link #ethValidate(ExpirationCache, ExpirationCache, long, ExpirationLookup)}, since their latest payment may
+     * not have been indexed yet. Repeated lookups of an expired address are limited by the blacklist.
+     * </p>
+     * <p>
+     * If <code>staleGraceMs</code> is set, a whitelisted address whose cached expiration time has passed is still
+     * accepted for the grace period, while its expiration time is refreshed in the background. If <code>lookupTimeoutMs</code>
+     * is set, an on-chain lookup that takes longer is abandoned, and access is denied.
+     * Whether the decision was based on fresh or stale state, or the lookup timed out, is available from {@link #getFreshness()}.
+     * </p>
+     *
+     * @param whiteList The cache of addresses with a valid subscription
+     * @param blackList The cache of addresses with an expired subscription
+     * @param blackListTtlMs How long in millis an address stays in the blacklist
+     * @param lookup The on-chain lookup of the expiration time, shared by concurrent authentications
+     * @param index The local index of expiration times, or null if not enabled
+     * @param staleGraceMs How long in millis past its expiration time a whitelisted address is still accepted while being refreshed, or 0 to disable
+     * @param lookupTimeoutMs The maximum time in millis to wait for an on-chain lookup, or 0 to wait until the request times out
+     * @return true if the subscription is valid
+     */
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    public boolean ethValidate(ExpirationCache whiteList, ExpirationCache blackList, long blackListTtlMs, ExpirationLookup lookup,
+                               ExpirationIndex index, long staleGraceMs, long lookupTimeoutMs) {
 
+        this.freshness = DecisionFreshness.FRESH;
         if (!ethValidation) {
             return true;
         }
 
+        long nowMs = System.currentTimeMillis();
+        long current = nowMs / 1000;
+        String address = this.web3.address;
+
         if (blackList.get(address) != null) {
             log.debug("Reject hacker to access the kafka broker {} ", address);
             return false;
         }
 
-        BigInteger expirationTime = whiteList.get(address);
-        if (expirationTime != null && expirationTime.longValue() > current) {
-            return true;
+        Long cachedExpirationTime = whiteList.get(address);
+        if (cachedExpirationTime != null) {
+            if (cachedExpirationTime > current) {
+                return true;
+            }
+            // the entry is only kept past the expiration time for the grace period
+            if (staleGraceMs > 0 && cachedExpirationTime * 1000L + staleGraceMs > nowMs) {
+                lookup.lookupAsync(address).whenComplete((expirationTime, error) -> {
+                    if (error == null) {
+                        record(whiteList, blackList, blackListTtlMs, index, staleGraceMs, address, expirationTime.longValue());
+                    }
+                });
+                this.freshness = DecisionFreshness.STALE;
+                return true;
+            }
         }
 
-        if (!WEB3.checkProvider(provider)) {
-            log.debug("Failure to validate API key {} ", provider);
-            return false;
+        if (index != null) {
+            Long indexedExpirationTime = index.get(address);
+            if (indexedExpirationTime != null && indexedExpirationTime > current) {
+                whiteList.put(address, indexedExpirationTime, indexedExpirationTime * 1000L + staleGraceMs);
+                return true;
+            }
+            // a payment may not have been indexed yet, so an address that is missing from the index, or whose
+            // indexed subscription has expired, is looked up
         }
 
-        Web3j web3j = Web3j.build(new HttpService(provider)); 
-        Function function = new Function(
-                "getExpirationTime",
-                Collections.singletonList(new Address(address)), // Function parameters
-                Collections.singletonList(new org.web3j.abi.TypeReference<org.web3j.abi.datatypes.generated.Uint256>() { })); // Return type
-
-        String encodedFunction = FunctionEncoder.encode(function);
+        if (!lookup.isAvailable()) {
+            log.debug("Web3 provider is not available");
+            return false;
+        }
 
-        //from = admin; to = whispeerAddress; data = encodedFunction;
-        Transaction transaction = new Transaction(adminAdress, null, null, null, whispeerAdress, null, encodedFunction, null, null, null);
-        EthCall response = null;
+        BigInteger expirationTime;
         try {
-            response = web3j.ethCall(transaction, DefaultBlockParameterName.LATEST).send();
+            expirationTime = lookupTimeoutMs > 0 ? lookup.lookup(address, lookupTimeoutMs) : lookup.lookup(address);
+        } catch (TimeoutException e) {
+            log.warn("Timed out after {} ms while looking up the expiration time of {} ", lookupTimeoutMs, address);
+            this.freshness = DecisionFreshness.TIMED_OUT;
+            return false;
         } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            log.warn("Failed to look up the expiration time of {} ", address, e);
             return false;
         }
 
-        List<Type> result = FunctionReturnDecoder.decode(
-                response.getValue(),
-                function.getOutputParameters());
+        return record(whiteList, blackList, blackListTtlMs, index, staleGraceMs, address, expirationTime.longValue());
+    }
+
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    private static boolean record(ExpirationCache whiteList, ExpirationCache blackList, long blackListTtlMs, ExpirationIndex index,
+                                  long staleGraceMs, String address, long expirationTime) {
+        long current = System.currentTimeMillis() / 1000;
+        log.debug("Expiration time of {}: {} (current time: {})", address, expirationTime, current);
+        if (expirationTime >= current) {
+            whiteList.put(address, expirationTime, expirationTime * 1000L + staleGraceMs);
+            if (index != null) {
+                index.update(address, expirationTime);
+            }
+            return true;
+        }
+
+        //Add the web3.address to the blackList, because one client must check the expirationTime by self.
+        //If the expirationTime < current, it means hackers try to attack the kafka server.
+        whiteList.remove(address);
+        blackList.put(address, expirationTime, System.currentTimeMillis() + blackListTtlMs);
+        log.debug("Hacker {} try to attack the kafka broker", address);
+        return false;
+    }
 
-        expirationTime = (BigInteger) result.get(0).getValue();
+    /**
+     * Get the freshness of the state on which the last decision of {@link #ethValidate} was based
+     *
+     * @return The freshness of the last decision
+     */
+    public DecisionFreshness getFreshness() {
+        return freshness;
+    }
 
-        System.out.println("User's expiration time: " + expirationTime);
-        System.out.println("Current system time: " + current);
-        if (expirationTime.longValue() >= current) {
-            whiteList.put(address, expirationTime);
-            status = true;
-        } else {
-            //Add the web3.address to the blackList, because one client must check the expirationTime by self.
-            //If the expirationTime < current, it means hackers try to attack the kafka server.
-            blackList.put(address, new BigInteger("10"));
-            log.debug("Hacker {} try to attack the kafka broker", address);
-            status = false;
+    /**
+     * Validate the token signature, reusing the result of a previous validation of the same token if present in the cache.
+     * <p>
+     * Only the first presentation of the token pays for parsing and signature verification. The result is then
+     * stored in the cache until the token expires.
+     *
+     * @param cache The cache of already verified tokens
+     * @return true if the signature is valid
+     */
+    public boolean signatureValidate(VerifiedTokenCache cache) {
+        return signatureValidate(cache, null);
+    }
+
+    /**
+     * Validate the token signature, reusing the result of a previous validation of the same token if present in the cache,
+     * and otherwise the cached verifier of the public key that signed the token.
+     *
+     * @param cache The cache of already verified tokens
+     * @param verifiers The cache of verifiers, or null to create a new verifier
+     * @return true if the signature is valid
+     */
+    public boolean signatureValidate(VerifiedTokenCache cache, VerifierCache verifiers) {
+        VerifiedTokenCache.Entry entry = cache.get(token);
+        if (entry != null) {
+            this.payload = entry.payload();
+            this.web3 = entry.web3();
+            return true;
         }
 
-        // Shut down the provider
-        web3j.shutdown();
-        return status;
+        if (!signatureValidate(verifiers)) {
+            return false;
+        }
+        cache.put(token, payload.deepCopy(), web3, payload.get(TokenInfo.EXP).asLong() * 1000L);
+        return true;
+    }
+
+    public boolean signatureValidate() {
+        return signatureValidate((VerifierCache) null);
     }
 
+    /**
+     * Validate the token signature with the cached verifier of the public key that signed the token
+     *
+     * @param verifiers The cache of verifiers, or null to create a new verifier
+     * @return true if the signature is valid
+     */
     @SuppressFBWarnings(value = "BC_UNCONFIRMED_CAST_OF_RETURN_VALUE",
             justification = "We tell TokenVerifier to parse AccessToken. It will return AccessToken or fail.")
-    public boolean signatureValidate() {
+    public boolean signatureValidate(VerifierCache verifiers) {
+
+        ES256KToken lean = ES256KToken.parse(token);
+        if (lean != null) {
+            return signatureValidate(lean, verifiers);
+        }
 
         SignedJWT jwt;
         JWK publicKey;
@@ -158,9 +268,10 @@ public class AccessValidator {
             }
 
             if (publicKey instanceof ECKey) {
-                JWSVerifier verifier = new ECDSAVerifier((ECKey) publicKey);
-                verifier.getJCAContext().setProvider(new BouncyCastleProvider());
-                if (!jwt.verify(verifier)) {
+                boolean valid = verifiers != null
+                        ? verifiers.verify(jwt, (ECKey) publicKey)
+                        : VerifierCache.newVerifier((ECKey) publicKey).verify(jwt);
+                if (!valid) {
                     throw new TokenSignatureException("Signature check failed: Invalid token signature");
                 }
             } else {
@@ -181,6 +292,39 @@ public class AccessValidator {
         return true;
     }
 
+    private boolean signatureValidate(ES256KToken lean, VerifierCache verifiers) {
+        if (lean.isRecoverable()) {
+            BigInteger publicKey = lean.recoverPublicKey();
+            if (publicKey == null) {
+                throw new TokenSignatureException("Signature check failed: Invalid token signature");
+            }
+            validateTokenPayload(lean.payload());
+            this.payload = lean.payload();
+            this.web3 = WEB3.publicWEB3(publicKey);
+            return true;
+        }
+
+        try {
+            boolean valid = verifiers != null ? verifiers.verify(lean) : VerifierCache.newVerifier(lean).verify(lean);
+            if (!valid) {
+                throw new TokenSignatureException("Signature check failed: Invalid token signature");
+            }
+        } catch (TokenValidationException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new TokenValidationException("Token validation failed", e);
+        }
+
+        validateTokenPayload(lean.payload());
+        this.payload = lean.payload();
+        // the coordinates may be encoded without their leading zero bytes, so each one is padded to its full size
+        byte[] encoded = new byte[2 * COORDINATE_SIZE];
+        BigIntegers.asUnsignedByteArray(Base64URL.from(lean.x()).decodeToBigInteger(), encoded, 0, COORDINATE_SIZE);
+        BigIntegers.asUnsignedByteArray(Base64URL.from(lean.y()).decodeToBigInteger(), encoded, COORDINATE_SIZE, COORDINATE_SIZE);
+        this.web3 = WEB3.publicWEB3(new BigInteger(1, encoded));
+        return true;
+    }
+
     public JsonNode getPayload() {
         return this.payload;
     }
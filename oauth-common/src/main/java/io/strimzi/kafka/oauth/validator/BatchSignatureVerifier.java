@@ -0,0 +1,362 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.BigIntegers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link VerifierCache} that gathers the pending ES256K signature verifications over a short window and verifies them
+ * as a batch on a dedicated, bounded pool of worker threads.
+ * <p>
+ * A batch is dispatched once the window, which starts with the first pending verification, has elapsed, or as soon as
+ * the batch reaches its maximum size, whichever comes first. Batches are verified in parallel by the workers. When the
+ * queue of the workers is full, the thread submitting the batch verifies it.
+ * </p>
+ * <p>
+ * A caller waits for the result of its batch for a bounded time. When the batch is not verified in time, or the instance
+ * is closed before the batch was verified, the caller verifies the signature on its own thread.
+ * </p>
+ * <p>
+ * A batch is verified with the randomised batch verification of ECDSA: with a random 128 bit factor z<sub>i</sub> per signature,
+ * the single multi-scalar multiplication <code>(&sum; z<sub>i</sub>e<sub>i</sub>w<sub>i</sub>)G + &sum; (z<sub>i</sub>r<sub>i</sub>w<sub>i</sub>)Q<sub>i</sub></code>,
+ * with <code>w<sub>i</sub> = s<sub>i</sub><sup>-1</sup></code>, has to equal <code>&sum; &plusmn;z<sub>i</sub>R<sub>i</sub></code>,
+ * where the points R<sub>i</sub> are recovered from the r values of the signatures. As a plain ES256K signature does not
+ * tell which of the two points with the x coordinate r was used, the signs are matched with a meet-in-the-middle search
+ * over the two halves of the batch, which is why the batch size is limited to 16.
+ * </p>
+ * <p>
+ * If the batch check fails, because one of the signatures is invalid or could not be handled by the batch check,
+ * every signature in the batch is verified on its own. Recoverable tokens are not batched.
+ * </p>
+ */
+public class BatchSignatureVerifier extends VerifierCache {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchSignatureVerifier.class);
+
+    private static final int MAX_BATCH_SIZE = 16;
+
+    // How long past the window a caller waits for its batch, before verifying the signature on its own
+    private static final long MAX_WAIT_MILLIS = 5000;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final long windowMillis;
+    private final int maxBatchSize;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+    private final ThreadPoolExecutor workers;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong batchedSignatures = new AtomicLong();
+
+    // guarded by this
+    private List<Pending> pending = new ArrayList<>();
+    // guarded by this
+    private boolean closed;
+
+    /**
+     * Create a new instance
+     *
+     * @param maxSize The maximum number of cached verifiers
+     * @param threads The number of worker threads
+     * @param windowMillis How long to gather verifications before dispatching a batch
+     * @param maxBatchSize The maximum number of signatures in one batch, at most 16
+     */
+    public BatchSignatureVerifier(int maxSize, int threads, long windowMillis, int maxBatchSize) {
+        super(maxSize);
+        if (threads <= 0) {
+            throw new IllegalArgumentException("'threads' has to be > 0");
+        }
+        if (maxBatchSize <= 0 || maxBatchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("'maxBatchSize' has to be between 1 and " + MAX_BATCH_SIZE);
+        }
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 16), new DaemonThreadFactory(), BatchSignatureVerifier::rejected);
+    }
+
+    /**
+     * Verify the signature of the token as part of the current batch, and wait for the result
+     *
+     * @param token The decoded token
+     * @return true if the signature is valid
+     */
+    @Override
+    public boolean verify(ES256KToken token) {
+        if (token.isRecoverable() || workers.isShutdown()) {
+            return super.verify(token);
+        }
+        Verifier verifier = verifier(token);
+        try {
+            return submit(token, verifier).get(windowMillis + MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return verifier.verify(token);
+        } catch (ExecutionException | TimeoutException e) {
+            return verifier.verify(token);
+        }
+    }
+
+    private CompletableFuture<Boolean> submit(ES256KToken token, Verifier verifier) {
+        Pending p = new Pending(token, verifier);
+        List<Pending> full = null;
+        synchronized (this) {
+            if (closed) {
+                p.result.completeExceptionally(new IllegalStateException("The batch verifier is closed"));
+                return p.result;
+            }
+            pending.add(p);
+            if (pending.size() >= maxBatchSize) {
+                full = pending;
+                pending = new ArrayList<>();
+            } else if (pending.size() == 1) {
+                List<Pending> batch = pending;
+                scheduler.schedule(() -> flush(batch), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            workers.execute(new Dispatch(full));
+        }
+        return p.result;
+    }
+
+    private void flush(List<Pending> batch) {
+        synchronized (this) {
+            // the batch may have already been dispatched because it reached the max size
+            if (pending != batch) {
+                return;
+            }
+            pending = new ArrayList<>();
+        }
+        workers.execute(new Dispatch(batch));
+    }
+
+    // While the workers are running, a batch that does not fit in their queue is verified by the submitting thread,
+    // after they are shut down, it is failed so that its callers verify on their own
+    private static void rejected(Runnable task, ThreadPoolExecutor executor) {
+        if (!executor.isShutdown()) {
+            task.run();
+        } else if (task instanceof Dispatch) {
+            fail(((Dispatch) task).batch);
+        }
+    }
+
+    private static void fail(List<Pending> batch) {
+        IllegalStateException e = new IllegalStateException("The batch verifier is closed");
+        for (Pending p: batch) {
+            p.result.completeExceptionally(e);
+        }
+    }
+
+    private void resolve(List<Pending> batch) {
+        try {
+            if (batch.size() > 1) {
+                batches.incrementAndGet();
+                batchedSignatures.addAndGet(batch.size());
+                if (verifyBatch(batch)) {
+                    for (Pending p: batch) {
+                        p.result.complete(true);
+                    }
+                    return;
+                }
+                failedBatches.incrementAndGet();
+                log.debug("Batch verification of {} signatures failed, verifying them one by one", batch.size());
+            }
+            for (Pending p: batch) {
+                p.result.complete(p.verifier.verify(p.token));
+            }
+        } catch (Throwable t) {
+            for (Pending p: batch) {
+                p.result.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * Check that all the signatures in the batch are valid, with the randomised batch verification
+     *
+     * @param batch The pending verifications
+     * @return true if all the signatures are valid, false if at least one of them is invalid or the batch check cannot be applied
+     */
+    static boolean verifyBatch(List<Pending> batch) {
+        ECCurve curve = SECP256K1.getCurve();
+        BigInteger n = SECP256K1.getN();
+        int size = batch.size();
+
+        ECPoint[] points = new ECPoint[size + 1];
+        BigInteger[] scalars = new BigInteger[size + 1];
+        ECPoint[] recovered = new ECPoint[size];
+        BigInteger g = BigInteger.ZERO;
+
+        for (int i = 0; i < size; i++) {
+            Pending p = batch.get(i);
+            if (p.verifier.point() == null) {
+                return false;
+            }
+            byte[] signature = p.token.signature;
+            BigInteger r = new BigInteger(1, Arrays.copyOfRange(signature, 0, SIGNATURE_SIZE / 2));
+            BigInteger s = new BigInteger(1, Arrays.copyOfRange(signature, SIGNATURE_SIZE / 2, SIGNATURE_SIZE));
+            if (r.signum() == 0 || s.signum() == 0 || r.compareTo(n) >= 0 || s.compareTo(n) >= 0) {
+                return false;
+            }
+
+            ECPoint rPoint = recoverR(curve, r);
+            if (rPoint == null) {
+                return false;
+            }
+            BigInteger z = new BigInteger(128, RANDOM).setBit(127);
+            BigInteger zw = z.multiply(s.modInverse(n)).mod(n);
+            g = g.add(zw.multiply(new BigInteger(1, p.token.signingInputHash)));
+            points[i] = p.verifier.point();
+            scalars[i] = zw.multiply(r).mod(n);
+            recovered[i] = rPoint.multiply(z);
+        }
+        points[size] = SECP256K1.getG();
+        scalars[size] = g.mod(n);
+
+        return matchesSignedSum(ECAlgorithms.sumOfMultiplies(points, scalars), recovered);
+    }
+
+    private static ECPoint recoverR(ECCurve curve, BigInteger r) {
+        byte[] encoded = new byte[33];
+        encoded[0] = 0x02;
+        BigIntegers.asUnsignedByteArray(r, encoded, 1, 32);
+        try {
+            return curve.decodePoint(encoded);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check if the target equals a sum of the terms, each taken with either sign, by matching the signed sums
+     * of one half of the terms against the target minus the signed sums of the other half
+     */
+    private static boolean matchesSignedSum(ECPoint target, ECPoint[] terms) {
+        int half = terms.length / 2;
+        ECPoint[] left = signedSums(target, terms, 0, half);
+        ECPoint[] right = signedSums(target.getCurve().getInfinity(), terms, half, terms.length);
+        target.getCurve().normalizeAll(left);
+        target.getCurve().normalizeAll(right);
+
+        Set<ECPoint> sums = new HashSet<>(Arrays.asList(right));
+        for (ECPoint p: left) {
+            if (sums.contains(p)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ECPoint[] signedSums(ECPoint start, ECPoint[] terms, int from, int to) {
+        ECPoint[] sums = new ECPoint[1 << (to - from)];
+        sums[0] = start;
+        int count = 1;
+        for (int i = from; i < to; i++) {
+            for (int j = 0; j < count; j++) {
+                sums[count + j] = sums[j].add(terms[i]);
+                sums[j] = sums[j].subtract(terms[i]);
+            }
+            count *= 2;
+        }
+        return sums;
+    }
+
+    /**
+     * Get the number of batches verified with the batch check
+     *
+     * @return The number of batches
+     */
+    public long batches() {
+        return batches.get();
+    }
+
+    /**
+     * Get the number of batches for which the batch check failed, and the signatures were verified one by one
+     *
+     * @return The number of failed batches
+     */
+    public long failedBatches() {
+        return failedBatches.get();
+    }
+
+    /**
+     * Get the number of signatures that went through the batch check
+     *
+     * @return The number of signatures
+     */
+    public long batchedSignatures() {
+        return batchedSignatures.get();
+    }
+
+    /**
+     * Stop the batching and the worker threads.
+     * The verifications that are still pending, or queued for the workers, are failed, and their callers verify the
+     * signatures on their own threads.
+     */
+    public void close() {
+        List<Pending> remaining;
+        synchronized (this) {
+            closed = true;
+            remaining = pending;
+            pending = new ArrayList<>();
+        }
+        scheduler.shutdownNow();
+        fail(remaining);
+        for (Runnable task: workers.shutdownNow()) {
+            if (task instanceof Dispatch) {
+                fail(((Dispatch) task).batch);
+            }
+        }
+    }
+
+    private class Dispatch implements Runnable {
+        private final List<Pending> batch;
+
+        Dispatch(List<Pending> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            resolve(batch);
+        }
+    }
+
+    static class Pending {
+        private final ES256KToken token;
+        private final Verifier verifier;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Pending(ES256KToken token, Verifier verifier) {
+            this.token = token;
+            this.verifier = verifier;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+/**
+ * The freshness of the state on which an on-chain access decision of {@link AccessValidator#ethValidate} was based
+ */
+public enum DecisionFreshness {
+
+    /**
+     * The decision was based on an expiration time that has not yet passed, or on the result of an on-chain lookup
+     */
+    FRESH,
+
+    /**
+     * Access was granted within the grace period after the cached expiration time, while the expiration time is being refreshed
+     */
+    STALE,
+
+    /**
+     * Access was denied because the on-chain lookup did not complete before the deadline
+     */
+    TIMED_OUT
+}
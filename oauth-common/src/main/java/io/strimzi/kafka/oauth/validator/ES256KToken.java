@@ -0,0 +1,341 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.strimzi.kafka.oauth.common.JSONUtil;
+import io.strimzi.kafka.oauth.common.WEB3;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.web3j.crypto.ECDSASignature;
+import org.web3j.crypto.Sign;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * A lean decoder for the compact ES256K tokens issued by Whispeer clients, whose header embeds the secp256k1 public key
+ * of the wallet as a JWK, and for the recoverable ES256K-R variant, whose header carries no key.
+ * <p>
+ * Parsing a token with Nimbus builds a full object graph, parses the header and the payload into maps, and the payload
+ * then has to be converted to a {@link JsonNode}. This decoder instead decodes the base64url segments into a reusable
+ * per-thread buffer, streams over the header picking only the algorithm and the public key coordinates, reads the payload
+ * straight into a {@link JsonNode}, and hashes the raw signing input for signature verification.
+ * </p>
+ * <p>
+ * Only the expected token shapes are handled: an ES256K signature with an EC secp256k1 JWK in the header, or an ES256K-R
+ * signature without one, and no critical or unencoded payload header parameters. For anything else {@link #parse(String)}
+ * returns null, and the token should go through the Nimbus based validation.
+ * </p>
+ * <p>
+ * An ES256K-R token is signed with a recoverable signature, the concatenation of r, s and the recovery id v, as produced by
+ * Ethereum wallets. The public key, and with it the wallet address, is recovered from the signature and the signing input
+ * the same way as by ecrecover, which makes the token smaller and the signature check doubles as the key lookup.
+ * </p>
+ */
+public final class ES256KToken {
+
+    /**
+     * The JWS algorithm name of tokens signed with a recoverable secp256k1 signature, same as {@link WEB3#RECOVERABLE_ALGORITHM}
+     */
+    public static final String RECOVERABLE_ALGORITHM = WEB3.RECOVERABLE_ALGORITHM;
+
+    private static final int SIGNATURE_SIZE = 64;
+    private static final int RECOVERABLE_SIGNATURE_SIZE = 65;
+
+    private static final BigInteger SECP256K1_N = Sign.CURVE_PARAMS.getN();
+
+    private static final int[] BASE64URL = new int[128];
+
+    static {
+        Arrays.fill(BASE64URL, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64URL[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[2048]);
+
+    private final String x;
+    private final String y;
+    private final JsonNode payload;
+    final byte[] signingInputHash;
+    final byte[] signature;
+
+    private ES256KToken(String x, String y, JsonNode payload, byte[] signingInputHash, byte[] signature) {
+        this.x = x;
+        this.y = y;
+        this.payload = payload;
+        this.signingInputHash = signingInputHash;
+        this.signature = signature;
+    }
+
+    /**
+     * Decode the token
+     *
+     * @param token The compact serialized token
+     * @return The decoded token, or null if the token does not have the expected shape
+     */
+    public static ES256KToken parse(String token) {
+        int dot1 = token.indexOf('.');
+        int dot2 = dot1 < 0 ? -1 : token.indexOf('.', dot1 + 1);
+        if (dot2 < 0 || token.indexOf('.', dot2 + 1) >= 0) {
+            return null;
+        }
+
+        try {
+            byte[] buf = buffer(dot1 * 3 / 4 + 3);
+            int len = decode(token, 0, dot1, buf);
+            if (len < 0) {
+                return null;
+            }
+            String[] key = parseHeader(buf, len);
+            if (key == null) {
+                return null;
+            }
+            int signatureSize = key.length == 0 ? RECOVERABLE_SIGNATURE_SIZE : SIGNATURE_SIZE;
+
+            buf = buffer((dot2 - dot1) * 3 / 4 + 3);
+            len = decode(token, dot1 + 1, dot2, buf);
+            if (len < 0) {
+                return null;
+            }
+            JsonNode payload = JSONUtil.MAPPER.readTree(buf, 0, len);
+            if (payload == null || !payload.isObject()) {
+                return null;
+            }
+
+            buf = buffer(Math.max(dot2, (token.length() - dot2) * 3 / 4 + 3));
+            len = decode(token, dot2 + 1, token.length(), buf);
+            if (len != signatureSize) {
+                return null;
+            }
+            byte[] signature = Arrays.copyOf(buf, signatureSize);
+
+            for (int i = 0; i < dot2; i++) {
+                char c = token.charAt(i);
+                if (c > 127) {
+                    return null;
+                }
+                buf[i] = (byte) c;
+            }
+            SHA256Digest digest = new SHA256Digest();
+            digest.update(buf, 0, dot2);
+            byte[] hash = new byte[digest.getDigestSize()];
+            digest.doFinal(hash, 0);
+
+            return key.length == 0
+                    ? new ES256KToken(null, null, payload, hash, signature)
+                    : new ES256KToken(key[0], key[1], payload, hash, signature);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String[] parseHeader(byte[] buf, int len) throws IOException {
+        String alg = null;
+        String[] key = null;
+        try (JsonParser parser = JSONUtil.MAPPER.getFactory().createParser(buf, 0, len)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (name) {
+                    case "alg":
+                        alg = parser.getValueAsString();
+                        break;
+                    case "jwk":
+                        if (value != JsonToken.START_OBJECT) {
+                            return null;
+                        }
+                        key = parseJwk(parser);
+                        break;
+                    case "crit":
+                    case "b64":
+                        // these change how the token has to be processed, leave them to Nimbus
+                        return null;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+        if ("ES256K".equals(alg)) {
+            return key;
+        }
+        // a recoverable token must not also carry a key that could disagree with the recovered one
+        return RECOVERABLE_ALGORITHM.equals(alg) && key == null ? new String[0] : null;
+    }
+
+    private static String[] parseJwk(JsonParser parser) throws IOException {
+        String kty = null;
+        String crv = null;
+        String x = null;
+        String y = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            switch (name) {
+                case "kty":
+                    kty = parser.getValueAsString();
+                    break;
+                case "crv":
+                    crv = parser.getValueAsString();
+                    break;
+                case "x":
+                    x = parser.getValueAsString();
+                    break;
+                case "y":
+                    y = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (!"EC".equals(kty) || !"secp256k1".equals(crv) || x == null || y == null) {
+            return null;
+        }
+        return new String[] {x, y};
+    }
+
+    private static byte[] buffer(int size) {
+        byte[] buf = BUFFER.get();
+        if (buf.length < size) {
+            buf = new byte[Math.max(size, buf.length * 2)];
+            BUFFER.set(buf);
+        }
+        return buf;
+    }
+
+    /**
+     * Decode unpadded base64url into the buffer
+     *
+     * @param s The string containing the encoded segment
+     * @param from The index of the first character of the segment
+     * @param to The index after the last character of the segment
+     * @param out The buffer, large enough for the decoded bytes
+     * @return The number of decoded bytes, or -1 if the input is not valid base64url
+     */
+    static int decode(String s, int from, int to, byte[] out) {
+        int len = to - from;
+        if (len % 4 == 1) {
+            return -1;
+        }
+        int pos = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            int v = c < 128 ? BASE64URL[c] : -1;
+            if (v < 0) {
+                return -1;
+            }
+            bits = bits << 6 | v;
+            count++;
+            if (count == 4) {
+                out[pos++] = (byte) (bits >> 16);
+                out[pos++] = (byte) (bits >> 8);
+                out[pos++] = (byte) bits;
+                bits = 0;
+                count = 0;
+            }
+        }
+        if (count == 2) {
+            out[pos++] = (byte) (bits >> 4);
+        } else if (count == 3) {
+            out[pos++] = (byte) (bits >> 10);
+            out[pos++] = (byte) (bits >> 2);
+        }
+        return pos;
+    }
+
+    /**
+     * Check if the token is signed with a recoverable signature, and carries no public key in the header
+     *
+     * @return true for an ES256K-R token
+     */
+    public boolean isRecoverable() {
+        return x == null;
+    }
+
+    /**
+     * Recover the public key that produced the recoverable signature of an ES256K-R token.
+     * <p>
+     * Only canonical signatures, with s in the lower half of the curve order, are accepted, so that a token cannot be
+     * altered into a different but equally valid one.
+     *
+     * @return The public key as the concatenation of the x and y coordinates, or null if the token is not recoverable
+     *         or no key can be recovered from the signature
+     */
+    public BigInteger recoverPublicKey() {
+        if (!isRecoverable()) {
+            return null;
+        }
+        int v = signature[SIGNATURE_SIZE] & 0xff;
+        int recId = v >= 27 ? v - 27 : v;
+        if (recId != 0 && recId != 1) {
+            return null;
+        }
+        BigInteger r = new BigInteger(1, Arrays.copyOfRange(signature, 0, SIGNATURE_SIZE / 2));
+        BigInteger s = new BigInteger(1, Arrays.copyOfRange(signature, SIGNATURE_SIZE / 2, SIGNATURE_SIZE));
+        if (r.signum() == 0 || s.signum() == 0 || r.compareTo(SECP256K1_N) >= 0) {
+            return null;
+        }
+        ECDSASignature sig = new ECDSASignature(r, s);
+        if (!sig.isCanonical()) {
+            return null;
+        }
+        return Sign.recoverFromSignature(recId, sig, signingInputHash);
+    }
+
+    /**
+     * Get the base64url encoded x coordinate of the public key in the header
+     *
+     * @return The x coordinate, or null for a recoverable token
+     */
+    public String x() {
+        return x;
+    }
+
+    /**
+     * Get the base64url encoded y coordinate of the public key in the header
+     *
+     * @return The y coordinate, or null for a recoverable token
+     */
+    public String y() {
+        return y;
+    }
+
+    /**
+     * Get the token payload
+     *
+     * @return The payload
+     */
+    public JsonNode payload() {
+        return payload;
+    }
+
+    /**
+     * Get the SHA-256 hash of the signing input, that is the encoded header and payload
+     *
+     * @return The hash
+     */
+    public byte[] signingInputHash() {
+        return signingInputHash.clone();
+    }
+
+    /**
+     * Get the signature as the concatenation of r and s, followed by v for a recoverable token
+     *
+     * @return The signature
+     */
+    public byte[] signature() {
+        return signature.clone();
+    }
+}
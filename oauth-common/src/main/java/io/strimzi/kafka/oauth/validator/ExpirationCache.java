@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe cache of wallet addresses used by {@link AccessValidator#ethValidate} to remember
+ * the on-chain expiration time of an address.
+ * <p>
+ * Every entry carries its own time-to-live. Whitelist entries live until the on-chain expiration time,
+ * blacklist entries are kept for a configured negative TTL, after which the address is looked up on-chain again.
+ * </p>
+ * <p>
+ * The cache is split into a fixed number of segments, each guarded by its own lock, so that concurrent
+ * authentications on different network threads rarely contend. Each segment is an access-ordered map that evicts
+ * its least recently used entry once the segment is full, which keeps the heap footprint bounded.
+ * </p>
+ */
+public class ExpirationCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * Create a new instance
+     *
+     * @param maxSize The maximum number of cached addresses
+     */
+    public ExpirationCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("'maxSize' has to be > 0");
+        }
+        int segmentSize = Math.max(1, (maxSize + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * Get the cached expiration time for the address
+     *
+     * @param address The wallet address
+     * @return The expiration time in seconds or null if the address is not cached, or the entry has expired
+     */
+    public Long get(String address) {
+        Segment segment = segmentFor(address);
+        synchronized (segment) {
+            Expiration entry = segment.get(address);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAtMs <= System.currentTimeMillis()) {
+                segment.remove(address);
+                return null;
+            }
+            return entry.expirationTime;
+        }
+    }
+
+    /**
+     * Store the expiration time for the address
+     *
+     * @param address The wallet address
+     * @param expirationTime The on-chain expiration time in seconds
+     * @param expiresAtMs The time in millis when the entry should be evicted
+     */
+    public void put(String address, long expirationTime, long expiresAtMs) {
+        if (expiresAtMs <= System.currentTimeMillis()) {
+            return;
+        }
+        Segment segment = segmentFor(address);
+        synchronized (segment) {
+            segment.put(address, new Expiration(expirationTime, expiresAtMs));
+        }
+    }
+
+    /**
+     * Remove the address from the cache
+     *
+     * @param address The wallet address
+     */
+    public void remove(String address) {
+        Segment segment = segmentFor(address);
+        synchronized (segment) {
+            segment.remove(address);
+        }
+    }
+
+    /**
+     * Get the number of currently cached addresses, including those that may have expired but have not been evicted yet
+     *
+     * @return The number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment: segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String address) {
+        int h = address.hashCode();
+        h ^= h >>> 16;
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    private static class Expiration {
+
+        private final long expirationTime;
+        private final long expiresAtMs;
+
+        Expiration(long expirationTime, long expiresAtMs) {
+            this.expirationTime = expirationTime;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    private static class Segment extends LinkedHashMap<String, Expiration> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Expiration> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
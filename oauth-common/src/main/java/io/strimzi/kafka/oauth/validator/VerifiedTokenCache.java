@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.strimzi.kafka.oauth.common.WEB3;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded, concurrent cache of tokens whose signature has already been verified by {@link AccessValidator}.
+ * <p>
+ * Entries are keyed by the SHA-256 digest of the raw token, so the same token presented on a new connection, or during
+ * re-authentication, does not have to be parsed and its ES256K signature verified again.
+ * Each entry holds the verified payload, the {@link WEB3} identity derived from the public key in the token header,
+ * and the token expiry time. An entry is evicted once the token has expired.
+ * </p>
+ * <p>
+ * When the cache is full, expired entries are purged first. If that doesn't free up any space, new tokens are not cached
+ * until some existing entries expire.
+ * </p>
+ */
+public class VerifiedTokenCache {
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    });
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+
+    /**
+     * Create a new instance
+     *
+     * @param maxSize The maximum number of cached tokens
+     */
+    public VerifiedTokenCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("'maxSize' has to be > 0");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Look up a previously verified token
+     *
+     * @param token The raw token
+     * @return The cached entry or null if the token is not cached, or has already expired
+     */
+    public Entry get(String token) {
+        String key = digest(token);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAtMs <= System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Store a verified token
+     *
+     * @param token The raw token
+     * @param payload The verified token payload
+     * @param web3 The identity derived from the public key that signed the token
+     * @param expiresAtMs The token expiry time in millis
+     */
+    public void put(String token, JsonNode payload, WEB3 web3, long expiresAtMs) {
+        if (expiresAtMs <= System.currentTimeMillis()) {
+            return;
+        }
+        if (entries.size() >= maxSize) {
+            purgeExpired();
+            if (entries.size() >= maxSize) {
+                return;
+            }
+        }
+        entries.put(digest(token), new Entry(payload, web3, expiresAtMs));
+    }
+
+    /**
+     * Remove all the entries for tokens that have expired
+     */
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> entry.expiresAtMs <= now);
+    }
+
+    /**
+     * Get the number of currently cached tokens, including those that may have expired but have not been purged yet
+     *
+     * @return The number of entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private static String digest(String token) {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        return Base64.getEncoder().encodeToString(md.digest(token.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * The verified state of a cached token
+     */
+    public static class Entry {
+
+        private final JsonNode payload;
+        private final WEB3 web3;
+        private final long expiresAtMs;
+
+        Entry(JsonNode payload, WEB3 web3, long expiresAtMs) {
+            this.payload = payload;
+            this.web3 = web3;
+            this.expiresAtMs = expiresAtMs;
+        }
+
+        /**
+         * Get a copy of the verified token payload.
+         * A copy is returned so that the per-session modifications of the payload don't leak between sessions.
+         *
+         * @return The token payload
+         */
+        public JsonNode payload() {
+            return payload.deepCopy();
+        }
+
+        /**
+         * Get the identity derived from the public key that signed the token
+         *
+         * @return The WEB3 instance
+         */
+        public WEB3 web3() {
+            return web3;
+        }
+
+        /**
+         * Get the token expiry time
+         *
+         * @return Expiry time in millis
+         */
+        public long expiresAtMs() {
+            return expiresAtMs;
+        }
+    }
+}
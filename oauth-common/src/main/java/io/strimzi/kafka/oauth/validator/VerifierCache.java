@@ -0,0 +1,249 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSObject;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.util.Base64URL;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.WNafUtil;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, concurrent cache of ready-to-use signature verifiers, keyed by the JWK thumbprint of the public key
+ * embedded in the token header.
+ * <p>
+ * For secp256k1 keys and the ES256K algorithm, the verifier is a lightweight BouncyCastle {@link ECDSASigner} over the decoded
+ * public point, so that a verification does not go through the JCA. The point is decoded once, on the shared secp256k1
+ * curve instance, and its WNAF precomputation tables are built when it is cached. As BouncyCastle keeps these tables on the
+ * point instances, repeat verifications for the same key, and all verifications with the generator of the curve, reuse them.
+ * </p>
+ * <p>
+ * Other keys are verified with the Nimbus {@link ECDSAVerifier}, configured with a single shared {@link BouncyCastleProvider}.
+ * </p>
+ * <p>
+ * When the cache is full, an arbitrary entry is evicted to make room for the new one.
+ * </p>
+ */
+public class VerifierCache {
+
+    /**
+     * The provider shared by all the JCA based verifiers
+     */
+    static final BouncyCastleProvider PROVIDER = new BouncyCastleProvider();
+
+    static final X9ECParameters SECP256K1 = CustomNamedCurves.getByName("secp256k1");
+    private static final ECDomainParameters SECP256K1_DOMAIN = new ECDomainParameters(SECP256K1);
+
+    static final int SIGNATURE_SIZE = 64;
+
+    private final ConcurrentHashMap<String, Verifier> verifiers = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+
+    /**
+     * Create a new instance
+     *
+     * @param maxSize The maximum number of cached verifiers
+     */
+    public VerifierCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("'maxSize' has to be > 0");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Verify the signature of the JWS object with the public key, reusing the verifier of the key if it is cached
+     *
+     * @param jws The signed object
+     * @param publicKey The public key from the header
+     * @return true if the signature is valid
+     * @throws JOSEException If the key is not supported
+     */
+    public boolean verify(JWSObject jws, ECKey publicKey) throws JOSEException {
+        return verifier(publicKey.computeThumbprint().toString(), () -> newVerifier(publicKey)).verify(jws);
+    }
+
+    /**
+     * Verify the signature of the token decoded by {@link ES256KToken}, reusing the verifier of the key if it is cached.
+     * A recoverable token has no key to look up, its signature is valid if a public key can be recovered from it.
+     *
+     * @param token The decoded token
+     * @return true if the signature is valid
+     */
+    public boolean verify(ES256KToken token) {
+        if (token.isRecoverable()) {
+            return token.recoverPublicKey() != null;
+        }
+        return verifier(token).verify(token);
+    }
+
+    /**
+     * Get the verifier of the public key in the header of the decoded token, creating and caching it if needed
+     *
+     * @param token The decoded token, not recoverable
+     * @return The verifier
+     */
+    Verifier verifier(ES256KToken token) {
+        return verifier(thumbprint(token.x(), token.y()), () -> newVerifier(token));
+    }
+
+    private Verifier verifier(String thumbprint, Supplier<Verifier> factory) {
+        Verifier verifier = verifiers.get(thumbprint);
+        if (verifier == null) {
+            verifier = factory.get();
+            if (verifiers.size() >= maxSize) {
+                Iterator<String> it = verifiers.keySet().iterator();
+                if (it.hasNext()) {
+                    verifiers.remove(it.next());
+                }
+            }
+            verifiers.putIfAbsent(thumbprint, verifier);
+        }
+        return verifier;
+    }
+
+    /**
+     * Compute the RFC 7638 JWK thumbprint of a secp256k1 public key, the same as {@link ECKey#computeThumbprint()},
+     * without building the JWK
+     *
+     * @param x The base64url encoded x coordinate
+     * @param y The base64url encoded y coordinate
+     * @return The base64url encoded thumbprint
+     */
+    static String thumbprint(String x, String y) {
+        byte[] json = ("{\"crv\":\"secp256k1\",\"kty\":\"EC\",\"x\":\"" + x + "\",\"y\":\"" + y + "\"}").getBytes(StandardCharsets.UTF_8);
+        SHA256Digest digest = new SHA256Digest();
+        digest.update(json, 0, json.length);
+        byte[] hash = new byte[digest.getDigestSize()];
+        digest.doFinal(hash, 0);
+        return Base64URL.encode(hash).toString();
+    }
+
+    /**
+     * Get the number of cached verifiers
+     *
+     * @return The number of verifiers
+     */
+    public int size() {
+        return verifiers.size();
+    }
+
+    /**
+     * Create a new verifier for the public key, without caching it
+     *
+     * @param publicKey The public key
+     * @return A new verifier
+     */
+    static Verifier newVerifier(ECKey publicKey) {
+        if (!Curve.SECP256K1.equals(publicKey.getCurve())) {
+            return new Verifier(publicKey, null, null);
+        }
+        ECPoint point = SECP256K1.getCurve().createPoint(
+                publicKey.getX().decodeToBigInteger(), publicKey.getY().decodeToBigInteger()).normalize();
+        if (!point.isValid()) {
+            throw new IllegalArgumentException("Public key is not a valid secp256k1 point");
+        }
+        WNafUtil.precompute(point, WNafUtil.getWindowSize(SECP256K1.getN().bitLength()), true);
+
+        ECDSASigner signer = new ECDSASigner();
+        signer.init(false, new ECPublicKeyParameters(point, SECP256K1_DOMAIN));
+        return new Verifier(publicKey, point, signer);
+    }
+
+    /**
+     * Create a new verifier for the public key in the header of the decoded token, without caching it
+     *
+     * @param token The decoded token
+     * @return A new verifier
+     */
+    static Verifier newVerifier(ES256KToken token) {
+        return newVerifier(new ECKey.Builder(Curve.SECP256K1, new Base64URL(token.x()), new Base64URL(token.y())).build());
+    }
+
+    /**
+     * A verifier for a single public key. Verification does not modify its state, so an instance can be used by multiple threads.
+     */
+    static class Verifier {
+
+        private final ECKey publicKey;
+        private final ECPoint point;
+        private final ECDSASigner signer;
+        private volatile ECDSAVerifier jcaVerifier;
+
+        Verifier(ECKey publicKey, ECPoint point, ECDSASigner signer) {
+            this.publicKey = publicKey;
+            this.point = point;
+            this.signer = signer;
+        }
+
+        /**
+         * Get the decoded secp256k1 public point, with its precomputation tables
+         *
+         * @return The point, or null if the key is not a secp256k1 key
+         */
+        ECPoint point() {
+            return point;
+        }
+
+        boolean verify(JWSObject jws) throws JOSEException {
+            if (signer == null || !JWSAlgorithm.ES256K.equals(jws.getHeader().getAlgorithm())) {
+                return jws.verify(jcaVerifier());
+            }
+
+            byte[] signingInput = jws.getSigningInput();
+            SHA256Digest digest = new SHA256Digest();
+            digest.update(signingInput, 0, signingInput.length);
+            byte[] hash = new byte[digest.getDigestSize()];
+            digest.doFinal(hash, 0);
+
+            return verifyHash(hash, jws.getSignature().decode());
+        }
+
+        boolean verify(ES256KToken token) {
+            if (signer == null) {
+                return false;
+            }
+            return verifyHash(token.signingInputHash, token.signature);
+        }
+
+        private boolean verifyHash(byte[] hash, byte[] signature) {
+            if (signature.length != SIGNATURE_SIZE) {
+                return false;
+            }
+            BigInteger r = new BigInteger(1, Arrays.copyOfRange(signature, 0, SIGNATURE_SIZE / 2));
+            BigInteger s = new BigInteger(1, Arrays.copyOfRange(signature, SIGNATURE_SIZE / 2, SIGNATURE_SIZE));
+            return signer.verifySignature(hash, r, s);
+        }
+
+        private ECDSAVerifier jcaVerifier() throws JOSEException {
+            ECDSAVerifier verifier = jcaVerifier;
+            if (verifier == null) {
+                verifier = new ECDSAVerifier(publicKey);
+                verifier.getJCAContext().setProvider(PROVIDER);
+                jcaVerifier = verifier;
+            }
+            return verifier;
+        }
+    }
+}
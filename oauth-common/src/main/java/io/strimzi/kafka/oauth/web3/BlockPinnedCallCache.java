@@ -0,0 +1,273 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import io.reactivex.Flowable;
+import io.strimzi.kafka.oauth.validator.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.BatchRequest;
+import org.web3j.protocol.core.BatchResponse;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.DefaultBlockParameterNumber;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+import org.web3j.protocol.core.methods.response.EthGetTransactionReceipt;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.protocol.websocket.events.Notification;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Web3jService} that answers repeated contract reads from a cache that is pinned to the current head block.
+ * <p>
+ * The result of an <code>eth_call</code> only depends on the caller, the contract, the call data and the block.
+ * Every <code>eth_call</code> against <code>latest</code> is therefore rewritten to an <code>eth_call</code> against the
+ * current head block, and all reads of the same function with the same arguments within one block are answered by one
+ * call to the provider. This covers <code>getExpirationTime(address)</code>, as well as <code>getMonthlyPayment()</code>
+ * and <code>getPaymentFrequency()</code>, and any other read of the contract.
+ * </p>
+ * <p>
+ * The head block is polled with <code>eth_blockNumber</code> every <code>headPollIntervalMs</code>, and the cache is dropped
+ * whenever it moves. Block numbers observed in <code>eth_blockNumber</code> and <code>eth_getTransactionReceipt</code> responses
+ * of other callers of this service also move the head, so a caller never reads state older than a block it has already seen.
+ * If the head has not been refreshed for a few poll intervals, reads are passed through uncached.
+ * </p>
+ * <p>
+ * If the provider can not serve the pinned block, for example because the node that received the request lags behind,
+ * the read falls back to <code>latest</code> and is not cached.
+ * </p>
+ * <p>
+ * All other requests, including batches, are passed through.
+ * </p>
+ */
+public class BlockPinnedCallCache implements Web3jService {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockPinnedCallCache.class);
+
+    /**
+     * The default period of the head block poll in millis
+     */
+    public static final long DEFAULT_HEAD_POLL_INTERVAL_MS = 2000;
+
+    private static final String ETH_CALL = "eth_call";
+    private static final String ETH_BLOCK_NUMBER = "eth_blockNumber";
+    private static final String ETH_GET_TRANSACTION_RECEIPT = "eth_getTransactionReceipt";
+
+    private static final int MAX_HEAD_AGE_POLLS = 3;
+
+    private final Web3jService delegate;
+    private final long headPollIntervalMs;
+    // The head poller, package-private for tests
+    final ScheduledExecutorService executor;
+
+    private volatile Head head = new Head(-1, 0);
+
+    /**
+     * Create a new instance
+     *
+     * @param delegate The service that performs the requests
+     * @param headPollIntervalMs The period of the head block poll in millis
+     */
+    public BlockPinnedCallCache(Web3jService delegate, long headPollIntervalMs) {
+        if (headPollIntervalMs <= 0) {
+            throw new IllegalArgumentException("'headPollIntervalMs' has to be > 0");
+        }
+        this.delegate = delegate;
+        this.headPollIntervalMs = headPollIntervalMs;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+        executor.scheduleWithFixedDelay(this::pollHead, 0, headPollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a new instance over a comma separated list of provider urls, with the default head poll interval
+     *
+     * @param urls A comma separated list of provider urls
+     * @return A new instance
+     */
+    public static BlockPinnedCallCache forUrls(String urls) {
+        return new BlockPinnedCallCache(FailoverWeb3jService.forUrls(urls), DEFAULT_HEAD_POLL_INTERVAL_MS);
+    }
+
+    /**
+     * Get the head block the cache is currently pinned to
+     *
+     * @return The block number, or -1 if not known yet
+     */
+    public long headBlock() {
+        return head.block;
+    }
+
+    /**
+     * Get the number of cached reads for the current head block
+     *
+     * @return The number of cached reads
+     */
+    public int size() {
+        return head.results.size();
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        if (!isCacheable(request) && !isObserved(request)) {
+            return delegate.send(request, responseType);
+        }
+        try {
+            return sendAsync(request, responseType).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the response", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Request failed", cause);
+        }
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        if (isObserved(request)) {
+            return delegate.sendAsync(request, responseType).thenApply(response -> {
+                observe(response);
+                return response;
+            });
+        }
+        Head current = head;
+        if (!isCacheable(request) || current.block < 0 || System.currentTimeMillis() - current.updatedAt > MAX_HEAD_AGE_POLLS * headPollIntervalMs) {
+            return delegate.sendAsync(request, responseType);
+        }
+
+        Transaction transaction = (Transaction) request.getParams().get(0);
+        String key = transaction.getFrom() + ":" + transaction.getTo() + ":" + transaction.getData();
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        CompletableFuture<Response> existing = current.results.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing.thenApply(responseType::cast);
+        }
+
+        Request<?, T> pinned = new Request<>(ETH_CALL,
+                Arrays.asList(transaction, new DefaultBlockParameterNumber(current.block)), delegate, responseType);
+        delegate.sendAsync(pinned, responseType).whenComplete((response, error) -> {
+            if (error == null && !response.hasError()) {
+                future.complete(response);
+                return;
+            }
+            // the pinned block may not be available on the node that served the request, fall back to latest without caching
+            current.results.remove(key, future);
+            delegate.sendAsync(request, responseType).whenComplete((fallback, fallbackError) -> {
+                if (fallbackError != null) {
+                    future.completeExceptionally(fallbackError);
+                } else {
+                    future.complete(fallback);
+                }
+            });
+        });
+        return future.thenApply(responseType::cast);
+    }
+
+    @Override
+    public BatchResponse sendBatch(BatchRequest batchRequest) throws IOException {
+        return delegate.sendBatch(batchRequest);
+    }
+
+    @Override
+    public CompletableFuture<BatchResponse> sendBatchAsync(BatchRequest batchRequest) {
+        return delegate.sendBatchAsync(batchRequest);
+    }
+
+    @Override
+    public <T extends Notification<?>> Flowable<T> subscribe(Request request, String unsubscribeMethod, Class<T> responseType) {
+        return delegate.subscribe(request, unsubscribeMethod, responseType);
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        delegate.close();
+    }
+
+    private static boolean isCacheable(Request<?, ?> request) {
+        if (!ETH_CALL.equals(request.getMethod())) {
+            return false;
+        }
+        List<?> params = request.getParams();
+        return params.size() == 2
+                && params.get(0) instanceof Transaction
+                && params.get(1) instanceof DefaultBlockParameter
+                && DefaultBlockParameterName.LATEST.getValue().equals(((DefaultBlockParameter) params.get(1)).getValue());
+    }
+
+    private static boolean isObserved(Request<?, ?> request) {
+        return ETH_BLOCK_NUMBER.equals(request.getMethod()) || ETH_GET_TRANSACTION_RECEIPT.equals(request.getMethod());
+    }
+
+    private void observe(Response<?> response) {
+        if (response.hasError()) {
+            return;
+        }
+        if (response instanceof EthBlockNumber) {
+            advance(((EthBlockNumber) response).getBlockNumber());
+        } else if (response instanceof EthGetTransactionReceipt) {
+            TransactionReceipt receipt = ((EthGetTransactionReceipt) response).getTransactionReceipt().orElse(null);
+            if (receipt != null && receipt.getBlockNumberRaw() != null) {
+                advance(receipt.getBlockNumber());
+            }
+        }
+    }
+
+    private void pollHead() {
+        try {
+            Request<?, EthBlockNumber> request = new Request<>(ETH_BLOCK_NUMBER, Collections.<String>emptyList(), delegate, EthBlockNumber.class);
+            EthBlockNumber response = delegate.send(request, EthBlockNumber.class);
+            if (response.hasError()) {
+                throw new IOException("eth_blockNumber failed: " + response.getError().getMessage());
+            }
+            advance(response.getBlockNumber());
+        } catch (Throwable t) {
+            log.debug("Failed to poll the head block", t);
+        }
+    }
+
+    private synchronized void advance(BigInteger blockNumber) {
+        long block = blockNumber.longValue();
+        long now = System.currentTimeMillis();
+        if (block > head.block) {
+            head = new Head(block, now);
+        } else if (block == head.block) {
+            head.updatedAt = now;
+        }
+    }
+
+    /**
+     * The head block with the reads cached for it
+     */
+    private static class Head {
+
+        private final long block;
+        private final ConcurrentHashMap<String, CompletableFuture<Response>> results = new ConcurrentHashMap<>();
+        private volatile long updatedAt;
+
+        Head(long block, long updatedAt) {
+            this.block = block;
+            this.updatedAt = updatedAt;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import io.strimzi.kafka.oauth.validator.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.DynamicStruct;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.BatchRequest;
+import org.web3j.protocol.core.BatchResponse;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthCall;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers expiration time lookups for different addresses over a short window and resolves them with a single
+ * round trip to the provider.
+ * <p>
+ * A batch is sent once the window, which starts with the first pending lookup, has elapsed, or as soon as
+ * the batch reaches its maximum size, whichever comes first. Batches are sent on a bounded pool of threads, so that
+ * the round trip of one batch does not hold back the next ones.
+ * </p>
+ * <p>
+ * If the address of a Multicall contract (e.g. Multicall3) is configured, the batch is resolved with one
+ * <code>eth_call</code> to <code>aggregate((address,bytes)[])</code>. Otherwise, one JSON-RPC batch request
+ * is sent containing an <code>eth_call</code> to <code>getExpirationTime(address)</code> for every address.
+ * </p>
+ */
+public class ExpirationBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpirationBatcher.class);
+
+    static final int SENDER_THREADS = 8;
+
+    private final Web3RpcClient rpcClient;
+    private final String adminAdress;
+    private final String whispeerAdress;
+    private final String multicallAdress;
+    private final long windowMillis;
+    private final int maxBatchSize;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+    private final ExecutorService senders = Executors.newFixedThreadPool(SENDER_THREADS, new DaemonThreadFactory());
+
+    // guarded by this
+    private Map<String, CompletableFuture<BigInteger>> pending = new LinkedHashMap<>();
+    // guarded by this
+    private boolean closed;
+
+    /**
+     * Create a new instance
+     *
+     * @param rpcClient The shared JSON-RPC client of the Ethereum provider
+     * @param adminAdress The address used as the caller of the contract
+     * @param whispeerAdress The address of the Whispeer contract
+     * @param multicallAdress The address of the Multicall contract, or null to use JSON-RPC batch requests
+     * @param windowMillis How long to gather lookups before sending a batch
+     * @param maxBatchSize The maximum number of addresses in one batch
+     */
+    public ExpirationBatcher(Web3RpcClient rpcClient, String adminAdress, String whispeerAdress, String multicallAdress,
+                             long windowMillis, int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("'maxBatchSize' has to be > 0");
+        }
+        this.rpcClient = rpcClient;
+        this.adminAdress = adminAdress;
+        this.whispeerAdress = whispeerAdress;
+        this.multicallAdress = multicallAdress;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Add the address to the current batch
+     *
+     * @param address The wallet address
+     * @return A future that completes with the expiration time in seconds once the batch is resolved
+     */
+    public CompletableFuture<BigInteger> submit(String address) {
+        Map<String, CompletableFuture<BigInteger>> full = null;
+        CompletableFuture<BigInteger> future;
+        synchronized (this) {
+            future = pending.get(address);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            if (closed) {
+                future.completeExceptionally(new IOException("Expiration batcher closed"));
+                return future;
+            }
+            pending.put(address, future);
+            if (pending.size() >= maxBatchSize) {
+                full = pending;
+                pending = new LinkedHashMap<>();
+            } else if (pending.size() == 1) {
+                Map<String, CompletableFuture<BigInteger>> batch = pending;
+                executor.schedule(() -> flush(batch), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return future;
+    }
+
+    private void flush(Map<String, CompletableFuture<BigInteger>> batch) {
+        synchronized (this) {
+            // the batch may have already been sent because it reached the max size
+            if (pending != batch) {
+                return;
+            }
+            pending = new LinkedHashMap<>();
+        }
+        send(batch);
+    }
+
+    private void send(Map<String, CompletableFuture<BigInteger>> batch) {
+        try {
+            senders.execute(new Send(batch));
+        } catch (RejectedExecutionException e) {
+            fail(batch);
+        }
+    }
+
+    private static void fail(Map<String, CompletableFuture<BigInteger>> batch) {
+        for (CompletableFuture<BigInteger> f: batch.values()) {
+            f.completeExceptionally(new IOException("Expiration batcher closed"));
+        }
+    }
+
+    private void resolve(Map<String, CompletableFuture<BigInteger>> batch) {
+        List<String> addresses = new ArrayList<>(batch.keySet());
+        try {
+            Map<String, BigInteger> results = fetchExpirationTimes(addresses);
+            for (Map.Entry<String, CompletableFuture<BigInteger>> e: batch.entrySet()) {
+                BigInteger result = results.get(e.getKey());
+                if (result != null) {
+                    e.getValue().complete(result);
+                } else {
+                    e.getValue().completeExceptionally(new IOException("No expiration time returned for " + e.getKey()));
+                }
+            }
+        } catch (Throwable t) {
+            log.warn("Failed to look up the expiration times of {} addresses", addresses.size(), t);
+            for (CompletableFuture<BigInteger> f: batch.values()) {
+                f.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * Resolve the expiration times of all the addresses in one round trip
+     *
+     * @param addresses The wallet addresses
+     * @return A map of address to expiration time in seconds
+     * @throws IOException If the request failed
+     */
+    protected Map<String, BigInteger> fetchExpirationTimes(List<String> addresses) throws IOException {
+        Map<String, BigInteger> results;
+        try {
+            results = multicallAdress != null ? aggregate(addresses) : batch(addresses);
+        } catch (IOException e) {
+            rpcClient.recordFailure();
+            throw e;
+        }
+        rpcClient.recordSuccess();
+        return results;
+    }
+
+    private Map<String, BigInteger> batch(List<String> addresses) throws IOException {
+        Web3j web3j = rpcClient.web3j();
+        BatchRequest batch = web3j.newBatch();
+        Map<Long, String> ids = new HashMap<>();
+        for (String address: addresses) {
+            Transaction transaction = Transaction.createEthCallTransaction(adminAdress, whispeerAdress,
+                    FunctionEncoder.encode(ExpirationLookup.getExpirationTimeFunction(address)));
+            Request<?, EthCall> request = web3j.ethCall(transaction, DefaultBlockParameterName.LATEST);
+            ids.put(request.getId(), address);
+            batch.add(request);
+        }
+
+        BatchResponse response = batch.send();
+        Map<String, BigInteger> results = new HashMap<>();
+        for (Response<?> r: response.getResponses()) {
+            String address = ids.get(r.getId());
+            if (address == null || r.hasError() || !(r instanceof EthCall)) {
+                continue;
+            }
+            BigInteger expirationTime = ExpirationLookup.decodeExpirationTime(((EthCall) r).getValue());
+            if (expirationTime != null) {
+                results.put(address, expirationTime);
+            }
+        }
+        return results;
+    }
+
+    private Map<String, BigInteger> aggregate(List<String> addresses) throws IOException {
+        Function function = aggregateFunction(whispeerAdress, addresses);
+        Transaction transaction = Transaction.createEthCallTransaction(adminAdress, multicallAdress, FunctionEncoder.encode(function));
+        EthCall response = rpcClient.web3j().ethCall(transaction, DefaultBlockParameterName.LATEST).send();
+        if (response.hasError()) {
+            throw new IOException("Multicall aggregate failed: " + response.getError().getMessage());
+        }
+        return decodeAggregate(addresses, response.getValue(), function);
+    }
+
+    static Function aggregateFunction(String whispeerAdress, List<String> addresses) {
+        List<DynamicStruct> calls = new ArrayList<>(addresses.size());
+        for (String address: addresses) {
+            byte[] callData = Numeric.hexStringToByteArray(FunctionEncoder.encode(ExpirationLookup.getExpirationTimeFunction(address)));
+            calls.add(new DynamicStruct(new Address(whispeerAdress), new DynamicBytes(callData)));
+        }
+        return new Function("aggregate",
+                Collections.singletonList(new DynamicArray<>(DynamicStruct.class, calls)),
+                Arrays.asList(new TypeReference<Uint256>() { }, new TypeReference<DynamicArray<DynamicBytes>>() { }));
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, BigInteger> decodeAggregate(List<String> addresses, String value, Function function) throws IOException {
+        List<Type> result = FunctionReturnDecoder.decode(value, function.getOutputParameters());
+        if (result.size() != 2) {
+            throw new IOException("Multicall aggregate returned no value: " + value);
+        }
+        List<DynamicBytes> returnData = ((DynamicArray<DynamicBytes>) result.get(1)).getValue();
+        if (returnData.size() != addresses.size()) {
+            throw new IOException("Multicall aggregate returned " + returnData.size() + " results for " + addresses.size() + " calls");
+        }
+
+        Map<String, BigInteger> results = new HashMap<>();
+        for (int i = 0; i < addresses.size(); i++) {
+            BigInteger expirationTime = ExpirationLookup.decodeExpirationTime(Numeric.toHexString(returnData.get(i).getValue()));
+            if (expirationTime != null) {
+                results.put(addresses.get(i), expirationTime);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Stop the batching and sending threads. The lookups of the batches not sent yet fail.
+     */
+    public void close() {
+        Map<String, CompletableFuture<BigInteger>> batch;
+        synchronized (this) {
+            closed = true;
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        executor.shutdownNow();
+        fail(batch);
+        for (Runnable task: senders.shutdownNow()) {
+            if (task instanceof Send) {
+                fail(((Send) task).batch);
+            }
+        }
+    }
+
+    private class Send implements Runnable {
+        private final Map<String, CompletableFuture<BigInteger>> batch;
+
+        Send(Map<String, CompletableFuture<BigInteger>> batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            resolve(batch);
+        }
+    }
+}
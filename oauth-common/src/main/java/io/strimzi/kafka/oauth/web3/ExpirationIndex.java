@@ -0,0 +1,239 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A local index of the subscription expiration times of wallet addresses, maintained by {@link PaymentsIndexer}.
+ * <p>
+ * Addresses are stored in the same format as {@link io.strimzi.kafka.oauth.common.WEB3#address}, that is lower case hex without the '0x' prefix.
+ * </p>
+ * <p>
+ * Once the index has been built from all the <code>Payments</code> events since the deployment of the contract,
+ * it is marked as complete. An address with an unexpired subscription in the index is accepted without an on-chain
+ * lookup, while an address that is not in the index, or whose subscription has expired, is still looked up on-chain,
+ * in case its latest payment has not been indexed yet.
+ * </p>
+ * <p>
+ * The index can be persisted to an {@link ExpirationSnapshot} file, which is loaded when the index is first attached to it,
+ * and to which all further changes are appended.
+ * </p>
+ * <p>
+ * There is one index per contract address, shared by all the components of the broker, obtained through {@link #forContract(String)}.
+ * The shared index is reference counted: every call to <code>forContract</code> has to be paired with a call to {@link #close()},
+ * and the last one closes the snapshot file and drops the index.
+ * </p>
+ */
+public class ExpirationIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpirationIndex.class);
+
+    // guarded by itself
+    private static final Map<String, ExpirationIndex> INDEXES = new HashMap<>();
+
+    private final ConcurrentHashMap<String, Long> expirations = new ConcurrentHashMap<>();
+
+    private volatile long firstIndexedBlock = -1;
+    private volatile long lastIndexedBlock = -1;
+    private volatile boolean complete;
+
+    private volatile ExpirationSnapshot snapshot;
+
+    // The key of the shared index, or null
+    private String key;
+    // guarded by INDEXES
+    private int refs = 1;
+
+    /**
+     * Get the shared index for the contract, creating it on first use
+     *
+     * @param whispeerAdress The address of the Whispeer contract
+     * @return The shared index
+     */
+    public static ExpirationIndex forContract(String whispeerAdress) {
+        String key = normalize(whispeerAdress);
+        synchronized (INDEXES) {
+            ExpirationIndex index = INDEXES.get(key);
+            if (index != null) {
+                index.refs++;
+                return index;
+            }
+            index = new ExpirationIndex();
+            index.key = key;
+            INDEXES.put(key, index);
+            return index;
+        }
+    }
+
+    /**
+     * Release this reference to the index. Once the index is no longer used, the snapshot file is closed,
+     * and a shared index is dropped, so that the next {@link #forContract(String)} loads it again.
+     */
+    public void close() {
+        synchronized (INDEXES) {
+            if (refs <= 0 || --refs > 0) {
+                return;
+            }
+            if (key != null) {
+                INDEXES.remove(key, this);
+            }
+        }
+        try {
+            closeSnapshot();
+        } catch (IOException e) {
+            log.warn("Failed to close the expiration snapshot", e);
+        }
+    }
+
+    /**
+     * Load the index from the snapshot file, and append all further changes to it.
+     * If the index is already persisted, this method has no effect.
+     *
+     * @param path The snapshot file
+     * @throws IOException If the snapshot file can not be read or written
+     */
+    public synchronized void persistTo(Path path) throws IOException {
+        if (snapshot == null) {
+            snapshot = ExpirationSnapshot.open(path, this);
+        }
+    }
+
+    /**
+     * Stop persisting the changes to the snapshot file
+     *
+     * @throws IOException If the snapshot file can not be closed
+     */
+    public synchronized void closeSnapshot() throws IOException {
+        if (snapshot != null) {
+            snapshot.close();
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Get the expiration time of the address
+     *
+     * @param address The wallet address
+     * @return The expiration time in seconds, or null if the address is not in the index
+     */
+    public Long get(String address) {
+        return expirations.get(normalize(address));
+    }
+
+    /**
+     * Update the expiration time of the address. The expiration time can only move forward,
+     * so an older value never overwrites a newer one.
+     *
+     * @param address The wallet address
+     * @param expirationTime The expiration time in seconds
+     */
+    public void update(String address, long expirationTime) {
+        String key = normalize(address);
+        Long previous = expirations.get(key);
+        Long current = expirations.merge(key, expirationTime, Math::max);
+        ExpirationSnapshot s = snapshot;
+        if (s != null && !current.equals(previous)) {
+            s.append(key, current, lastIndexedBlock);
+        }
+    }
+
+    void restore(String address, long expirationTime) {
+        expirations.merge(normalize(address), expirationTime, Math::max);
+    }
+
+    void restoreIndexedBlocks(long firstBlock, long lastBlock) {
+        this.firstIndexedBlock = firstBlock;
+        this.lastIndexedBlock = lastBlock;
+    }
+
+    /**
+     * Get a read-only view of the indexed expiration times
+     *
+     * @return A map of address to expiration time in seconds
+     */
+    public Map<String, Long> expirations() {
+        return Collections.unmodifiableMap(expirations);
+    }
+
+    /**
+     * Get the number of indexed addresses
+     *
+     * @return The number of addresses
+     */
+    public int size() {
+        return expirations.size();
+    }
+
+    /**
+     * Get the first block from which the events have been indexed without a gap
+     *
+     * @return The block number, or -1 if no block has been indexed yet
+     */
+    public long firstIndexedBlock() {
+        return firstIndexedBlock;
+    }
+
+    /**
+     * Set the first block from which the events are indexed without a gap
+     *
+     * @param block The block number
+     */
+    public void firstIndexedBlock(long block) {
+        this.firstIndexedBlock = block;
+    }
+
+    /**
+     * Get the last block whose events have been indexed
+     *
+     * @return The block number, or -1 if no block has been indexed yet
+     */
+    public long lastIndexedBlock() {
+        return lastIndexedBlock;
+    }
+
+    /**
+     * Set the last block whose events have been indexed
+     *
+     * @param block The block number
+     */
+    public void lastIndexedBlock(long block) {
+        this.lastIndexedBlock = block;
+        ExpirationSnapshot s = snapshot;
+        if (s != null) {
+            s.checkpoint(firstIndexedBlock, block);
+        }
+    }
+
+    /**
+     * Check if the index contains all the payments since the deployment of the contract
+     *
+     * @return true if the expiration times in the index are authoritative
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Mark the index as containing all the payments since the deployment of the contract
+     */
+    public void markComplete() {
+        this.complete = true;
+    }
+
+    static String normalize(String address) {
+        String result = address.toLowerCase(Locale.ROOT);
+        return result.startsWith("0x") ? result.substring(2) : result;
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import io.strimzi.kafka.oauth.validator.DaemonThreadFactory;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthCall;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Looks up the subscription expiration time of a wallet address by calling <code>getExpirationTime(address)</code>
+ * on the Whispeer contract.
+ * <p>
+ * Concurrent lookups for the same address are coalesced: the first caller performs the <code>eth_call</code>,
+ * while the others wait on the same future and receive the same result. This limits the load on the provider to
+ * one call per address at any time, no matter how many connections of the same wallet authenticate at once.
+ * </p>
+ * <p>
+ * Lookups are performed in the background, so that the caller can bound the time it waits for the result with
+ * {@link #lookup(String, long)}, or not wait at all with {@link #lookupAsync(String)}.
+ * </p>
+ * <p>
+ * If an {@link ExpirationBatcher} is configured, lookups for different addresses are further gathered into batches
+ * that are resolved in one round trip.
+ * </p>
+ * <p>
+ * The validator callback handlers and the authorizer share one lookup, with its batcher, per client and contract,
+ * obtained through {@link #forContract(Web3RpcClient, String, String, String, int, int)}. The shared instances are reference
+ * counted like {@link Web3RpcClient}: every call to <code>forContract</code> has to be paired with a call to {@link #close()}.
+ * </p>
+ */
+public class ExpirationLookup {
+
+    private static final int LOOKUP_THREADS = 8;
+
+    // guarded by itself
+    private static final Map<String, ExpirationLookup> LOOKUPS = new HashMap<>();
+
+    private static final List<TypeReference<Type>> EXPIRATION_TIME_OUTPUT = getExpirationTimeFunction(Address.DEFAULT.getValue()).getOutputParameters();
+
+    private final ConcurrentHashMap<String, CompletableFuture<BigInteger>> inFlight = new ConcurrentHashMap<>();
+
+    private final Web3RpcClient rpcClient;
+    private final String adminAdress;
+    private final String whispeerAdress;
+    private final ExpirationBatcher batcher;
+    private final ExecutorService executor;
+
+    // The key of a shared instance, which owns its batcher and a reference to the client, or null
+    private String key;
+    // guarded by LOOKUPS
+    private int refs = 1;
+
+    /**
+     * Create a new instance
+     *
+     * @param rpcClient The shared JSON-RPC client of the Ethereum provider
+     * @param adminAdress The address used as the caller of the contract
+     * @param whispeerAdress The address of the Whispeer contract
+     */
+    public ExpirationLookup(Web3RpcClient rpcClient, String adminAdress, String whispeerAdress) {
+        this(rpcClient, adminAdress, whispeerAdress, null);
+    }
+
+    /**
+     * Create a new instance
+     *
+     * @param rpcClient The shared JSON-RPC client of the Ethereum provider
+     * @param adminAdress The address used as the caller of the contract
+     * @param whispeerAdress The address of the Whispeer contract
+     * @param batcher The batcher used to resolve the lookups, or null to resolve each lookup with its own call
+     */
+    public ExpirationLookup(Web3RpcClient rpcClient, String adminAdress, String whispeerAdress, ExpirationBatcher batcher) {
+        this.rpcClient = rpcClient;
+        this.adminAdress = adminAdress;
+        this.whispeerAdress = whispeerAdress;
+        this.batcher = batcher;
+        this.executor = batcher == null ? Executors.newFixedThreadPool(LOOKUP_THREADS, new DaemonThreadFactory()) : null;
+    }
+
+    /**
+     * Get the shared lookup for the client and contract, creating it, with its batcher, on first use
+     *
+     * @param rpcClient The shared JSON-RPC client of the Ethereum provider
+     * @param adminAdress The address used as the caller of the contract
+     * @param whispeerAdress The address of the Whispeer contract
+     * @param multicallAdress The address of the Multicall contract, or null to use JSON-RPC batch requests
+     * @param batchWindowMs How long to gather lookups before sending a batch, or 0 to resolve each lookup with its own call
+     * @param batchMaxSize The maximum number of addresses in one batch
+     * @return The shared lookup
+     */
+    public static ExpirationLookup forContract(Web3RpcClient rpcClient, String adminAdress, String whispeerAdress,
+                                               String multicallAdress, int batchWindowMs, int batchMaxSize) {
+        String key = rpcClient.key() + "|" + adminAdress + "|" + whispeerAdress + "|" + multicallAdress + "|" + batchWindowMs + "|" + batchMaxSize;
+        synchronized (LOOKUPS) {
+            ExpirationLookup lookup = LOOKUPS.get(key);
+            if (lookup != null) {
+                lookup.refs++;
+                return lookup;
+            }
+            ExpirationBatcher batcher = batchWindowMs > 0
+                    ? new ExpirationBatcher(rpcClient, adminAdress, whispeerAdress, multicallAdress, batchWindowMs, batchMaxSize)
+                    : null;
+            lookup = new ExpirationLookup(rpcClient.retain(), adminAdress, whispeerAdress, batcher);
+            lookup.key = key;
+            LOOKUPS.put(key, lookup);
+            return lookup;
+        }
+    }
+
+    /**
+     * Add a reference to the lookup, which has to be released with {@link #close()}
+     *
+     * @return This lookup
+     */
+    ExpirationLookup retain() {
+        synchronized (LOOKUPS) {
+            if (refs <= 0) {
+                throw new IllegalStateException("ExpirationLookup is closed: " + whispeerAdress);
+            }
+            refs++;
+        }
+        return this;
+    }
+
+    /**
+     * Check if lookups can currently be performed
+     *
+     * @return true if the provider is configured and healthy
+     */
+    public boolean isAvailable() {
+        return rpcClient != null && rpcClient.isHealthy();
+    }
+
+    /**
+     * Get the expiration time of the address, joining the lookup already in progress for the same address if there is one
+     *
+     * @param address The wallet address
+     * @return The expiration time in seconds
+     * @throws IOException If the lookup failed
+     */
+    public BigInteger lookup(String address) throws IOException {
+        return await(lookupAsync(address));
+    }
+
+    /**
+     * Get the expiration time of the address, waiting at most <code>timeoutMs</code> for the result.
+     * The lookup itself is not cancelled when the deadline passes, so a later call can still pick up its result.
+     *
+     * @param address The wallet address
+     * @param timeoutMs The maximum time to wait in millis
+     * @return The expiration time in seconds
+     * @throws IOException If the lookup failed
+     * @throws TimeoutException If the result was not available before the deadline
+     */
+    public BigInteger lookup(String address, long timeoutMs) throws IOException, TimeoutException {
+        try {
+            return lookupAsync(address).get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while looking up the expiration time", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    /**
+     * Start the lookup of the expiration time of the address, or join the lookup already in progress for the same address
+     *
+     * @param address The wallet address
+     * @return A future that completes with the expiration time in seconds
+     */
+    public CompletableFuture<BigInteger> lookupAsync(String address) {
+        CompletableFuture<BigInteger> future = new CompletableFuture<>();
+        CompletableFuture<BigInteger> existing = inFlight.putIfAbsent(address, future);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (batcher != null) {
+            batcher.submit(address).whenComplete((result, error) -> {
+                inFlight.remove(address, future);
+                if (error != null) {
+                    future.completeExceptionally(error);
+                } else {
+                    future.complete(result);
+                }
+            });
+            return future;
+        }
+
+        executor.execute(() -> {
+            try {
+                future.complete(fetchExpirationTime(address));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                inFlight.remove(address, future);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Get the expiration times of multiple addresses, using the batcher if one is configured.
+     * Unlike {@link #lookup(String)}, the lookups are not coalesced with the ones already in progress.
+     *
+     * @param addresses The wallet addresses
+     * @return A map of address to expiration time in seconds
+     * @throws IOException If any of the lookups failed
+     */
+    public Map<String, BigInteger> lookupAll(Collection<String> addresses) throws IOException {
+        Map<String, BigInteger> results = new LinkedHashMap<>();
+        if (batcher != null) {
+            Map<String, CompletableFuture<BigInteger>> futures = new LinkedHashMap<>();
+            for (String address: addresses) {
+                futures.put(address, batcher.submit(address));
+            }
+            for (Map.Entry<String, CompletableFuture<BigInteger>> e: futures.entrySet()) {
+                results.put(e.getKey(), await(e.getValue()));
+            }
+        } else {
+            for (String address: addresses) {
+                results.put(address, fetchExpirationTime(address));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Perform the <code>eth_call</code> for the address
+     *
+     * @param address The wallet address
+     * @return The expiration time in seconds
+     * @throws IOException If the call failed
+     */
+    protected BigInteger fetchExpirationTime(String address) throws IOException {
+        Function function = getExpirationTimeFunction(address);
+
+        //from = admin; to = whispeerAddress; data = encodedFunction;
+        Transaction transaction = Transaction.createEthCallTransaction(adminAdress, whispeerAdress, FunctionEncoder.encode(function));
+        EthCall response;
+        try {
+            response = rpcClient.web3j().ethCall(transaction, DefaultBlockParameterName.LATEST).send();
+        } catch (IOException e) {
+            rpcClient.recordFailure();
+            throw e;
+        }
+        rpcClient.recordSuccess();
+        if (response.hasError()) {
+            throw new IOException("eth_call failed: " + response.getError().getMessage());
+        }
+
+        BigInteger expirationTime = decodeExpirationTime(response.getValue());
+        if (expirationTime == null) {
+            throw new IOException("eth_call returned no value: " + response.getValue());
+        }
+        return expirationTime;
+    }
+
+    static Function getExpirationTimeFunction(String address) {
+        return new Function(
+                "getExpirationTime",
+                Collections.singletonList(new Address(address)),
+                Collections.singletonList(new TypeReference<Uint256>() { }));
+    }
+
+    static BigInteger decodeExpirationTime(String value) {
+        List<Type> result = FunctionReturnDecoder.decode(value, EXPIRATION_TIME_OUTPUT);
+        return result.isEmpty() ? null : (BigInteger) result.get(0).getValue();
+    }
+
+    /**
+     * Release this reference to the lookup. Once the lookup is no longer used, the lookup threads are stopped,
+     * and a shared lookup also closes its batcher and releases the client. The batcher passed to the constructor is not closed.
+     */
+    public void close() {
+        synchronized (LOOKUPS) {
+            if (refs <= 0 || --refs > 0) {
+                return;
+            }
+            if (key != null) {
+                LOOKUPS.remove(key, this);
+            }
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (key != null) {
+            if (batcher != null) {
+                batcher.close();
+            }
+            rpcClient.close();
+        }
+    }
+
+    private static BigInteger await(CompletableFuture<BigInteger> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    private static IOException unwrap(Throwable cause) {
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException("Expiration time lookup failed", cause);
+    }
+}
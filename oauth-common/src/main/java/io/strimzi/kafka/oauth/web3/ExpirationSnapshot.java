@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import org.bouncycastle.util.encoders.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * An append-only file that persists an {@link ExpirationIndex}, so that a restarted broker starts with what it knew
+ * before, instead of looking up every wallet again.
+ * <p>
+ * The file starts with a fixed size header:
+ * </p>
+ * <pre>
+ *   int  magic ('WXP1')
+ *   int  version
+ *   long first indexed block
+ *   long last indexed block
+ *   long reserved
+ * </pre>
+ * <p>
+ * followed by fixed size records, one for every change of the index:
+ * </p>
+ * <pre>
+ *   byte[20] address
+ *   long     expiration time in seconds
+ *   long     last indexed block at the time of the change
+ * </pre>
+ * <p>
+ * Records are appended as the index changes, and the header is rewritten in place after every indexed block range.
+ * Records are always written before the header that covers them, so the recorded last indexed block never runs ahead
+ * of the records. When loading, later records for the same address win, and a partially written trailing record is ignored.
+ * If the file contains many more records than addresses, it is compacted when loaded.
+ * </p>
+ * <p>
+ * Writes are not forced to disk, as the page cache survives a broker restart. After an operating system crash the
+ * snapshot may be missing the latest changes, which the indexer then catches up with.
+ * </p>
+ */
+public class ExpirationSnapshot implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ExpirationSnapshot.class);
+
+    private static final int MAGIC = 0x57585031;
+    private static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 36;
+
+    private static final int ADDRESS_SIZE = 20;
+
+    private final Path path;
+    private FileChannel channel;
+
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+    private ExpirationSnapshot(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Open the snapshot file, load its content into the index, and keep the file open for appending further changes
+     *
+     * @param path The snapshot file
+     * @param index The index to load into
+     * @return The opened snapshot
+     * @throws IOException If the file can not be read or written
+     */
+    static ExpirationSnapshot open(Path path, ExpirationIndex index) throws IOException {
+        ExpirationSnapshot snapshot = new ExpirationSnapshot(path);
+        long records = snapshot.load(index);
+        if (records > 2L * index.size() + 1024) {
+            snapshot.compact(index);
+        }
+        snapshot.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (snapshot.channel.size() < HEADER_SIZE) {
+            snapshot.channel.truncate(0);
+            snapshot.checkpoint(index.firstIndexedBlock(), index.lastIndexedBlock());
+        } else {
+            // drop a partially written trailing record
+            long size = snapshot.channel.size();
+            snapshot.channel.truncate(size - (size - HEADER_SIZE) % RECORD_SIZE);
+        }
+        return snapshot;
+    }
+
+    private long load(ExpirationIndex index) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        long count = 0;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+            if (readFully(in, buf) < HEADER_SIZE) {
+                return 0;
+            }
+            buf.flip();
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                log.warn("Ignoring snapshot file with unknown format: {}", path);
+                return 0;
+            }
+            long first = buf.getLong();
+            long last = buf.getLong();
+
+            ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            byte[] address = new byte[ADDRESS_SIZE];
+            while (readFully(in, records) > 0) {
+                records.flip();
+                while (records.remaining() >= RECORD_SIZE) {
+                    records.get(address);
+                    long expirationTime = records.getLong();
+                    records.getLong();
+                    index.restore(Hex.toHexString(address), expirationTime);
+                    count++;
+                }
+                records.clear();
+            }
+            index.restoreIndexedBlocks(first, last);
+        }
+        log.info("Loaded {} addresses from snapshot {} (last indexed block: {})", index.size(), path, index.lastIndexedBlock());
+        return count;
+    }
+
+    private void compact(ExpirationIndex index) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeHeader(out, header, index.firstIndexedBlock(), index.lastIndexedBlock());
+            out.position(HEADER_SIZE);
+            for (Map.Entry<String, Long> e: index.expirations().entrySet()) {
+                writeRecord(out, record, e.getKey(), e.getValue(), index.lastIndexedBlock());
+            }
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Compacted snapshot {} to {} addresses", path, index.size());
+    }
+
+    /**
+     * Append the change of the expiration time of the address
+     *
+     * @param address The wallet address, lower case hex without the '0x' prefix
+     * @param expirationTime The expiration time in seconds
+     * @param block The last indexed block
+     */
+    synchronized void append(String address, long expirationTime, long block) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.position(channel.size());
+            writeRecord(channel, record, address, expirationTime, block);
+        } catch (IOException e) {
+            log.warn("Failed to append to snapshot {}", path, e);
+        }
+    }
+
+    /**
+     * Record the range of blocks covered by the snapshot
+     *
+     * @param firstBlock The first indexed block
+     * @param lastBlock The last indexed block
+     */
+    synchronized void checkpoint(long firstBlock, long lastBlock) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            writeHeader(channel, header, firstBlock, lastBlock);
+        } catch (IOException e) {
+            log.warn("Failed to update snapshot header {}", path, e);
+        }
+    }
+
+    private static void writeHeader(FileChannel out, ByteBuffer buf, long firstBlock, long lastBlock) throws IOException {
+        buf.clear();
+        buf.putInt(MAGIC).putInt(VERSION).putLong(firstBlock).putLong(lastBlock).putLong(0);
+        buf.flip();
+        long position = 0;
+        while (buf.hasRemaining()) {
+            position += out.write(buf, position);
+        }
+    }
+
+    private static void writeRecord(FileChannel out, ByteBuffer buf, String address, long expirationTime, long block) throws IOException {
+        if (address.length() != 2 * ADDRESS_SIZE) {
+            return;
+        }
+        buf.clear();
+        buf.put(Hex.decode(address)).putLong(expirationTime).putLong(block);
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    private static int readFully(FileChannel in, ByteBuffer buf) throws IOException {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int read = in.read(buf);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import io.reactivex.Flowable;
+import io.strimzi.kafka.oauth.validator.DaemonThreadFactory;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.BatchRequest;
+import org.web3j.protocol.core.BatchResponse;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.http.HttpService;
+import org.web3j.protocol.websocket.events.Notification;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A {@link Web3jService} that spreads JSON-RPC requests over multiple HTTP endpoints of equivalent providers.
+ * <p>
+ * Each endpoint tracks the exponentially weighted moving average (EWMA) of its latency, and the latencies of its recent
+ * requests. A request is sent to the available endpoint with the lowest EWMA. If it fails, the request is retried
+ * on the next endpoint, until all of them have been tried.
+ * </p>
+ * <p>
+ * If hedging is enabled, and the first endpoint does not respond within the configured percentile of its recent latencies,
+ * the request is also sent to the next endpoint. Whichever response arrives first wins.
+ * </p>
+ * <p>
+ * Each endpoint has its own circuit breaker. After <code>failureThreshold</code> consecutive failures the circuit opens,
+ * and the endpoint is only used as a last resort for <code>openMillis</code>. After that, the next request is let through,
+ * and a success closes the circuit again.
+ * </p>
+ * <p>
+ * The service has to be closed once no longer used, which stops the hedging timer, and releases the HTTP client if it
+ * was created by {@link #forUrls(String)}.
+ * </p>
+ */
+public class FailoverWeb3jService implements Web3jService {
+
+    private static final Logger log = LoggerFactory.getLogger(FailoverWeb3jService.class);
+
+    private static final int MIN_HEDGE_SAMPLES = 20;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 500;
+
+    private final List<Endpoint> endpoints;
+    private final int hedgePercentile;
+    private final int failureThreshold;
+    private final long openMillis;
+    // Only created if hedging is enabled, package-private for tests
+    final ScheduledExecutorService hedgeScheduler;
+    // The HTTP client created by forUrls, which is released on close, or null, package-private for tests
+    OkHttpClient ownHttpClient;
+
+    /**
+     * Create a new instance
+     *
+     * @param urls The endpoint urls
+     * @param httpClient The HTTP client shared by all the endpoints
+     * @param hedgePercentile The percentile (1 - 99) of the recent latencies of an endpoint after which a request is hedged, or 0 to disable hedging
+     * @param failureThreshold The number of consecutive failures after which the circuit of an endpoint opens
+     * @param openMillis How long the circuit of an endpoint stays open
+     */
+    public FailoverWeb3jService(List<String> urls, OkHttpClient httpClient, int hedgePercentile, int failureThreshold, long openMillis) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint url is required");
+        }
+        if (hedgePercentile < 0 || hedgePercentile > 99) {
+            throw new IllegalArgumentException("'hedgePercentile' has to be between 0 and 99");
+        }
+        List<Endpoint> list = new ArrayList<>(urls.size());
+        for (String url: urls) {
+            list.add(new Endpoint(url, new HttpService(url, httpClient)));
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+        this.hedgePercentile = hedgePercentile;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.hedgeScheduler = hedgePercentile > 0 && list.size() > 1
+                ? Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory()) : null;
+    }
+
+    /**
+     * Create a new instance with default settings, hedging at the 95th percentile
+     *
+     * @param urls A comma separated list of endpoint urls
+     * @return A new instance, which owns its HTTP client
+     */
+    public static FailoverWeb3jService forUrls(String urls) {
+        OkHttpClient httpClient = HttpService.getOkHttpClientBuilder().build();
+        FailoverWeb3jService service = new FailoverWeb3jService(parseUrls(urls), httpClient, 95, 3, 30_000);
+        service.ownHttpClient = httpClient;
+        return service;
+    }
+
+    /**
+     * Parse a comma separated list of endpoint urls
+     *
+     * @param urls A comma separated list of urls
+     * @return The list of urls
+     */
+    public static List<String> parseUrls(String urls) {
+        List<String> result = new ArrayList<>();
+        for (String url: urls.split(",")) {
+            String trimmed = url.trim();
+            if (!trimmed.isEmpty()) {
+                result.add(trimmed);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        return await(sendAsync(request, responseType));
+    }
+
+    @Override
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        return call(endpoint -> endpoint.service.sendAsync(request, responseType));
+    }
+
+    @Override
+    public BatchResponse sendBatch(BatchRequest batchRequest) throws IOException {
+        return await(sendBatchAsync(batchRequest));
+    }
+
+    @Override
+    public CompletableFuture<BatchResponse> sendBatchAsync(BatchRequest batchRequest) {
+        return call(endpoint -> endpoint.service.sendBatchAsync(batchRequest));
+    }
+
+    @Override
+    public <T extends Notification<?>> Flowable<T> subscribe(Request request, String unsubscribeMethod, Class<T> responseType) {
+        throw new UnsupportedOperationException("Subscriptions are not supported over HTTP");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (hedgeScheduler != null) {
+            hedgeScheduler.shutdownNow();
+        }
+        for (Endpoint endpoint: endpoints) {
+            endpoint.service.close();
+        }
+        if (ownHttpClient != null) {
+            ownHttpClient.dispatcher().executorService().shutdown();
+            ownHttpClient.connectionPool().evictAll();
+        }
+    }
+
+    private <T> CompletableFuture<T> call(Function<Endpoint, CompletableFuture<T>> op) {
+        long now = System.currentTimeMillis();
+        List<Endpoint> ordered = new ArrayList<>(endpoints);
+        ordered.sort(Comparator.<Endpoint>comparingInt(e -> e.isOpen(now) ? 1 : 0).thenComparingDouble(Endpoint::ewma));
+
+        Attempts<T> attempts = new Attempts<>(ordered, op);
+        attempts.next();
+        if (hedgeScheduler != null && !hedgeScheduler.isShutdown()) {
+            long delay = ordered.get(0).hedgeDelay(hedgePercentile);
+            try {
+                hedgeScheduler.schedule(() -> {
+                    if (!attempts.result.isDone()) {
+                        attempts.next();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.debug("Not hedging the request of a closed service");
+            }
+        }
+        return attempts.result;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the response", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Request failed", cause);
+        }
+    }
+
+    /**
+     * The state of one request that may be sent to multiple endpoints
+     */
+    private class Attempts<T> {
+
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final List<Endpoint> ordered;
+        private final Function<Endpoint, CompletableFuture<T>> op;
+
+        private int started;
+        private int outstanding;
+
+        Attempts(List<Endpoint> ordered, Function<Endpoint, CompletableFuture<T>> op) {
+            this.ordered = ordered;
+            this.op = op;
+        }
+
+        void next() {
+            Endpoint endpoint;
+            synchronized (this) {
+                if (started >= ordered.size()) {
+                    return;
+                }
+                endpoint = ordered.get(started++);
+                outstanding++;
+            }
+
+            long start = System.nanoTime();
+            CompletableFuture<T> attempt;
+            try {
+                attempt = op.apply(endpoint);
+            } catch (Throwable t) {
+                attempt = new CompletableFuture<>();
+                attempt.completeExceptionally(t);
+            }
+            attempt.whenComplete((response, error) -> {
+                long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (error == null) {
+                    endpoint.success(latencyMs);
+                    result.complete(response);
+                    return;
+                }
+                endpoint.failure(latencyMs, failureThreshold, openMillis);
+                log.debug("Request to {} failed", endpoint, error);
+
+                boolean exhausted;
+                synchronized (this) {
+                    outstanding--;
+                    exhausted = started >= ordered.size() && outstanding == 0;
+                }
+                if (exhausted) {
+                    result.completeExceptionally(error);
+                } else if (!result.isDone()) {
+                    // no need to try another endpoint once an attempt has succeeded
+                    next();
+                }
+            });
+        }
+    }
+
+    /**
+     * An endpoint with its circuit breaker and latency statistics
+     */
+    static class Endpoint {
+
+        private static final double ALPHA = 0.2;
+        private static final int SAMPLES = 128;
+
+        private final String host;
+        private final HttpService service;
+
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long openUntil;
+
+        private final long[] latencies = new long[SAMPLES];
+        // the index the next latency is recorded at
+        private int pos;
+        // the number of recorded latencies, at most SAMPLES
+        private int samples;
+        private double ewma;
+
+        Endpoint(String url, HttpService service) {
+            HttpUrl parsed = HttpUrl.parse(url);
+            // the path often contains the API key, so only the host is ever logged
+            this.host = parsed != null ? parsed.host() : "<invalid url>";
+            this.service = service;
+        }
+
+        boolean isOpen(long now) {
+            return consecutiveFailures.get() >= 1 && openUntil > now;
+        }
+
+        synchronized double ewma() {
+            return ewma;
+        }
+
+        synchronized void success(long latencyMs) {
+            consecutiveFailures.set(0);
+            openUntil = 0;
+            record(latencyMs);
+        }
+
+        synchronized void failure(long latencyMs, int failureThreshold, long openMillis) {
+            record(latencyMs);
+            if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+                if (openUntil <= System.currentTimeMillis()) {
+                    log.warn("Opening the circuit of {} for {} ms after {} consecutive failures", host, openMillis, consecutiveFailures.get());
+                }
+                openUntil = System.currentTimeMillis() + openMillis;
+            }
+        }
+
+        private void record(long latencyMs) {
+            ewma = samples == 0 ? latencyMs : ALPHA * latencyMs + (1 - ALPHA) * ewma;
+            latencies[pos] = latencyMs;
+            pos = (pos + 1) % SAMPLES;
+            if (samples < SAMPLES) {
+                samples++;
+            }
+        }
+
+        synchronized long hedgeDelay(int percentile) {
+            int count = samples;
+            if (count < MIN_HEDGE_SAMPLES) {
+                return DEFAULT_HEDGE_DELAY_MS;
+            }
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return Math.max(1, sorted[Math.min(count - 1, count * percentile / 100)]);
+        }
+
+        @Override
+        public String toString() {
+            return "Endpoint {host: " + host + ", ewma: " + ewma() + " ms}";
+        }
+    }
+}
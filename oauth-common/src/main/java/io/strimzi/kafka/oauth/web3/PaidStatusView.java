@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A non-blocking view of whether wallet addresses have a paid subscription, for use on request handling threads.
+ * <p>
+ * The status is taken from the shared {@link ExpirationIndex} when it knows the address, and the subscription has not
+ * expired. Otherwise it is taken from the results of earlier on-chain lookups, which are kept in a bounded map, since
+ * the latest payment of the address may not have been indexed yet. Only without a lookup is an address reported unpaid
+ * by a complete index.
+ * An address that is in neither is reported as {@link Status#UNKNOWN}, and a lookup is started in the background,
+ * so that a later call gets the resolved status. Resolved results are refreshed in the background once they are older
+ * than the refresh interval, while the previous result keeps being used.
+ * </p>
+ * <p>
+ * Calling {@link #status(String, long)} never waits for the network.
+ * </p>
+ */
+public class PaidStatusView {
+
+    private static final Logger log = LoggerFactory.getLogger(PaidStatusView.class);
+
+    /**
+     * The subscription status of a wallet
+     */
+    public enum Status {
+        /**
+         * The subscription has not expired
+         */
+        PAID,
+        /**
+         * The wallet never paid, or the subscription has expired
+         */
+        UNPAID,
+        /**
+         * The status is not known yet
+         */
+        UNKNOWN
+    }
+
+    private final ConcurrentHashMap<String, Resolved> resolved = new ConcurrentHashMap<>();
+
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final ExpirationIndex index;
+    private final ExpirationLookup lookup;
+    private final long refreshMs;
+    private final int maxSize;
+
+    /**
+     * Create a new instance
+     *
+     * @param index The shared expiration index, or null if there is none
+     * @param lookup The lookup used to resolve the addresses that the index does not know, or null to rely on the index only
+     * @param refreshMs The age in millis after which a resolved status is looked up again
+     * @param maxSize The maximum number of resolved addresses to keep
+     */
+    public PaidStatusView(ExpirationIndex index, ExpirationLookup lookup, long refreshMs, int maxSize) {
+        this.index = index;
+        this.lookup = lookup;
+        this.refreshMs = refreshMs;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the subscription status of the address
+     *
+     * @param address The wallet address, in the format of {@link io.strimzi.kafka.oauth.common.WEB3#address}
+     * @param nowMs The current time in millis
+     * @return The status
+     */
+    public Status status(String address, long nowMs) {
+        if (index != null) {
+            Long expiration = index.get(address);
+            if (expiration != null && expiration * 1000 > nowMs) {
+                return Status.PAID;
+            }
+            // a payment may not have been indexed yet, so an address missing from the index, or whose indexed
+            // subscription has expired, is looked up
+            if (index.isComplete() && lookup == null) {
+                return Status.UNPAID;
+            }
+        }
+
+        Resolved r = resolved.get(address);
+        if (r == null) {
+            resolve(address);
+            return Status.UNKNOWN;
+        }
+        if (r.resolvedAtMs + refreshMs <= nowMs) {
+            resolve(address);
+        }
+        return r.expiresAtMs > nowMs ? Status.PAID : Status.UNPAID;
+    }
+
+    private void resolve(String address) {
+        if (lookup == null || !lookup.isAvailable() || !pending.add(address)) {
+            return;
+        }
+        try {
+            lookup.lookupAsync(address).whenComplete((expiration, error) -> {
+                if (error != null) {
+                    log.debug("Failed to look up the expiration time of {}", address, error);
+                } else {
+                    put(address, new Resolved(toMillis(expiration), System.currentTimeMillis()));
+                }
+                pending.remove(address);
+            });
+        } catch (RuntimeException e) {
+            pending.remove(address);
+            log.debug("Failed to start the lookup of the expiration time of {}", address, e);
+        }
+    }
+
+    void put(String address, Resolved r) {
+        if (resolved.size() >= maxSize && !resolved.containsKey(address)) {
+            Iterator<String> it = resolved.keySet().iterator();
+            if (it.hasNext()) {
+                resolved.remove(it.next());
+            }
+        }
+        resolved.put(address, r);
+    }
+
+    /**
+     * Get the number of resolved addresses
+     *
+     * @return The number of addresses
+     */
+    public int size() {
+        return resolved.size();
+    }
+
+    private static long toMillis(BigInteger seconds) {
+        if (seconds.bitLength() > 53) {
+            return Long.MAX_VALUE;
+        }
+        return seconds.longValue() * 1000;
+    }
+
+    static class Resolved {
+        final long expiresAtMs;
+        final long resolvedAtMs;
+
+        Resolved(long expiresAtMs, long resolvedAtMs) {
+            this.expiresAtMs = expiresAtMs;
+            this.resolvedAtMs = resolvedAtMs;
+        }
+    }
+}
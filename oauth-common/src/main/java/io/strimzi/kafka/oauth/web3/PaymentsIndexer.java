@@ -0,0 +1,282 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import io.strimzi.kafka.oauth.validator.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.abi.EventEncoder;
+import org.web3j.abi.FunctionReturnDecoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Event;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterNumber;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A background job that keeps an {@link ExpirationIndex} up to date by following the <code>Payments(user, amount)</code>
+ * events emitted by the Whispeer contract.
+ * <p>
+ * The job periodically polls <code>eth_getLogs</code> from the block after the last indexed one up to the current head
+ * less <code>confirmations</code> blocks, in ranges of at most <code>maxBlockRange</code> blocks. For every user that paid
+ * within a range, the new expiration time is read from the contract with one targeted lookup, and the index is updated.
+ * The last indexed block only moves forward once all the lookups for a range have succeeded, so a failed poll is simply retried.
+ * </p>
+ * <p>
+ * Every poll also scans the last <code>rescanBlocks</code> indexed blocks again, so that the events missed because of a
+ * reorganisation, or because the request was served by a provider lagging behind the head, are picked up by a later poll.
+ * Since the expiration times in the index only move forward, indexing a block twice is harmless.
+ * </p>
+ * <p>
+ * If a start block, which should be the deployment block of the contract, is configured, the index is marked complete
+ * once it has caught up with the head of the chain. Otherwise the indexing starts at the current head, and the index
+ * only serves the addresses that paid since.
+ * </p>
+ * <p>
+ * There is one indexer per contract address, shared by all the components of the broker, obtained through
+ * {@link #forContract(Web3RpcClient, ExpirationLookup, String, long, int, int, int, int)}. The shared indexer is reference counted:
+ * every call to <code>forContract</code> has to be paired with a call to {@link #close()}, and the last one stops the indexer.
+ * The shared indexer holds its own references to the client, the lookup and the index.
+ * </p>
+ * <p>
+ * If the index was restored from an {@link ExpirationSnapshot}, indexing resumes after the last indexed block recorded
+ * in the snapshot, unless the snapshot does not cover the configured start block, in which case the index is rebuilt from it.
+ * </p>
+ */
+public class PaymentsIndexer {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentsIndexer.class);
+
+    /**
+     * Same as <code>Whispeer.PAYMENTS_EVENT</code> of the generated contract wrapper
+     */
+    static final Event PAYMENTS_EVENT = new Event("Payments",
+            Arrays.<TypeReference<?>>asList(new TypeReference<Address>() { }, new TypeReference<Uint256>() { }));
+
+    private static final String PAYMENTS_TOPIC = EventEncoder.encode(PAYMENTS_EVENT);
+
+    // guarded by itself
+    private static final Map<String, PaymentsIndexer> INDEXERS = new HashMap<>();
+
+    private final Web3RpcClient rpcClient;
+    private final ExpirationLookup lookup;
+    private final String whispeerAdress;
+    private final long startBlock;
+    private final int maxBlockRange;
+    private final int confirmations;
+    private final int rescanBlocks;
+    private final ExpirationIndex index;
+
+    private ScheduledExecutorService executor;
+
+    // The key of the shared indexer, which owns its references to the client, the lookup and the index, or null
+    private String key;
+    // guarded by INDEXERS
+    private int refs = 1;
+
+    /**
+     * Create a new instance
+     *
+     * @param rpcClient The shared JSON-RPC client of the Ethereum provider
+     * @param lookup The lookup used to read the new expiration time of a user after a payment
+     * @param whispeerAdress The address of the Whispeer contract
+     * @param startBlock The block to start indexing from, or -1 to start from the current head
+     * @param maxBlockRange The maximum number of blocks queried with one <code>eth_getLogs</code>
+     * @param confirmations The number of blocks below the head that are not indexed yet
+     * @param rescanBlocks The number of indexed blocks that are scanned again by every poll
+     * @param index The index to update
+     */
+    public PaymentsIndexer(Web3RpcClient rpcClient, ExpirationLookup lookup, String whispeerAdress, long startBlock, int maxBlockRange,
+                           int confirmations, int rescanBlocks, ExpirationIndex index) {
+        if (maxBlockRange <= 0) {
+            throw new IllegalArgumentException("'maxBlockRange' has to be > 0");
+        }
+        if (confirmations < 0 || rescanBlocks < 0) {
+            throw new IllegalArgumentException("'confirmations' and 'rescanBlocks' have to be >= 0");
+        }
+        this.rpcClient = rpcClient;
+        this.lookup = lookup;
+        this.whispeerAdress = whispeerAdress;
+        this.startBlock = startBlock;
+        this.maxBlockRange = maxBlockRange;
+        this.confirmations = confirmations;
+        this.rescanBlocks = rescanBlocks;
+        this.index = index;
+    }
+
+    /**
+     * Get the shared, running indexer for the contract, creating and starting it on first use
+     *
+     * @param rpcClient The shared JSON-RPC client of the Ethereum provider
+     * @param lookup The lookup used to read the new expiration time of a user after a payment
+     * @param whispeerAdress The address of the Whispeer contract
+     * @param startBlock The block to start indexing from, or -1 to start from the current head
+     * @param maxBlockRange The maximum number of blocks queried with one <code>eth_getLogs</code>
+     * @param confirmations The number of blocks below the head that are not indexed yet
+     * @param rescanBlocks The number of indexed blocks that are scanned again by every poll
+     * @param pollIntervalSeconds How often to poll for new events
+     * @return The shared indexer
+     */
+    @SuppressWarnings("checkstyle:ParameterNumber")
+    public static PaymentsIndexer forContract(Web3RpcClient rpcClient, ExpirationLookup lookup, String whispeerAdress,
+                                              long startBlock, int maxBlockRange, int confirmations, int rescanBlocks,
+                                              int pollIntervalSeconds) {
+        String key = ExpirationIndex.normalize(whispeerAdress);
+        synchronized (INDEXERS) {
+            PaymentsIndexer indexer = INDEXERS.get(key);
+            if (indexer != null) {
+                indexer.refs++;
+                return indexer;
+            }
+            indexer = new PaymentsIndexer(rpcClient.retain(), lookup.retain(), whispeerAdress, startBlock, maxBlockRange,
+                    confirmations, rescanBlocks, ExpirationIndex.forContract(whispeerAdress));
+            indexer.key = key;
+            INDEXERS.put(key, indexer);
+            indexer.start(pollIntervalSeconds);
+            return indexer;
+        }
+    }
+
+    /**
+     * Get the index maintained by this indexer
+     *
+     * @return The index
+     */
+    public ExpirationIndex index() {
+        return index;
+    }
+
+    /**
+     * Start polling for new events in the background
+     *
+     * @param pollIntervalSeconds How often to poll for new events
+     */
+    public synchronized void start(int pollIntervalSeconds) {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                poll();
+            } catch (Throwable t) {
+                log.warn("Failed to index Payments events of {} (last indexed block: {})", whispeerAdress, index.lastIndexedBlock(), t);
+            }
+        }, 0, pollIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Index all the events from the trailing window of indexed blocks up to the confirmed head of the chain
+     *
+     * @throws IOException If a request failed
+     */
+    public void poll() throws IOException {
+        Web3j web3j = rpcClient.web3j();
+        long head = web3j.ethBlockNumber().send().getBlockNumber().longValue() - confirmations;
+        if (head < 0) {
+            return;
+        }
+
+        long from;
+        boolean gap = startBlock >= 0 && (index.firstIndexedBlock() < 0 || index.firstIndexedBlock() > startBlock);
+        if (index.lastIndexedBlock() < 0 || gap) {
+            from = startBlock >= 0 ? startBlock : head;
+            index.firstIndexedBlock(from);
+            index.lastIndexedBlock(from - 1);
+        } else {
+            from = Math.max(index.firstIndexedBlock(), index.lastIndexedBlock() + 1 - rescanBlocks);
+        }
+
+        while (from <= head) {
+            long to = Math.min(head, from + maxBlockRange - 1);
+            indexRange(web3j, from, to);
+            if (to > index.lastIndexedBlock()) {
+                index.lastIndexedBlock(to);
+            }
+            from = to + 1;
+        }
+
+        if (startBlock >= 0 && !index.isComplete()) {
+            log.info("Indexed Payments events of {} up to block {} ({} addresses)", whispeerAdress, index.lastIndexedBlock(), index.size());
+            index.markComplete();
+        }
+    }
+
+    private void indexRange(Web3j web3j, long from, long to) throws IOException {
+        EthFilter filter = new EthFilter(new DefaultBlockParameterNumber(from), new DefaultBlockParameterNumber(to), whispeerAdress);
+        filter.addSingleTopic(PAYMENTS_TOPIC);
+
+        EthLog response = web3j.ethGetLogs(filter).send();
+        if (response.hasError()) {
+            throw new IOException("eth_getLogs failed: " + response.getError().getMessage());
+        }
+
+        Set<String> users = new LinkedHashSet<>();
+        for (EthLog.LogResult<?> result: response.getLogs()) {
+            if (result instanceof EthLog.LogObject) {
+                String user = paymentUser(((EthLog.LogObject) result).get());
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+        }
+        if (users.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<String, BigInteger> e: lookup.lookupAll(users).entrySet()) {
+            index.update(e.getKey(), e.getValue().longValue());
+        }
+        log.debug("Indexed payments of {} users in blocks {} - {}", users.size(), from, to);
+    }
+
+    static String paymentUser(Log paymentLog) {
+        List<Type> values = FunctionReturnDecoder.decode(paymentLog.getData(), PAYMENTS_EVENT.getNonIndexedParameters());
+        return values.isEmpty() ? null : ((Address) values.get(0)).getValue();
+    }
+
+    /**
+     * Release this reference to the indexer. Once the indexer is no longer used, polling stops,
+     * and a shared indexer releases the client, the lookup and the index.
+     */
+    public void close() {
+        synchronized (INDEXERS) {
+            if (refs <= 0 || --refs > 0) {
+                return;
+            }
+            if (key != null) {
+                INDEXERS.remove(key, this);
+            }
+        }
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+        }
+        if (key != null) {
+            index.close();
+            lookup.close();
+            rpcClient.close();
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import io.strimzi.kafka.oauth.validator.DaemonThreadFactory;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A long-lived, broker-wide Ethereum JSON-RPC client for a provider url, or a comma separated list of equivalent provider urls.
+ * <p>
+ * All lookups against the same provider share one {@link Web3j} instance backed by one {@link OkHttpClient},
+ * so that connections are kept alive and reused across lookups, instead of paying for a new TLS handshake and
+ * a new thread pool on every lookup.
+ * </p>
+ * <p>
+ * The provider is probed periodically in the background with <code>eth_blockNumber</code>. The result is exposed through
+ * {@link #isHealthy()}, which replaces the per-request probe of {@link io.strimzi.kafka.oauth.common.WEB3#checkProvider(String)}.
+ * A single failed probe or call does not make the provider unhealthy: only as many consecutive failed probes and calls,
+ * the latter reported through {@link #recordFailure()}, as the circuit failure threshold mark it unhealthy, until the
+ * next successful probe or call reported through {@link #recordSuccess()}.
+ * </p>
+ * <p>
+ * If multiple provider urls are configured, requests are routed through a {@link FailoverWeb3jService}, which fails
+ * over between them and hedges slow requests. The provider is then healthy as long as any of the urls responds.
+ * </p>
+ * <p>
+ * If a head poll interval is configured, contract reads are served through a {@link BlockPinnedCallCache}, so that
+ * identical reads within one block cost one call to the provider.
+ * </p>
+ * <p>
+ * Instances are obtained through {@link #forProvider(String, int, int, int, int, int, int, int, long)}, which returns the same instance
+ * for the same provider url and settings, so that the validator callback handlers of multiple listeners and the authorizer share it.
+ * The shared instances are reference counted: every call to <code>forProvider</code> has to be paired with a call to {@link #close()},
+ * and the connections and threads are only released by the last one.
+ * </p>
+ */
+public class Web3RpcClient {
+
+    private static final Logger log = LoggerFactory.getLogger(Web3RpcClient.class);
+
+    // guarded by itself
+    private static final Map<String, Web3RpcClient> CLIENTS = new HashMap<>();
+
+    private final String key;
+    private final String provider;
+    private final OkHttpClient httpClient;
+    private final FailoverWeb3jService service;
+    private final BlockPinnedCallCache callCache;
+    private final Web3j web3j;
+    private final ScheduledExecutorService healthCheckExecutor;
+    private final int failureThreshold;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    // The number of users of the instance, guarded by CLIENTS
+    private int refs = 1;
+
+    private volatile boolean healthy = true;
+    private volatile long lastBlockNumber = -1;
+
+    Web3RpcClient(String provider, int maxConnections, int connectTimeoutSeconds, int readTimeoutSeconds, int healthCheckIntervalSeconds,
+                  int hedgePercentile, int circuitFailureThreshold, int circuitOpenSeconds, long callCacheHeadPollIntervalMs) {
+        this.provider = Objects.requireNonNull(provider, "provider == null");
+        this.key = key(provider, maxConnections, connectTimeoutSeconds, readTimeoutSeconds, healthCheckIntervalSeconds,
+                hedgePercentile, circuitFailureThreshold, circuitOpenSeconds, callCacheHeadPollIntervalMs);
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("'maxConnections' has to be > 0");
+        }
+        this.failureThreshold = Math.max(1, circuitFailureThreshold);
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxConnections);
+        dispatcher.setMaxRequestsPerHost(maxConnections);
+
+        httpClient = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxConnections, 5, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .connectTimeout(connectTimeoutSeconds, TimeUnit.SECONDS)
+                .readTimeout(readTimeoutSeconds, TimeUnit.SECONDS)
+                .writeTimeout(readTimeoutSeconds, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+
+        service = new FailoverWeb3jService(FailoverWeb3jService.parseUrls(provider), httpClient,
+                hedgePercentile, circuitFailureThreshold, TimeUnit.SECONDS.toMillis(circuitOpenSeconds));
+        callCache = callCacheHeadPollIntervalMs > 0 ? new BlockPinnedCallCache(service, callCacheHeadPollIntervalMs) : null;
+        web3j = Web3j.build(callCache != null ? callCache : service);
+
+        if (healthCheckIntervalSeconds > 0) {
+            healthCheckExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+            healthCheckExecutor.scheduleWithFixedDelay(this::checkHealth, 0, healthCheckIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            healthCheckExecutor = null;
+        }
+    }
+
+    /**
+     * Get the shared client for the provider, creating it on first use.
+     * The client has to be released with {@link #close()}.
+     *
+     * @param provider The JSON-RPC provider url, or a comma separated list of urls
+     * @param maxConnections The maximum number of concurrent requests and pooled idle connections
+     * @param connectTimeoutSeconds The connect timeout in seconds
+     * @param readTimeoutSeconds The read timeout in seconds
+     * @param healthCheckIntervalSeconds The period of the background health check in seconds, or 0 to disable it
+     * @return The shared client
+     */
+    public static Web3RpcClient forProvider(String provider, int maxConnections, int connectTimeoutSeconds, int readTimeoutSeconds, int healthCheckIntervalSeconds) {
+        return forProvider(provider, maxConnections, connectTimeoutSeconds, readTimeoutSeconds, healthCheckIntervalSeconds, 95, 3, 30, 0);
+    }
+
+    /**
+     * Get the shared client for the provider and settings, creating it on first use.
+     * The client has to be released with {@link #close()}.
+     *
+     * @param provider The JSON-RPC provider url, or a comma separated list of urls
+     * @param maxConnections The maximum number of concurrent requests and pooled idle connections
+     * @param connectTimeoutSeconds The connect timeout in seconds
+     * @param readTimeoutSeconds The read timeout in seconds
+     * @param healthCheckIntervalSeconds The period of the background health check in seconds, or 0 to disable it
+     * @param hedgePercentile The latency percentile of a url after which a request is also sent to the next url, or 0 to disable hedging
+     * @param circuitFailureThreshold The number of consecutive failures after which a url is skipped
+     * @param circuitOpenSeconds How long a failing url is skipped in seconds
+     * @param callCacheHeadPollIntervalMs The period of the head block poll of the contract read cache in millis, or 0 to disable the cache
+     * @return The shared client
+     */
+    public static Web3RpcClient forProvider(String provider, int maxConnections, int connectTimeoutSeconds, int readTimeoutSeconds, int healthCheckIntervalSeconds,
+                                            int hedgePercentile, int circuitFailureThreshold, int circuitOpenSeconds, long callCacheHeadPollIntervalMs) {
+        String key = key(provider, maxConnections, connectTimeoutSeconds, readTimeoutSeconds, healthCheckIntervalSeconds,
+                hedgePercentile, circuitFailureThreshold, circuitOpenSeconds, callCacheHeadPollIntervalMs);
+        synchronized (CLIENTS) {
+            Web3RpcClient client = CLIENTS.get(key);
+            if (client != null) {
+                client.refs++;
+                return client;
+            }
+            client = new Web3RpcClient(provider, maxConnections, connectTimeoutSeconds, readTimeoutSeconds, healthCheckIntervalSeconds,
+                    hedgePercentile, circuitFailureThreshold, circuitOpenSeconds, callCacheHeadPollIntervalMs);
+            CLIENTS.put(key, client);
+            return client;
+        }
+    }
+
+    /**
+     * Add a reference to the client, which has to be released with {@link #close()}
+     *
+     * @return This client
+     */
+    Web3RpcClient retain() {
+        synchronized (CLIENTS) {
+            if (refs <= 0) {
+                throw new IllegalStateException("Web3RpcClient is closed: " + provider);
+            }
+            refs++;
+        }
+        return this;
+    }
+
+    String key() {
+        return key;
+    }
+
+    private static String key(String provider, int maxConnections, int connectTimeoutSeconds, int readTimeoutSeconds, int healthCheckIntervalSeconds,
+                              int hedgePercentile, int circuitFailureThreshold, int circuitOpenSeconds, long callCacheHeadPollIntervalMs) {
+        return provider + "|" + maxConnections + "|" + connectTimeoutSeconds + "|" + readTimeoutSeconds + "|" + healthCheckIntervalSeconds
+                + "|" + hedgePercentile + "|" + circuitFailureThreshold + "|" + circuitOpenSeconds + "|" + callCacheHeadPollIntervalMs;
+    }
+
+    /**
+     * Get the Web3j instance backed by the pooled HTTP client
+     *
+     * @return The Web3j instance
+     */
+    public Web3j web3j() {
+        return web3j;
+    }
+
+    /**
+     * Get the service that routes the requests over the provider urls
+     *
+     * @return The service
+     */
+    public FailoverWeb3jService service() {
+        return service;
+    }
+
+    /**
+     * Get the cache of contract reads
+     *
+     * @return The cache, or null if disabled
+     */
+    public BlockPinnedCallCache callCache() {
+        return callCache;
+    }
+
+    /**
+     * Get the underlying pooled HTTP client
+     *
+     * @return The OkHttpClient instance
+     */
+    public OkHttpClient httpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Get the provider url
+     *
+     * @return The provider url
+     */
+    public String provider() {
+        return provider;
+    }
+
+    /**
+     * Check if the last health check of the provider was successful
+     *
+     * @return true if the provider is considered healthy
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Get the block number returned by the last successful health check
+     *
+     * @return The block number or -1 if not known yet
+     */
+    public long lastBlockNumber() {
+        return lastBlockNumber;
+    }
+
+    /**
+     * Report a failed call. The provider is marked unhealthy once the number of consecutive failed calls and probes reaches
+     * the circuit failure threshold, and is considered healthy again after the next successful health check or call.
+     */
+    public void recordFailure() {
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold && healthCheckExecutor != null) {
+            if (healthy) {
+                log.warn("Web3 provider marked unhealthy after {} consecutive failures: {}", failureThreshold, provider);
+            }
+            healthy = false;
+        }
+    }
+
+    /**
+     * Report a successful call, which resets the count of consecutive failed calls
+     */
+    public void recordSuccess() {
+        consecutiveFailures.set(0);
+        if (!healthy) {
+            log.info("Web3 provider is healthy again: {}", provider);
+            healthy = true;
+        }
+    }
+
+    private void checkHealth() {
+        try {
+            lastBlockNumber = web3j.ethBlockNumber().send().getBlockNumber().longValue();
+            recordSuccess();
+        } catch (Throwable t) {
+            if (healthy) {
+                log.warn("Web3 provider health check failed: {}", provider, t);
+            }
+            recordFailure();
+        }
+    }
+
+    /**
+     * Release this reference to the client. The connections and threads held by the client are released
+     * once it is no longer used, or immediately if the client is not shared.
+     */
+    public void close() {
+        synchronized (CLIENTS) {
+            if (refs <= 0 || --refs > 0) {
+                return;
+            }
+            CLIENTS.remove(key, this);
+        }
+        if (healthCheckExecutor != null) {
+            healthCheckExecutor.shutdownNow();
+        }
+        web3j.shutdown();
+        httpClient.dispatcher().executorService().shutdown();
+        httpClient.connectionPool().evictAll();
+    }
+
+    @Override
+    public String toString() {
+        return "Web3RpcClient {provider: " + provider + ", healthy: " + healthy + "}";
+    }
+}
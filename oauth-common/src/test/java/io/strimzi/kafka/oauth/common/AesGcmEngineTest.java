@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+
+public class AesGcmEngineTest {
+
+    private final SharedKeyCache.SharedKey key = new SharedKeyCache.SharedKey(new SecretKeySpec(new byte[32], "AES"), Long.MAX_VALUE);
+
+    @Test
+    public void testDirectBuffers() throws Exception {
+        byte[] message = "Hello Bob".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer plain = ByteBuffer.allocateDirect(message.length);
+        plain.put(message).flip();
+
+        ByteBuffer envelope = ByteBuffer.allocateDirect(AesGcmEngine.sealedSize(message.length));
+        Assert.assertEquals(envelope.capacity(), AesGcmEngine.seal(key, plain, envelope));
+        Assert.assertFalse(plain.hasRemaining());
+        Assert.assertFalse(envelope.hasRemaining());
+
+        // the envelope is the one of the byte array methods
+        envelope.flip();
+        byte[] bytes = new byte[envelope.remaining()];
+        envelope.duplicate().get(bytes);
+        Assert.assertArrayEquals(message, EncryptedEnvelope.open(key, bytes));
+
+        ByteBuffer opened = ByteBuffer.allocateDirect(message.length);
+        Assert.assertEquals(message.length, AesGcmEngine.open(key, envelope, opened));
+        opened.flip();
+        byte[] result = new byte[opened.remaining()];
+        opened.get(result);
+        Assert.assertArrayEquals(message, result);
+    }
+
+    @Test
+    public void testInPlace() throws Exception {
+        byte[] message = "Hello in place".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(AesGcmEngine.sealedSize(message.length));
+        buffer.position(EncryptedEnvelope.HEADER_SIZE);
+        buffer.put(message);
+
+        ByteBuffer plain = buffer.duplicate();
+        plain.position(EncryptedEnvelope.HEADER_SIZE).limit(EncryptedEnvelope.HEADER_SIZE + message.length);
+        buffer.clear();
+        AesGcmEngine.seal(key, plain, buffer);
+
+        buffer.flip();
+        ByteBuffer opened = buffer.duplicate();
+        opened.clear();
+        Assert.assertEquals(message.length, AesGcmEngine.open(key, buffer, opened));
+        Assert.assertArrayEquals(message, Arrays.copyOf(opened.array(), message.length));
+    }
+
+    @Test
+    public void testFreshKeyNonces() {
+        SharedKeyCache.SharedKey fresh = new SharedKeyCache.SharedKey(new SecretKeySpec(new byte[32], "AES"), Long.MAX_VALUE, true);
+        byte[] firstNonce = nonce(EncryptedEnvelope.seal(fresh, new byte[0]));
+        byte[] secondNonce = nonce(EncryptedEnvelope.seal(fresh, new byte[0]));
+
+        // the counter of the key
+        Assert.assertEquals(0, ByteBuffer.wrap(firstNonce, 4, 8).getLong());
+        Assert.assertEquals(1, ByteBuffer.wrap(secondNonce, 4, 8).getLong());
+    }
+
+    @Test
+    public void testSharedKeyNoncesDoNotCollide() {
+        // two instances sealing under the same key, e.g. two producers deriving the same ECDH key after a restart
+        SharedKeyCache.SharedKey first = new SharedKeyCache.SharedKey(new SecretKeySpec(new byte[32], "AES"), Long.MAX_VALUE);
+        SharedKeyCache.SharedKey second = new SharedKeyCache.SharedKey(new SecretKeySpec(new byte[32], "AES"), Long.MAX_VALUE);
+
+        Set<String> nonces = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertTrue("Nonce repeated", nonces.add(Base64.getEncoder().encodeToString(nonce(EncryptedEnvelope.seal(first, new byte[0])))));
+            Assert.assertTrue("Nonce repeated", nonces.add(Base64.getEncoder().encodeToString(nonce(EncryptedEnvelope.seal(second, new byte[0])))));
+        }
+    }
+
+    private static byte[] nonce(byte[] envelope) {
+        return Arrays.copyOfRange(envelope, EncryptedEnvelope.AAD_SIZE, EncryptedEnvelope.HEADER_SIZE);
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        try {
+            AesGcmEngine.seal(key, ByteBuffer.allocate(10), ByteBuffer.allocate(AesGcmEngine.sealedSize(10) - 1));
+            Assert.fail("Should have failed");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        byte[] envelope = EncryptedEnvelope.seal(key, new byte[10]);
+        envelope[EncryptedEnvelope.HEADER_SIZE] ^= 1;
+        try {
+            AesGcmEngine.open(key, ByteBuffer.wrap(envelope), ByteBuffer.allocate(10));
+            Assert.fail("Should have failed");
+        } catch (GeneralSecurityException expected) {
+        }
+        // the cipher of the thread is still usable
+        Assert.assertArrayEquals(new byte[10], EncryptedEnvelope.open(key, EncryptedEnvelope.seal(key, new byte[10])));
+    }
+}
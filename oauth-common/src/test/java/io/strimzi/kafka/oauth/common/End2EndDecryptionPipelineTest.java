@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import com.nimbusds.jose.jwk.ECKey;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class End2EndDecryptionPipelineTest {
+
+    @Test
+    public void testOrder() {
+        ECKey alice = new WEB3().nimbusdsJWK;
+        ECKey bob = new WEB3().nimbusdsJWK;
+        End2EndSession sender = new End2EndSession(new End2EndEncryption(alice, bob.toPublicJWK()), 4, 3600000, 4);
+
+        // the records of the sender, with several sessions, on one partition, and a tombstone and a tampered record
+        List<ConsumerRecord<String, byte[]>> partition = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] value = i == 7 ? null : sender.seal(("Message " + i).getBytes(StandardCharsets.UTF_8));
+            if (i == 13) {
+                value[value.length - 1] ^= 1;
+            }
+            partition.add(new ConsumerRecord<>("topic", 0, 100 + i, "alice", value));
+        }
+        Map<TopicPartition, List<ConsumerRecord<String, byte[]>>> batch = new HashMap<>();
+        batch.put(new TopicPartition("topic", 0), partition);
+
+        try (End2EndDecryptionPipeline pipeline = new End2EndDecryptionPipeline(new End2EndSession(new End2EndEncryption(alice.toPublicJWK(), bob)), 4)) {
+            List<End2EndDecryptionPipeline.Decrypted<String>> results = pipeline.decrypt(new ConsumerRecords<>(batch));
+            Assert.assertEquals(20, results.size());
+
+            for (int i = 0; i < 20; i++) {
+                End2EndDecryptionPipeline.Decrypted<String> result = results.get(i);
+                Assert.assertEquals(100 + i, result.record().offset());
+                if (i == 7) {
+                    Assert.assertTrue(result.isValid());
+                    Assert.assertNull(result.value());
+                } else if (i == 13) {
+                    Assert.assertFalse(result.isValid());
+                    Assert.assertFalse(result.isUnknownSession());
+                    Assert.assertNotNull(result.error());
+                } else {
+                    Assert.assertTrue("Record " + i, result.isValid());
+                    Assert.assertEquals("Message " + i, new String(result.value(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUnknownSession() {
+        ECKey alice = new WEB3().nimbusdsJWK;
+        ECKey bob = new WEB3().nimbusdsJWK;
+        End2EndSession sender = new End2EndSession(new End2EndEncryption(alice, bob.toPublicJWK()), 100, 3600000, 5);
+
+        // the consumer starts reading within the session, the key-establishment record of the session is repeated at offset 5
+        List<ConsumerRecord<String, byte[]>> partition = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            byte[] value = sender.seal(("Message " + i).getBytes(StandardCharsets.UTF_8));
+            if (i >= 2) {
+                partition.add(new ConsumerRecord<>("topic", 0, i, "alice", value));
+            }
+        }
+
+        try (End2EndDecryptionPipeline pipeline = new End2EndDecryptionPipeline(new End2EndSession(new End2EndEncryption(alice.toPublicJWK(), bob)), 2)) {
+            List<End2EndDecryptionPipeline.Decrypted<String>> results =
+                    pipeline.decrypt(new ConsumerRecords<>(Collections.singletonMap(new TopicPartition("topic", 0), partition.subList(0, 2))));
+            for (End2EndDecryptionPipeline.Decrypted<String> result : results) {
+                Assert.assertTrue("Record " + result.record().offset(), result.isUnknownSession());
+            }
+
+            // read again, with the key-establishment record in the batch
+            results = pipeline.decrypt(new ConsumerRecords<>(Collections.singletonMap(new TopicPartition("topic", 0), partition)));
+            for (End2EndDecryptionPipeline.Decrypted<String> result : results) {
+                Assert.assertTrue("Record " + result.record().offset(), result.isValid());
+                Assert.assertEquals("Message " + result.record().offset(), new String(result.value(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
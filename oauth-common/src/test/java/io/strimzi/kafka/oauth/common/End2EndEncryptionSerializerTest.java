@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import com.nimbusds.jose.jwk.ECKey;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class End2EndEncryptionSerializerTest {
+
+    @Test
+    public void testRoundTrip() {
+        ECKey alice = new WEB3().nimbusdsJWK;
+        ECKey bob = new WEB3().nimbusdsJWK;
+        End2EndEncryptionSerializer serializer = new End2EndEncryptionSerializer(new End2EndEncryption(alice, bob.toPublicJWK()));
+        End2EndEncryptionDeserializer deserializer = new End2EndEncryptionDeserializer(new End2EndEncryption(alice.toPublicJWK(), bob));
+
+        byte[] message = "b6a1b8d4-3f0e-4f3c-9d65-2f0c6c1f4a11".getBytes(StandardCharsets.UTF_8);
+        // the first record of the session establishes the session key
+        byte[] first = serializer.serialize("topic", message);
+        Assert.assertEquals(End2EndSession.HANDSHAKE_SIZE + EncryptedEnvelope.HEADER_SIZE + message.length + EncryptedEnvelope.TAG_SIZE, first.length);
+        Assert.assertEquals(End2EndSession.HANDSHAKE, first[0]);
+        Assert.assertArrayEquals(message, deserializer.deserialize("topic", first));
+
+        // the next records of the session are only sealed under the session key
+        byte[] envelope = serializer.serialize("topic", message);
+        Assert.assertEquals(EncryptedEnvelope.HEADER_SIZE + message.length + EncryptedEnvelope.TAG_SIZE, envelope.length);
+        Assert.assertEquals(EncryptedEnvelope.VERSION, envelope[0]);
+        Assert.assertArrayEquals(message, deserializer.deserialize("topic", envelope));
+
+        // every message has its own nonce
+        Assert.assertFalse(Arrays.equals(envelope, serializer.serialize("topic", message)));
+        Assert.assertArrayEquals(new byte[0], deserializer.deserialize("topic", serializer.serialize("topic", new byte[0])));
+        Assert.assertNull(serializer.serialize("topic", null));
+        Assert.assertNull(deserializer.deserialize("topic", null));
+
+        // with an interval of 1, every record of the session carries the session key
+        serializer = new End2EndEncryptionSerializer(new End2EndSession(new End2EndEncryption(alice, bob.toPublicJWK()),
+                End2EndSession.DEFAULT_MAX_RECORDS, End2EndSession.DEFAULT_MAX_AGE_MS, 1));
+        serializer.serialize("topic", message);
+        byte[] second = serializer.serialize("topic", message);
+        Assert.assertEquals(first.length, second.length);
+        Assert.assertEquals(End2EndSession.HANDSHAKE, second[0]);
+        Assert.assertArrayEquals(message, deserializer.deserialize("topic", second));
+    }
+
+    @Test
+    public void testRejected() {
+        ECKey alice = new WEB3().nimbusdsJWK;
+        ECKey bob = new WEB3().nimbusdsJWK;
+        ECKey eve = new WEB3().nimbusdsJWK;
+        End2EndEncryptionSerializer serializer = new End2EndEncryptionSerializer(new End2EndSession(new End2EndEncryption(alice, bob.toPublicJWK()),
+                End2EndSession.DEFAULT_MAX_RECORDS, End2EndSession.DEFAULT_MAX_AGE_MS, 1000));
+        End2EndEncryptionDeserializer deserializer = new End2EndEncryptionDeserializer(new End2EndEncryption(alice.toPublicJWK(), bob));
+        byte[] handshake = serializer.serialize("topic", "Hello".getBytes(StandardCharsets.UTF_8));
+        byte[] envelope = serializer.serialize("topic", "Hello".getBytes(StandardCharsets.UTF_8));
+
+        byte[] tampered = handshake.clone();
+        tampered[tampered.length - 1] ^= 1;
+        assertRejected(deserializer, tampered);
+        deserializer.deserialize("topic", handshake);
+
+        tampered = envelope.clone();
+        tampered[tampered.length - 1] ^= 1;
+        assertRejected(deserializer, tampered);
+
+        byte[] otherVersion = envelope.clone();
+        otherVersion[0] = 3;
+        assertRejected(deserializer, otherVersion);
+
+        assertRejected(deserializer, new byte[EncryptedEnvelope.HEADER_SIZE]);
+        assertRejected(new End2EndEncryptionDeserializer(new End2EndEncryption(alice.toPublicJWK(), eve)), handshake);
+    }
+
+    @Test
+    public void testConfigure() {
+        ECKey alice = new WEB3().nimbusdsJWK;
+        ECKey bob = new WEB3().nimbusdsJWK;
+
+        Map<String, Object> producerConfigs = new HashMap<>();
+        producerConfigs.put(End2EndEncryptionSerializer.E2EE_LOCAL_JWK, alice.toJSONString());
+        producerConfigs.put(End2EndEncryptionSerializer.E2EE_PEER_JWK, bob.toPublicJWK());
+        End2EndEncryptionSerializer serializer = new End2EndEncryptionSerializer();
+        serializer.configure(producerConfigs, false);
+
+        Map<String, Object> consumerConfigs = new HashMap<>();
+        consumerConfigs.put(End2EndEncryptionSerializer.E2EE_LOCAL_JWK, bob.toJSONString());
+        consumerConfigs.put(End2EndEncryptionSerializer.E2EE_PEER_JWK, alice.toPublicJWK().toJSONString());
+        End2EndEncryptionDeserializer deserializer = new End2EndEncryptionDeserializer();
+        deserializer.configure(consumerConfigs, false);
+
+        byte[] message = "Hello".getBytes(StandardCharsets.UTF_8);
+        Assert.assertArrayEquals(message, deserializer.deserialize("topic", serializer.serialize("topic", message)));
+
+        try {
+            new End2EndEncryptionSerializer().configure(new HashMap<>(), false);
+            Assert.fail("Should have failed");
+        } catch (ConfigException expected) {
+        }
+    }
+
+    private static void assertRejected(End2EndEncryptionDeserializer deserializer, byte[] envelope) {
+        try {
+            deserializer.deserialize("topic", envelope);
+            Assert.fail("Should have failed");
+        } catch (SerializationException expected) {
+        }
+    }
+}
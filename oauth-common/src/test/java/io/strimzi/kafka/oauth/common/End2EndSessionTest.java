@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import com.nimbusds.jose.jwk.ECKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+public class End2EndSessionTest {
+
+    private final ECKey alice = new WEB3().nimbusdsJWK;
+    private final ECKey bob = new WEB3().nimbusdsJWK;
+
+    @Test
+    public void testRotationByRecords() throws Exception {
+        End2EndSession sender = new End2EndSession(new End2EndEncryption(alice, bob.toPublicJWK()), 3, 3600000, 3);
+        End2EndSession recipient = new End2EndSession(new End2EndEncryption(alice.toPublicJWK(), bob));
+
+        for (int i = 0; i < 7; i++) {
+            byte[] message = ("Hello " + i).getBytes(StandardCharsets.UTF_8);
+            byte[] record = sender.seal(message);
+            Assert.assertEquals("Record " + i, i % 3 == 0 ? End2EndSession.HANDSHAKE : EncryptedEnvelope.VERSION, record[0]);
+            Assert.assertArrayEquals(message, recipient.open(record));
+        }
+    }
+
+    @Test
+    public void testRotationByAge() throws Exception {
+        End2EndSession sender = new End2EndSession(new End2EndEncryption(alice, bob.toPublicJWK()), 1000, 0);
+        End2EndSession recipient = new End2EndSession(new End2EndEncryption(alice.toPublicJWK(), bob));
+
+        for (int i = 0; i < 3; i++) {
+            byte[] record = sender.seal(new byte[] {(byte) i});
+            Assert.assertEquals(End2EndSession.HANDSHAKE, record[0]);
+            Assert.assertArrayEquals(new byte[] {(byte) i}, recipient.open(record));
+        }
+    }
+
+    @Test
+    public void testUnknownSession() throws Exception {
+        End2EndSession sender = new End2EndSession(new End2EndEncryption(alice, bob.toPublicJWK()),
+                End2EndSession.DEFAULT_MAX_RECORDS, End2EndSession.DEFAULT_MAX_AGE_MS, 1000);
+        sender.seal(new byte[1]);
+        assertRejected(new End2EndSession(new End2EndEncryption(alice.toPublicJWK(), bob)), sender.seal(new byte[1]));
+    }
+
+    @Test
+    public void testRecipientJoinsWithinSession() throws Exception {
+        End2EndSession sender = new End2EndSession(new End2EndEncryption(alice, bob.toPublicJWK()),
+                End2EndSession.DEFAULT_MAX_RECORDS, End2EndSession.DEFAULT_MAX_AGE_MS, 3);
+        End2EndSession recipient = new End2EndSession(new End2EndEncryption(alice.toPublicJWK(), bob));
+
+        for (int i = 0; i < 8; i++) {
+            byte[] message = ("Hello " + i).getBytes(StandardCharsets.UTF_8);
+            byte[] record = sender.seal(message);
+            Assert.assertEquals("Record " + i, i % 3 == 0 ? End2EndSession.HANDSHAKE : EncryptedEnvelope.VERSION, record[0]);
+            // the recipient starts reading at the second record, and joins the session at the next key-establishment record
+            if (i == 1 || i == 2) {
+                assertRejected(recipient, record);
+            } else if (i > 2) {
+                Assert.assertArrayEquals(message, recipient.open(record));
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultHandshakeInterval() throws Exception {
+        End2EndSession sender = new End2EndSession(new End2EndEncryption(alice, bob.toPublicJWK()));
+        End2EndSession recipient = new End2EndSession(new End2EndEncryption(alice.toPublicJWK(), bob));
+        for (int i = 0; i <= End2EndSession.DEFAULT_HANDSHAKE_INTERVAL; i++) {
+            byte[] record = sender.seal(new byte[] {(byte) i});
+            boolean handshake = i % End2EndSession.DEFAULT_HANDSHAKE_INTERVAL == 0;
+            Assert.assertEquals("Record " + i, handshake ? End2EndSession.HANDSHAKE : EncryptedEnvelope.VERSION, record[0]);
+            Assert.assertEquals("Record " + i, (handshake ? End2EndSession.HANDSHAKE_SIZE : 0) + AesGcmEngine.sealedSize(1), record.length);
+            Assert.assertArrayEquals(new byte[] {(byte) i}, recipient.open(record));
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSessionIsEvicted() throws Exception {
+        End2EndSession sender = new End2EndSession(new End2EndEncryption(alice, bob.toPublicJWK()), 2, 3600000, 2);
+        End2EndSession recipient = new End2EndSession(new End2EndEncryption(alice.toPublicJWK(), bob));
+
+        // each session is a key-establishment record followed by one record sealed under the session key only
+        recipient.open(sender.seal(new byte[] {0}));
+        byte[] active = sender.seal(new byte[] {1});
+        byte[] idle = null;
+        for (int i = 0; i < 70; i++) {
+            recipient.open(sender.seal(new byte[] {2}));
+            byte[] record = sender.seal(new byte[] {3});
+            if (idle == null) {
+                idle = record;
+            }
+            Assert.assertArrayEquals(new byte[] {1}, recipient.open(active));
+        }
+        assertRejected(recipient, idle);
+    }
+
+    @Test
+    public void testForgedHandshake() {
+        // Eve knows the public keys, but can not sign as Alice
+        ECKey eve = new WEB3().nimbusdsJWK;
+        byte[] forged = new End2EndSession(new End2EndEncryption(eve, bob.toPublicJWK())).seal(new byte[1]);
+        assertRejected(new End2EndSession(new End2EndEncryption(alice.toPublicJWK(), bob)), forged);
+
+        byte[] record = new End2EndSession(new End2EndEncryption(alice, bob.toPublicJWK())).seal(new byte[1]);
+        record[20] ^= 1;
+        assertRejected(new End2EndSession(new End2EndEncryption(alice.toPublicJWK(), bob)), record);
+    }
+
+    @Test
+    public void testSharedKeyEnvelope() throws Exception {
+        byte[] envelope = new End2EndEncryption(alice, bob.toPublicJWK()).seal(new byte[] {42});
+        Assert.assertArrayEquals(new byte[] {42}, new End2EndSession(new End2EndEncryption(alice.toPublicJWK(), bob)).open(envelope));
+    }
+
+    private static void assertRejected(End2EndSession recipient, byte[] record) {
+        try {
+            recipient.open(record);
+            Assert.fail("Should have failed");
+        } catch (GeneralSecurityException expected) {
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import com.nimbusds.jose.jwk.ECKey;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class SharedKeyCacheTest {
+
+    @Test
+    public void testBothSidesDeriveTheSameKey() {
+        ECKey alice = new WEB3().nimbusdsJWK;
+        ECKey bob = new WEB3().nimbusdsJWK;
+
+        SharedKeyCache.SharedKey aliceKey = SharedKeyCache.get(alice, bob.toPublicJWK(), 60000);
+        SharedKeyCache.SharedKey bobKey = SharedKeyCache.get(bob, alice.toPublicJWK(), 60000);
+
+        Assert.assertArrayEquals(aliceKey.secretKey().getEncoded(), bobKey.secretKey().getEncoded());
+        Assert.assertEquals(32, aliceKey.secretKey().getEncoded().length);
+        Assert.assertSame("The key should be cached", aliceKey, SharedKeyCache.get(alice, bob.toPublicJWK(), 60000));
+
+        ECKey eve = new WEB3().nimbusdsJWK;
+        Assert.assertFalse(Arrays.equals(aliceKey.secretKey().getEncoded(),
+                SharedKeyCache.get(eve, alice.toPublicJWK(), 60000).secretKey().getEncoded()));
+    }
+
+    @Test
+    public void testCacheIsKeyedByPrivateKey() {
+        ECKey alice = new WEB3().nimbusdsJWK;
+        ECKey bob = new WEB3().nimbusdsJWK;
+        ECKey eve = new WEB3().nimbusdsJWK;
+        // the public key of alice with the private key of eve
+        ECKey forged = new ECKey.Builder(alice.toPublicJWK()).d(eve.getD()).build();
+
+        SharedKeyCache.SharedKey aliceKey = SharedKeyCache.get(alice, bob.toPublicJWK(), 60000);
+        SharedKeyCache.SharedKey forgedKey = SharedKeyCache.get(forged, bob.toPublicJWK(), 60000);
+        Assert.assertNotSame(aliceKey, forgedKey);
+        Assert.assertFalse("The key of alice must not be served to another private key",
+                Arrays.equals(aliceKey.secretKey().getEncoded(), forgedKey.secretKey().getEncoded()));
+    }
+
+    @Test
+    public void testExpiry() {
+        ECKey alice = new WEB3().nimbusdsJWK;
+        ECKey bob = new WEB3().nimbusdsJWK;
+
+        SharedKeyCache.SharedKey expired = SharedKeyCache.get(alice, bob, 0);
+        Assert.assertTrue(expired.isExpired(System.currentTimeMillis()));
+        SharedKeyCache.SharedKey key = SharedKeyCache.get(alice, bob, 60000);
+        Assert.assertNotSame("An expired key should be derived again", expired, key);
+        Assert.assertArrayEquals(expired.secretKey().getEncoded(), key.secretKey().getEncoded());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Keys;
+
+import java.math.BigInteger;
+import java.util.Locale;
+
+public class WEB3Test {
+
+    @Test
+    public void testPrivateKeyConstructorsAgree() {
+        WEB3 generated = new WEB3();
+        ECKeyPair expected = ECKeyPair.create(generated.ecPrivateKey.getS());
+
+        Assert.assertEquals(expected.getPublicKey(), generated.publicKey);
+        Assert.assertEquals(Keys.getAddress(expected.getPublicKey()), generated.address);
+
+        WEB3 fromScalar = new WEB3(generated.ecPrivateKey.getS());
+        WEB3 fromJwk = new WEB3(generated.nimbusdsJWK);
+        Assert.assertEquals(generated.address, fromScalar.address);
+        Assert.assertEquals(generated.address, fromJwk.address);
+        Assert.assertEquals(generated.nimbusdsJWK, fromScalar.nimbusdsJWK);
+        Assert.assertEquals(generated.ecPrivateKey.getS(), fromJwk.ecPrivateKey.getS());
+    }
+
+    @Test
+    public void testSmallPrivateKey() {
+        WEB3 web3 = new WEB3(BigInteger.valueOf(12345));
+        ECKeyPair expected = ECKeyPair.create(BigInteger.valueOf(12345));
+
+        Assert.assertEquals(expected.getPublicKey(), web3.publicKey);
+        Assert.assertEquals(Keys.getAddress(expected.getPublicKey()), web3.address);
+    }
+
+    @Test
+    public void testPublicIdentityIsCached() {
+        WEB3 web3 = new WEB3();
+
+        WEB3 pub = WEB3.publicWEB3(web3.publicKey);
+        Assert.assertNull(pub.ecPrivateKey);
+        Assert.assertNull(pub.web3KeyPair);
+        Assert.assertEquals(web3.address, pub.address);
+        Assert.assertEquals(web3.nimbusdsJWK.toPublicJWK(), pub.nimbusdsJWK);
+        Assert.assertEquals(web3.point, pub.point);
+        Assert.assertEquals(Keys.toChecksumAddress(web3.address), pub.checksumAddress());
+        Assert.assertTrue(pub.checksumAddress().toLowerCase(Locale.ROOT).endsWith(pub.address));
+
+        Assert.assertSame(pub, WEB3.publicWEB3(web3.publicKey));
+        Assert.assertSame(pub, WEB3.publicWEB3(web3.nimbusdsJWK.toPublicJWK()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPublicKeyNotOnCurve() {
+        WEB3.publicWEB3(BigInteger.ONE);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.common;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.crypto.Keys;
+
+import java.util.Locale;
+
+public class WalletAddressTest {
+
+    @Test
+    public void testParse() {
+        String hex = "72da2c71d561f2990d8ccecb28fe744fc746a757";
+        WalletAddress address = WalletAddress.parse(hex);
+
+        Assert.assertNotNull(address);
+        Assert.assertEquals(hex, address.toString());
+        Assert.assertEquals(address, WalletAddress.parse(hex.toUpperCase(Locale.ROOT)));
+        Assert.assertEquals(address, WalletAddress.parse(Keys.toChecksumAddress(hex).substring(2)));
+        Assert.assertEquals(address.hashCode(), WalletAddress.parse(hex.toUpperCase(Locale.ROOT)).hashCode());
+        Assert.assertNotEquals(address, WalletAddress.parse("72da2c71d561f2990d8ccecb28fe744fc746a758"));
+        Assert.assertNotEquals(address, WalletAddress.parse("82da2c71d561f2990d8ccecb28fe744fc746a757"));
+
+        Assert.assertNull(WalletAddress.parse("0x72da2c71d561f2990d8ccecb28fe744fc746a7"));
+        Assert.assertNull(WalletAddress.parse("72da2c71d561f2990d8ccecb28fe744fc746a75"));
+        Assert.assertNull(WalletAddress.parse("72da2c71d561f2990d8ccecb28fe744fc746a75g"));
+        Assert.assertNull(WalletAddress.parse(null));
+    }
+
+    @Test
+    public void testTopicCache() {
+        Assert.assertNull(WalletAddress.ofTopic("__consumer_offsets"));
+        Assert.assertNull(WalletAddress.ofTopic("__consumer_offsets"));
+        WalletAddress address = WalletAddress.ofTopic("000000000000000000000000000000000000dead");
+        Assert.assertSame(address, WalletAddress.ofTopic("000000000000000000000000000000000000dead"));
+        Assert.assertEquals("000000000000000000000000000000000000dead", address.toString());
+    }
+
+    @Test
+    public void testWeb3Address() {
+        WEB3 web3 = new WEB3();
+
+        Assert.assertEquals(Keys.getAddress(web3.publicKey), web3.address);
+        Assert.assertEquals(web3.walletAddress, WalletAddress.parse(web3.address));
+        Assert.assertTrue(web3.accessReadTopic(web3.address));
+        Assert.assertTrue(web3.accessReadTopic(web3.checksumAddress().substring(2)));
+        Assert.assertFalse(web3.accessReadTopic("000000000000000000000000000000000000dead"));
+        Assert.assertTrue(web3.isValidAddress("000000000000000000000000000000000000dead"));
+        Assert.assertFalse(web3.isValidAddress("whispeer"));
+    }
+}
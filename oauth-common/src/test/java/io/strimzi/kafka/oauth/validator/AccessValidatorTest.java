@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.strimzi.kafka.oauth.common.JSONUtil;
+import io.strimzi.kafka.oauth.common.WEB3;
+import io.strimzi.kafka.oauth.web3.ExpirationIndex;
+import io.strimzi.kafka.oauth.web3.ExpirationLookup;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.BigIntegers;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECPoint;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AccessValidatorTest {
+
+    private static WEB3 web3;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", new BouncyCastleProvider());
+        generator.initialize(new ECGenParameterSpec("secp256k1"));
+        web3 = new WEB3((ECPrivateKey) generator.generateKeyPair().getPrivate());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        long now = System.currentTimeMillis();
+        long renewed = now / 1000 + 3600;
+        AtomicInteger calls = new AtomicInteger();
+        ExpirationLookup lookup = new TestLookup(calls, 0, renewed);
+
+        AccessValidator validator = validator();
+        String address = validator.getWeb3().address;
+        ExpirationCache whiteList = new ExpirationCache(10);
+        ExpirationCache blackList = new ExpirationCache(10);
+        whiteList.put(address, now / 1000 - 1, now + 60000);
+
+        Assert.assertTrue("Access should be granted within the grace period",
+                validator.ethValidate(whiteList, blackList, 60000, lookup, null, 60000, 0));
+        Assert.assertEquals(DecisionFreshness.STALE, validator.getFreshness());
+
+        for (int i = 0; i < 50 && !Long.valueOf(renewed).equals(whiteList.get(address)); i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("Expiration time should have been refreshed", Long.valueOf(renewed), whiteList.get(address));
+
+        Assert.assertTrue(validator.ethValidate(whiteList, blackList, 60000, lookup, null, 60000, 0));
+        Assert.assertEquals(DecisionFreshness.FRESH, validator.getFreshness());
+        Assert.assertEquals("Only the background refresh should have looked up the expiration time", 1, calls.get());
+    }
+
+    @Test
+    public void testLookupDeadline() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        ExpirationLookup lookup = new TestLookup(calls, 2000, System.currentTimeMillis() / 1000 + 3600);
+
+        AccessValidator validator = validator();
+        long start = System.currentTimeMillis();
+        Assert.assertFalse("Access should be denied when the lookup times out",
+                validator.ethValidate(new ExpirationCache(10), new ExpirationCache(10), 60000, lookup, null, 0, 100));
+        Assert.assertTrue("Lookup should be abandoned at the deadline", System.currentTimeMillis() - start < 1500);
+        Assert.assertEquals(DecisionFreshness.TIMED_OUT, validator.getFreshness());
+    }
+
+    @Test
+    public void testExpiredIndexEntryIsLookedUp() throws Exception {
+        long now = System.currentTimeMillis();
+        AtomicInteger calls = new AtomicInteger();
+        ExpirationLookup lookup = new TestLookup(calls, 0, now / 1000 + 3600);
+
+        AccessValidator validator = validator();
+        ExpirationIndex index = new ExpirationIndex();
+        index.update(validator.getWeb3().address, now / 1000 - 3600);
+        index.markComplete();
+
+        Assert.assertTrue("A renewal that has not been indexed yet should be found on-chain",
+                validator.ethValidate(new ExpirationCache(10), new ExpirationCache(10), 60000, lookup, index, 0, 0));
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testShortCoordinateGivesSameAddress() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", new BouncyCastleProvider());
+        generator.initialize(new ECGenParameterSpec("secp256k1"));
+        KeyPair keyPair;
+        do {
+            keyPair = generator.generateKeyPair();
+        } while (((ECPublicKey) keyPair.getPublic()).getW().getAffineY().bitLength() > 248);
+        ECPoint w = ((ECPublicKey) keyPair.getPublic()).getW();
+
+        // y encoded in 31 bytes, without its leading zero byte
+        ECKey jwk = new ECKey.Builder(Curve.SECP256K1,
+                Base64URL.encode(BigIntegers.asUnsignedByteArray(w.getAffineX())),
+                Base64URL.encode(BigIntegers.asUnsignedByteArray(w.getAffineY()))).build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.ES256K).jwk(jwk).build(),
+                new JWTClaimsSet.Builder().expirationTime(new Date(System.currentTimeMillis() + 60000)).build());
+        ECDSASigner signer = new ECDSASigner((ECPrivateKey) keyPair.getPrivate(), Curve.SECP256K1);
+        signer.getJCAContext().setProvider(new BouncyCastleProvider());
+        jwt.sign(signer);
+
+        AccessValidator validator = new AccessValidator(jwt.serialize(), true);
+        Assert.assertTrue(validator.signatureValidate());
+        Assert.assertEquals(new WEB3((ECPrivateKey) keyPair.getPrivate()).address, validator.getWeb3().address);
+        Assert.assertEquals(WEB3.publicWEB3(jwk).address, validator.getWeb3().address);
+    }
+
+    private static AccessValidator validator() throws Exception {
+        String token = "token-" + System.nanoTime();
+        long exp = System.currentTimeMillis() + 60000;
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+        cache.put(token, JSONUtil.readJSON("{\"exp\": " + exp / 1000 + "}", JsonNode.class), web3, exp);
+
+        AccessValidator validator = new AccessValidator(token, true);
+        Assert.assertTrue(validator.signatureValidate(cache));
+        return validator;
+    }
+
+    static class TestLookup extends ExpirationLookup {
+
+        private final AtomicInteger calls;
+        private final long delayMs;
+        private final long expirationTime;
+
+        TestLookup(AtomicInteger calls, long delayMs, long expirationTime) {
+            super(null, null, null);
+            this.calls = calls;
+            this.delayMs = delayMs;
+            this.expirationTime = expirationTime;
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        protected BigInteger fetchExpirationTime(String address) throws IOException {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return BigInteger.valueOf(expirationTime);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.strimzi.kafka.oauth.common.WEB3;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class BatchSignatureVerifierTest {
+
+    private static final List<WEB3> KEYS = new ArrayList<>();
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", new BouncyCastleProvider());
+        generator.initialize(new ECGenParameterSpec("secp256k1"));
+        for (int i = 0; i < 4; i++) {
+            KEYS.add(new WEB3((ECPrivateKey) generator.generateKeyPair().getPrivate()));
+        }
+    }
+
+    @Test
+    public void testBatchOfValidSignatures() throws Exception {
+        VerifierCache cache = new VerifierCache(10);
+        for (int size = 2; size <= 16; size++) {
+            List<BatchSignatureVerifier.Pending> batch = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                ES256KToken token = ES256KToken.parse(sign(KEYS.get(i % KEYS.size()), "user-" + i));
+                batch.add(new BatchSignatureVerifier.Pending(token, cache.verifier(token)));
+            }
+            Assert.assertTrue("Batch of " + size + " valid signatures should pass", BatchSignatureVerifier.verifyBatch(batch));
+        }
+    }
+
+    @Test
+    public void testBatchWithInvalidSignatureFails() throws Exception {
+        VerifierCache cache = new VerifierCache(10);
+        List<BatchSignatureVerifier.Pending> batch = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String token = sign(KEYS.get(i % KEYS.size()), "user-" + i);
+            if (i == 5) {
+                String[] parts = token.split("\\.");
+                token = parts[0] + "." + Base64URL.encode("{\"sub\":\"mallory\"}") + "." + parts[2];
+            }
+            ES256KToken lean = ES256KToken.parse(token);
+            batch.add(new BatchSignatureVerifier.Pending(lean, cache.verifier(lean)));
+        }
+        Assert.assertFalse(BatchSignatureVerifier.verifyBatch(batch));
+    }
+
+    @Test
+    public void testConcurrentVerificationsAreBatched() throws Exception {
+        BatchSignatureVerifier verifier = new BatchSignatureVerifier(10, 2, 50, 8);
+        ExecutorService callers = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                String token = sign(KEYS.get(i % KEYS.size()), "user-" + i);
+                if (i == 3) {
+                    String[] parts = token.split("\\.");
+                    token = parts[0] + "." + Base64URL.encode("{\"sub\":\"mallory\"}") + "." + parts[2];
+                }
+                ES256KToken lean = ES256KToken.parse(token);
+                results.add(callers.submit(() -> verifier.verify(lean)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals("Signature " + i, i != 3, results.get(i).get());
+            }
+            Assert.assertTrue("Expected batched verifications", verifier.batchedSignatures() > 0);
+            Assert.assertTrue("Expected the batch with the invalid signature to fail", verifier.failedBatches() > 0);
+        } finally {
+            callers.shutdownNow();
+            verifier.close();
+        }
+
+        ES256KToken lean = ES256KToken.parse(sign(KEYS.get(0), "alice"));
+        Assert.assertTrue("A closed verifier should verify on the calling thread", verifier.verify(lean));
+    }
+
+    @Test
+    public void testCloseReleasesPendingVerifications() throws Exception {
+        // a window long enough that only close() can complete the pending batch
+        BatchSignatureVerifier verifier = new BatchSignatureVerifier(10, 1, 60000, 8);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                ES256KToken lean = ES256KToken.parse(sign(KEYS.get(i), "user-" + i));
+                results.add(callers.submit(() -> verifier.verify(lean)));
+            }
+            Thread.sleep(200);
+            verifier.close();
+
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertTrue("Signature " + i + " should be verified by the caller", results.get(i).get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    private static String sign(WEB3 web3, String subject) throws Exception {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .subject(subject)
+                .expirationTime(new Date(System.currentTimeMillis() + 60000))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.ES256K).jwk(web3.nimbusdsJWK.toPublicJWK()).build(), claims);
+        ECDSASigner signer = new ECDSASigner(web3.nimbusdsJWK);
+        signer.getJCAContext().setProvider(new BouncyCastleProvider());
+        jwt.sign(signer);
+        return jwt.serialize();
+    }
+}
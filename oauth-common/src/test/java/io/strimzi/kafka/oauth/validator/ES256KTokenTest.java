@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.strimzi.kafka.oauth.common.WEB3;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.BigIntegers;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.web3j.crypto.Sign;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+public class ES256KTokenTest {
+
+    private static WEB3 web3;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", new BouncyCastleProvider());
+        generator.initialize(new ECGenParameterSpec("secp256k1"));
+        web3 = new WEB3((ECPrivateKey) generator.generateKeyPair().getPrivate());
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        String token = sign(new JWSHeader.Builder(JWSAlgorithm.ES256K).jwk(web3.nimbusdsJWK.toPublicJWK()).build());
+        ES256KToken lean = ES256KToken.parse(token);
+
+        Assert.assertNotNull(lean);
+        Assert.assertEquals("alice", lean.payload().get("sub").asText());
+        Assert.assertEquals(web3.nimbusdsJWK.getX().toString(), lean.x());
+        Assert.assertEquals(web3.nimbusdsJWK.getY().toString(), lean.y());
+        Assert.assertEquals(64, lean.signature().length);
+        Assert.assertEquals("Thumbprint should match Nimbus", web3.nimbusdsJWK.computeThumbprint().toString(),
+                VerifierCache.thumbprint(lean.x(), lean.y()));
+
+        VerifierCache cache = new VerifierCache(10);
+        Assert.assertTrue(cache.verify(lean));
+
+        String[] parts = token.split("\\.");
+        String tampered = parts[0] + "." + Base64URL.encode("{\"sub\":\"mallory\"}") + "." + parts[2];
+        Assert.assertFalse(cache.verify(ES256KToken.parse(tampered)));
+    }
+
+    @Test
+    public void testUnsupportedShapesFallBack() throws Exception {
+        String withCrit = sign(new JWSHeader.Builder(JWSAlgorithm.ES256K).jwk(web3.nimbusdsJWK.toPublicJWK())
+                .criticalParams(Collections.singleton("exp")).customParam("exp", 1).build());
+        Assert.assertNull("Critical headers should be left to Nimbus", ES256KToken.parse(withCrit));
+
+        String withoutJwk = sign(new JWSHeader.Builder(JWSAlgorithm.ES256K).build());
+        Assert.assertNull("Tokens without embedded key should be left to Nimbus", ES256KToken.parse(withoutJwk));
+
+        Assert.assertNull(ES256KToken.parse("a.b"));
+        Assert.assertNull(ES256KToken.parse("a.b.c.d"));
+        Assert.assertNull(ES256KToken.parse("!!!!.e30.AAAA"));
+    }
+
+    @Test
+    public void testRecoverable() throws Exception {
+        String token = web3.signRecoverableToken("{\"sub\":\"alice\",\"exp\":" + (System.currentTimeMillis() / 1000 + 60) + "}");
+        ES256KToken lean = ES256KToken.parse(token);
+
+        Assert.assertNotNull(lean);
+        Assert.assertTrue(lean.isRecoverable());
+        Assert.assertNull(lean.x());
+        Assert.assertEquals(65, lean.signature().length);
+        Assert.assertEquals(web3.publicKey, lean.recoverPublicKey());
+        Assert.assertTrue(new VerifierCache(10).verify(lean));
+
+        AccessValidator validator = new AccessValidator(token, true);
+        Assert.assertTrue(validator.signatureValidate());
+        Assert.assertEquals(web3.address, validator.getWeb3().address);
+        Assert.assertEquals("alice", validator.getPayload().get("sub").asText());
+
+        String[] parts = token.split("\\.");
+        String tampered = parts[0] + "." + Base64URL.encode("{\"sub\":\"mallory\"}") + "." + parts[2];
+        BigInteger recovered = ES256KToken.parse(tampered).recoverPublicKey();
+        Assert.assertNotEquals("Tampered payload must not recover the signer", web3.publicKey, recovered);
+    }
+
+    @Test
+    public void testRecoverableRejectsMalleableSignatures() throws Exception {
+        String token = web3.signRecoverableToken("{\"sub\":\"alice\"}");
+        String[] parts = token.split("\\.");
+        byte[] signature = Base64URL.from(parts[2]).decode();
+
+        byte[] highS = signature.clone();
+        BigInteger s = new BigInteger(1, Arrays.copyOfRange(signature, 32, 64));
+        byte[] flipped = BigIntegers.asUnsignedByteArray(32, Sign.CURVE_PARAMS.getN().subtract(s));
+        System.arraycopy(flipped, 0, highS, 32, 32);
+        highS[64] ^= 1;
+        Assert.assertNull("High s signatures should be rejected",
+                ES256KToken.parse(parts[0] + "." + parts[1] + "." + Base64URL.encode(highS)).recoverPublicKey());
+
+        byte[] badV = signature.clone();
+        badV[64] = 5;
+        Assert.assertNull(ES256KToken.parse(parts[0] + "." + parts[1] + "." + Base64URL.encode(badV)).recoverPublicKey());
+
+        Assert.assertNull("Recoverable tokens need the v byte",
+                ES256KToken.parse(parts[0] + "." + parts[1] + "." + Base64URL.encode(Arrays.copyOf(signature, 64))));
+
+        String withJwk = Base64URL.encode("{\"alg\":\"ES256K-R\",\"jwk\":" + web3.nimbusdsJWK.toPublicJWK().toJSONString() + "}")
+                + "." + parts[1] + "." + parts[2];
+        Assert.assertNull("Recoverable tokens must not carry a key", ES256KToken.parse(withJwk));
+    }
+
+    @Test
+    public void testDecode() {
+        byte[] out = new byte[64];
+        for (int len = 0; len < 20; len++) {
+            byte[] data = new byte[len];
+            for (int i = 0; i < len; i++) {
+                data[i] = (byte) (i * 37 + len);
+            }
+            String encoded = Base64URL.encode(data).toString();
+            int decoded = ES256KToken.decode(encoded, 0, encoded.length(), out);
+            Assert.assertEquals(len, decoded);
+            Assert.assertArrayEquals(data, Arrays.copyOf(out, decoded));
+        }
+        Assert.assertEquals(-1, ES256KToken.decode("abcde", 0, 5, out));
+        Assert.assertEquals(-1, ES256KToken.decode("ab+/", 0, 4, out));
+        Assert.assertEquals(2, ES256KToken.decode("x" + Base64URL.encode("hi".getBytes(StandardCharsets.US_ASCII)), 1, 4, out));
+    }
+
+    private static String sign(JWSHeader header) throws Exception {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .subject("alice")
+                .expirationTime(new Date(System.currentTimeMillis() + 60000))
+                .build();
+        SignedJWT jwt = new SignedJWT(header, claims);
+        ECDSASigner signer = new ECDSASigner(web3.nimbusdsJWK);
+        signer.getJCAContext().setProvider(new BouncyCastleProvider());
+        jwt.sign(signer);
+        return jwt.serialize();
+    }
+}
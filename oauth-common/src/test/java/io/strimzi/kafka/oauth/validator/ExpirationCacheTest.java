@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ExpirationCacheTest {
+
+    @Test
+    public void testPerEntryTtl() throws Exception {
+        ExpirationCache cache = new ExpirationCache(100);
+        long now = System.currentTimeMillis();
+        cache.put("aaaa", 1000L, now + 300);
+        cache.put("bbbb", 2000L, now + 60000);
+        cache.put("cccc", 3000L, now - 1);
+
+        Assert.assertEquals("Cached expiration time mismatch", Long.valueOf(1000L), cache.get("aaaa"));
+        Assert.assertEquals("Cached expiration time mismatch", Long.valueOf(2000L), cache.get("bbbb"));
+        Assert.assertNull("Already expired entry should not be cached", cache.get("cccc"));
+
+        Thread.sleep(400);
+        Assert.assertNull("Expired entry should be evicted", cache.get("aaaa"));
+        Assert.assertEquals("Unexpired entry should remain", Long.valueOf(2000L), cache.get("bbbb"));
+    }
+
+    @Test
+    public void testBoundedSize() {
+        ExpirationCache cache = new ExpirationCache(64);
+        long expiresAt = System.currentTimeMillis() + 60000;
+        for (int i = 0; i < 10000; i++) {
+            cache.put("address-" + i, i, expiresAt);
+        }
+        Assert.assertTrue("Cache should stay bounded, size: " + cache.size(), cache.size() <= 64);
+        Assert.assertEquals("Most recent entry should be cached", Long.valueOf(9999L), cache.get("address-9999"));
+    }
+}
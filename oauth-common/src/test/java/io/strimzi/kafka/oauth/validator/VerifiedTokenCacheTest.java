@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.strimzi.kafka.oauth.common.JSONUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VerifiedTokenCacheTest {
+
+    @Test
+    public void testCachedUntilExpiry() throws Exception {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+        long exp = System.currentTimeMillis() + 500;
+        cache.put("token-a", payload(exp), null, exp);
+
+        VerifiedTokenCache.Entry entry = cache.get("token-a");
+        Assert.assertNotNull("Token should be cached", entry);
+        Assert.assertEquals("Expiry mismatch", exp, entry.expiresAtMs());
+        Assert.assertNull("Unknown token should not be cached", cache.get("token-b"));
+
+        ((ObjectNode) entry.payload()).put("modified", true);
+        Assert.assertFalse("Cached payload should not be modified through a copy", cache.get("token-a").payload().has("modified"));
+
+        Thread.sleep(600);
+        Assert.assertNull("Expired token should be evicted", cache.get("token-a"));
+        Assert.assertEquals("Expired entry should be removed", 0, cache.size());
+    }
+
+    @Test
+    public void testBoundedSize() throws Exception {
+        VerifiedTokenCache cache = new VerifiedTokenCache(2);
+        long exp = System.currentTimeMillis() + 60000;
+        cache.put("token-a", payload(exp), null, exp);
+        cache.put("token-b", payload(exp), null, exp);
+        cache.put("token-c", payload(exp), null, exp);
+
+        Assert.assertEquals("Cache should not grow beyond max size", 2, cache.size());
+        Assert.assertNull("Token should not be cached when cache is full", cache.get("token-c"));
+
+        cache.put("token-d", payload(0), null, System.currentTimeMillis() - 1);
+        Assert.assertNull("Expired token should never be cached", cache.get("token-d"));
+    }
+
+    private static JsonNode payload(long exp) throws Exception {
+        return JSONUtil.readJSON("{\"exp\": " + exp / 1000 + "}", JsonNode.class);
+    }
+}
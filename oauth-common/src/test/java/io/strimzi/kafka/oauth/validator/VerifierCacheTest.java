@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.validator;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.strimzi.kafka.oauth.common.WEB3;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+
+public class VerifierCacheTest {
+
+    private static WEB3 web3;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", new BouncyCastleProvider());
+        generator.initialize(new ECGenParameterSpec("secp256k1"));
+        web3 = new WEB3((ECPrivateKey) generator.generateKeyPair().getPrivate());
+    }
+
+    @Test
+    public void testVerifierIsCachedPerKey() throws Exception {
+        VerifierCache cache = new VerifierCache(10);
+        SignedJWT jwt1 = sign("alice");
+        SignedJWT jwt2 = sign("bob");
+        ECKey publicKey = web3.nimbusdsJWK.toPublicJWK();
+
+        Assert.assertTrue(cache.verify(jwt1, publicKey));
+        Assert.assertTrue(cache.verify(jwt2, publicKey));
+        Assert.assertEquals("Expected one verifier for the key", 1, cache.size());
+
+        ECDSAVerifier nimbus = new ECDSAVerifier(publicKey);
+        nimbus.getJCAContext().setProvider(new BouncyCastleProvider());
+        Assert.assertTrue("Nimbus should agree on the valid signature", jwt1.verify(nimbus));
+    }
+
+    @Test
+    public void testTamperedSignatureIsRejected() throws Exception {
+        VerifierCache cache = new VerifierCache(10);
+        SignedJWT jwt = sign("alice");
+        String[] parts = jwt.serialize().split("\\.");
+        byte[] signature = jwt.getSignature().decode();
+        signature[10] ^= 1;
+        SignedJWT tampered = SignedJWT.parse(parts[0] + "." + parts[1] + "." + Base64URL.encode(signature));
+
+        Assert.assertFalse(cache.verify(tampered, web3.nimbusdsJWK.toPublicJWK()));
+
+        SignedJWT truncated = SignedJWT.parse(parts[0] + "." + parts[1] + "." + Base64URL.encode(new byte[10]));
+        Assert.assertFalse(cache.verify(truncated, web3.nimbusdsJWK.toPublicJWK()));
+    }
+
+    @Test
+    public void testCacheIsBounded() throws Exception {
+        VerifierCache cache = new VerifierCache(1);
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", new BouncyCastleProvider());
+        generator.initialize(new ECGenParameterSpec("secp256k1"));
+        WEB3 other = new WEB3((ECPrivateKey) generator.generateKeyPair().getPrivate());
+
+        Assert.assertTrue(cache.verify(sign("alice"), web3.nimbusdsJWK.toPublicJWK()));
+        Assert.assertTrue(cache.verify(sign(other, "alice"), other.nimbusdsJWK.toPublicJWK()));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testAccessValidatorUsesCache() throws Exception {
+        VerifierCache cache = new VerifierCache(10);
+        AccessValidator validator = new AccessValidator(sign("alice").serialize(), true);
+
+        Assert.assertTrue(validator.signatureValidate(cache));
+        Assert.assertEquals(web3.address, validator.getWeb3().address);
+        Assert.assertEquals(1, cache.size());
+    }
+
+    private static SignedJWT sign(String subject) throws Exception {
+        return sign(web3, subject);
+    }
+
+    private static SignedJWT sign(WEB3 signer, String subject) throws Exception {
+        JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .subject(subject)
+                .expirationTime(new Date(System.currentTimeMillis() + 60000))
+                .build();
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.ES256K).jwk(signer.nimbusdsJWK.toPublicJWK()).build(), claims);
+        ECDSASigner jwsSigner = new ECDSASigner(signer.nimbusdsJWK);
+        jwsSigner.getJCAContext().setProvider(new BouncyCastleProvider());
+        jwt.sign(jwsSigner);
+        return jwt;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import io.reactivex.Flowable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.BatchRequest;
+import org.web3j.protocol.core.BatchResponse;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+import org.web3j.protocol.core.methods.response.EthCall;
+import org.web3j.protocol.websocket.events.Notification;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BlockPinnedCallCacheTest {
+
+    private static final String CALLER = "0x1111111111111111111111111111111111111111";
+    private static final String CONTRACT = "0x2222222222222222222222222222222222222222";
+
+    @Test
+    public void testReadsAreCachedWithinBlock() throws Exception {
+        FakeService fake = new FakeService(16);
+        BlockPinnedCallCache cache = new BlockPinnedCallCache(fake, 60000);
+        Web3j web3j = Web3j.build(cache);
+        try {
+            web3j.ethBlockNumber().send();
+
+            Assert.assertEquals("0x10", call(web3j, "0x01"));
+            Assert.assertEquals("0x10", call(web3j, "0x01"));
+            Assert.assertEquals("Expected one eth_call for the same read within a block", 1, fake.calls.size());
+            Assert.assertEquals("eth_call should be pinned to the head block", "0x10", fake.calls.get(0));
+
+            call(web3j, "0x02");
+            Assert.assertEquals("Expected another eth_call for different call data", 2, fake.calls.size());
+
+            fake.head.set(17);
+            web3j.ethBlockNumber().send();
+            Assert.assertEquals(17, cache.headBlock());
+            Assert.assertEquals("0x11", call(web3j, "0x01"));
+            Assert.assertEquals("Expected a new eth_call after the head moved", 3, fake.calls.size());
+            Assert.assertEquals("0x11", fake.calls.get(2));
+        } finally {
+            web3j.shutdown();
+        }
+    }
+
+    @Test
+    public void testFallsBackToLatestIfBlockIsNotAvailable() throws Exception {
+        FakeService fake = new FakeService(16);
+        fake.failPinned = true;
+        BlockPinnedCallCache cache = new BlockPinnedCallCache(fake, 60000);
+        Web3j web3j = Web3j.build(cache);
+        try {
+            web3j.ethBlockNumber().send();
+
+            Assert.assertEquals("0x10", call(web3j, "0x01"));
+            Assert.assertEquals("Expected the pinned call and the fallback", 2, fake.calls.size());
+            Assert.assertEquals("latest", fake.calls.get(1));
+            Assert.assertEquals("A failed pinned read should not be cached", 0, cache.size());
+        } finally {
+            web3j.shutdown();
+        }
+    }
+
+    private static String call(Web3j web3j, String data) throws IOException {
+        Transaction transaction = Transaction.createEthCallTransaction(CALLER, CONTRACT, data);
+        return web3j.ethCall(transaction, DefaultBlockParameterName.LATEST).send().getValue();
+    }
+
+    static class FakeService implements Web3jService {
+
+        final AtomicLong head;
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        volatile boolean failPinned;
+
+        FakeService(long head) {
+            this.head = new AtomicLong(head);
+        }
+
+        @Override
+        public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+            return sendAsync(request, responseType).join();
+        }
+
+        @Override
+        public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+            if ("eth_blockNumber".equals(request.getMethod())) {
+                EthBlockNumber response = new EthBlockNumber();
+                response.setResult("0x" + Long.toHexString(head.get()));
+                return CompletableFuture.completedFuture(responseType.cast(response));
+            }
+            String block = ((DefaultBlockParameter) request.getParams().get(1)).getValue();
+            calls.add(block);
+            EthCall response = new EthCall();
+            if (failPinned && !"latest".equals(block)) {
+                response.setError(new Response.Error(-32000, "header not found"));
+            } else {
+                response.setResult("0x" + Long.toHexString(head.get()));
+            }
+            return CompletableFuture.completedFuture(responseType.cast(response));
+        }
+
+        @Override
+        public BatchResponse sendBatch(BatchRequest batchRequest) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CompletableFuture<BatchResponse> sendBatchAsync(BatchRequest batchRequest) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T extends Notification<?>> Flowable<T> subscribe(Request request, String unsubscribeMethod, Class<T> responseType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class ExpirationBatcherTest {
+
+    private static final String ADDRESS_1 = "0x1111111111111111111111111111111111111111";
+    private static final String ADDRESS_2 = "0x2222222222222222222222222222222222222222";
+    private static final String ADDRESS_3 = "0x3333333333333333333333333333333333333333";
+
+    @Test
+    public void testLookupsAreBatched() throws Exception {
+        List<List<String>> batches = new CopyOnWriteArrayList<>();
+        ExpirationBatcher batcher = new CountingBatcher(batches, 200, 100);
+        try {
+            CompletableFuture<BigInteger> f1 = batcher.submit(ADDRESS_1);
+            CompletableFuture<BigInteger> f2 = batcher.submit(ADDRESS_2);
+            CompletableFuture<BigInteger> f3 = batcher.submit(ADDRESS_3);
+
+            Assert.assertEquals(BigInteger.valueOf(ADDRESS_1.hashCode()), f1.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(BigInteger.valueOf(ADDRESS_2.hashCode()), f2.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(BigInteger.valueOf(ADDRESS_3.hashCode()), f3.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals("Expected a single batch", 1, batches.size());
+            Assert.assertEquals("Expected all addresses in the batch", Arrays.asList(ADDRESS_1, ADDRESS_2, ADDRESS_3), batches.get(0));
+        } finally {
+            batcher.close();
+        }
+    }
+
+    @Test
+    public void testFullBatchIsSentImmediately() throws Exception {
+        List<List<String>> batches = new CopyOnWriteArrayList<>();
+        ExpirationBatcher batcher = new CountingBatcher(batches, 60000, 2);
+        try {
+            CompletableFuture<BigInteger> f1 = batcher.submit(ADDRESS_1);
+            CompletableFuture<BigInteger> f2 = batcher.submit(ADDRESS_2);
+
+            Assert.assertEquals(BigInteger.valueOf(ADDRESS_1.hashCode()), f1.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(BigInteger.valueOf(ADDRESS_2.hashCode()), f2.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals("Expected a single batch", 1, batches.size());
+        } finally {
+            batcher.close();
+        }
+    }
+
+    @Test
+    public void testCloseFailsPendingLookups() throws Exception {
+        ExpirationBatcher batcher = new CountingBatcher(new CopyOnWriteArrayList<>(), 60000, 100);
+        CompletableFuture<BigInteger> f1 = batcher.submit(ADDRESS_1);
+        batcher.close();
+        try {
+            f1.get(5, TimeUnit.SECONDS);
+            Assert.fail("Should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testBatchesAreSentConcurrentlyAndFailedOnClose() throws Exception {
+        CountDownLatch started = new CountDownLatch(ExpirationBatcher.SENDER_THREADS);
+        CountDownLatch release = new CountDownLatch(1);
+        ExpirationBatcher batcher = new ExpirationBatcher(null, null, null, null, 60000, 1) {
+            @Override
+            protected Map<String, BigInteger> fetchExpirationTimes(List<String> addresses) throws IOException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new HashMap<>();
+            }
+        };
+
+        // more full batches than sender threads, so that some are still queued when closed
+        List<CompletableFuture<BigInteger>> futures = new ArrayList<>();
+        for (int i = 0; i < ExpirationBatcher.SENDER_THREADS + 2; i++) {
+            futures.add(batcher.submit(String.format("0x%040x", i)));
+        }
+        Assert.assertTrue("Batches should be sent without waiting for each other", started.await(5, TimeUnit.SECONDS));
+
+        batcher.close();
+        for (CompletableFuture<BigInteger> f: futures) {
+            try {
+                f.get(5, TimeUnit.SECONDS);
+                Assert.fail("Should have failed");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+    }
+
+    @Test
+    public void testMulticallAggregateEncoding() throws Exception {
+        List<String> addresses = Arrays.asList(ADDRESS_1, ADDRESS_2);
+        Function function = ExpirationBatcher.aggregateFunction(ADDRESS_3, addresses);
+        Assert.assertTrue("aggregate((address,bytes)[]) selector expected", FunctionEncoder.encode(function).startsWith("0x252dba42"));
+
+        List<DynamicBytes> returnData = new ArrayList<>();
+        returnData.add(new DynamicBytes(Numeric.hexStringToByteArray(FunctionEncoder.encodeConstructor(Arrays.asList(new Uint256(1000))))));
+        returnData.add(new DynamicBytes(Numeric.hexStringToByteArray(FunctionEncoder.encodeConstructor(Arrays.asList(new Uint256(2000))))));
+        String value = "0x" + FunctionEncoder.encodeConstructor(Arrays.asList(new Uint256(42), new DynamicArray<>(DynamicBytes.class, returnData)));
+
+        Map<String, BigInteger> results = ExpirationBatcher.decodeAggregate(addresses, value, function);
+        Assert.assertEquals(BigInteger.valueOf(1000), results.get(ADDRESS_1));
+        Assert.assertEquals(BigInteger.valueOf(2000), results.get(ADDRESS_2));
+    }
+
+    static class CountingBatcher extends ExpirationBatcher {
+
+        private final List<List<String>> batches;
+
+        CountingBatcher(List<List<String>> batches, long windowMillis, int maxBatchSize) {
+            super(null, null, null, null, windowMillis, maxBatchSize);
+            this.batches = batches;
+        }
+
+        @Override
+        protected Map<String, BigInteger> fetchExpirationTimes(List<String> addresses) {
+            batches.add(addresses);
+            Map<String, BigInteger> results = new HashMap<>();
+            for (String address: addresses) {
+                results.put(address, BigInteger.valueOf(address.hashCode()));
+            }
+            return results;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExpirationLookupTest {
+
+    @Test
+    public void testConcurrentLookupsAreCoalesced() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExpirationLookup lookup = new ExpirationLookup(null, null, null) {
+            @Override
+            protected BigInteger fetchExpirationTime(String address) throws IOException {
+                calls.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return BigInteger.valueOf(12345);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<BigInteger>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> lookup.lookup("aaaa")));
+            }
+            Thread.sleep(200);
+            release.countDown();
+
+            for (Future<BigInteger> result: results) {
+                Assert.assertEquals("Expiration time mismatch", BigInteger.valueOf(12345), result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals("Only one eth_call expected", 1, calls.get());
+
+        lookup.lookup("aaaa");
+        Assert.assertEquals("A new lookup expected once the previous one has completed", 2, calls.get());
+    }
+
+    @Test
+    public void testFailureIsPropagated() {
+        ExpirationLookup lookup = new ExpirationLookup(null, null, null) {
+            @Override
+            protected BigInteger fetchExpirationTime(String address) throws IOException {
+                throw new IOException("Test failure");
+            }
+        };
+
+        try {
+            lookup.lookup("aaaa");
+            Assert.fail("Should have failed");
+        } catch (IOException e) {
+            Assert.assertEquals("Test failure", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testSharedLookup() {
+        Web3RpcClient rpcClient = Web3RpcClient.forProvider("http://localhost:1", 2, 1, 1, 0);
+        ExpirationLookup first = ExpirationLookup.forContract(rpcClient, "0xadmin", "0xwhispeer", null, 20, 100);
+        ExpirationLookup second = ExpirationLookup.forContract(rpcClient, "0xadmin", "0xwhispeer", null, 20, 100);
+        Assert.assertSame("The handlers and the authorizer share the lookup", first, second);
+
+        // the lookup keeps the client in use
+        rpcClient.close();
+        Web3RpcClient again = Web3RpcClient.forProvider("http://localhost:1", 2, 1, 1, 0);
+        Assert.assertSame(rpcClient, again);
+
+        first.close();
+        second.close();
+        ExpirationLookup third = ExpirationLookup.forContract(again, "0xadmin", "0xwhispeer", null, 20, 100);
+        Assert.assertNotSame("Released by the last user", first, third);
+        third.close();
+        again.close();
+    }
+}
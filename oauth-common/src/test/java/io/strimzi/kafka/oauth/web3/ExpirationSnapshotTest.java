@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+public class ExpirationSnapshotTest {
+
+    private static final String ADDRESS_1 = "1111111111111111111111111111111111111111";
+    private static final String ADDRESS_2 = "abcdefabcdefabcdefabcdefabcdefabcdefabcd";
+
+    @Test
+    public void testSnapshotIsRestored() throws Exception {
+        Path path = Files.createTempFile("expirations", ".snapshot");
+        Files.delete(path);
+        try {
+            ExpirationIndex index = new ExpirationIndex();
+            index.persistTo(path);
+            index.firstIndexedBlock(100);
+            index.update(ADDRESS_1, 1000);
+            index.update("0x" + ADDRESS_2.toUpperCase(Locale.ROOT), 2000);
+            index.lastIndexedBlock(150);
+            index.update(ADDRESS_1, 3000);
+            index.lastIndexedBlock(200);
+            index.closeSnapshot();
+
+            Assert.assertEquals("Unexpected file size", ExpirationSnapshot.HEADER_SIZE + 3 * ExpirationSnapshot.RECORD_SIZE, Files.size(path));
+
+            // simulate a partially written record
+            Files.write(path, new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+
+            ExpirationIndex restored = new ExpirationIndex();
+            restored.persistTo(path);
+            Assert.assertEquals("Latest expiration time expected", Long.valueOf(3000), restored.get(ADDRESS_1));
+            Assert.assertEquals("Expiration time mismatch", Long.valueOf(2000), restored.get(ADDRESS_2));
+            Assert.assertEquals("First indexed block mismatch", 100, restored.firstIndexedBlock());
+            Assert.assertEquals("Last indexed block mismatch", 200, restored.lastIndexedBlock());
+            Assert.assertFalse("Restored index should not be complete before catching up", restored.isComplete());
+
+            restored.update(ADDRESS_2, 4000);
+            restored.closeSnapshot();
+            Assert.assertEquals("Partial record should be dropped", ExpirationSnapshot.HEADER_SIZE + 4 * ExpirationSnapshot.RECORD_SIZE, Files.size(path));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testSharedIndexIsReleased() throws Exception {
+        Path path = Files.createTempFile("expirations", ".snapshot");
+        Files.delete(path);
+        String contract = "0x00000000000000000000000000000000000000b7";
+        try {
+            ExpirationIndex first = ExpirationIndex.forContract(contract);
+            ExpirationIndex second = ExpirationIndex.forContract(contract);
+            Assert.assertSame(first, second);
+            first.persistTo(path);
+            first.update(ADDRESS_1, 1000);
+
+            first.close();
+            Assert.assertSame("Still in use", second, ExpirationIndex.forContract(contract));
+            second.close();
+            second.close();
+
+            // the last reference closed the snapshot, which is loaded again by a new index
+            ExpirationIndex reloaded = ExpirationIndex.forContract(contract);
+            Assert.assertNotSame(first, reloaded);
+            Assert.assertNull(reloaded.get(ADDRESS_1));
+            reloaded.persistTo(path);
+            Assert.assertEquals(Long.valueOf(1000), reloaded.get(ADDRESS_1));
+            reloaded.close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
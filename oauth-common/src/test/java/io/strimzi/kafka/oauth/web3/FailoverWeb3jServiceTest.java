@@ -0,0 +1,189 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.protocol.Web3j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FailoverWeb3jServiceTest {
+
+    private static final String BLOCK_NUMBER = "{\"jsonrpc\":\"2.0\",\"id\":%d,\"result\":\"0x%x\"}";
+
+    @Test
+    public void testFailsOverToNextEndpoint() throws Exception {
+        AtomicInteger failing = new AtomicInteger();
+        AtomicInteger working = new AtomicInteger();
+        HttpServer down = endpoint(failing, 500, 0, 0);
+        HttpServer up = endpoint(working, 200, 0, 42);
+        FailoverWeb3jService service = new FailoverWeb3jService(Arrays.asList(url(down), url(up)), new OkHttpClient(), 0, 2, 60_000);
+        try {
+            Web3j web3j = Web3j.build(service);
+            for (int i = 0; i < 4; i++) {
+                Assert.assertEquals(42, web3j.ethBlockNumber().send().getBlockNumber().longValue());
+            }
+            Assert.assertEquals("Failing endpoint should be skipped once its circuit is open", 2, failing.get());
+            Assert.assertEquals(4, working.get());
+        } finally {
+            service.close();
+            down.stop(0);
+            up.stop(0);
+        }
+    }
+
+    @Test
+    public void testFailsWhenAllEndpointsFail() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        HttpServer down1 = endpoint(count, 500, 0, 0);
+        HttpServer down2 = endpoint(count, 503, 0, 0);
+        FailoverWeb3jService service = new FailoverWeb3jService(Arrays.asList(url(down1), url(down2)), new OkHttpClient(), 0, 3, 60_000);
+        try {
+            Web3j web3j = Web3j.build(service);
+            try {
+                web3j.ethBlockNumber().send();
+                Assert.fail("Should have failed");
+            } catch (IOException expected) {
+                // expected
+            }
+            Assert.assertEquals("Every endpoint should have been tried", 2, count.get());
+        } finally {
+            service.close();
+            down1.stop(0);
+            down2.stop(0);
+        }
+    }
+
+    @Test
+    public void testCloseReleasesOwnHttpClient() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        HttpServer up = endpoint(count, 200, 0, 42);
+        FailoverWeb3jService service = FailoverWeb3jService.forUrls(url(up) + "," + url(up));
+        try {
+            Web3j web3j = Web3j.build(service);
+            Assert.assertEquals(42, web3j.ethBlockNumber().send().getBlockNumber().longValue());
+
+            service.close();
+            Assert.assertTrue("Hedging timer should be stopped", service.hedgeScheduler.isShutdown());
+            Assert.assertTrue("HTTP client should be released", service.ownHttpClient.dispatcher().executorService().isShutdown());
+        } finally {
+            service.close();
+            up.stop(0);
+        }
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() throws Exception {
+        AtomicInteger slowCount = new AtomicInteger();
+        AtomicInteger fastCount = new AtomicInteger();
+        HttpServer slow = endpoint(slowCount, 200, 5000, 1);
+        HttpServer fast = endpoint(fastCount, 200, 0, 2);
+        FailoverWeb3jService service = new FailoverWeb3jService(Arrays.asList(url(slow), url(fast)), new OkHttpClient(), 95, 3, 60_000);
+        try {
+            Web3j web3j = Web3j.build(service);
+            long start = System.currentTimeMillis();
+            Assert.assertEquals("The hedged request should win", 2, web3j.ethBlockNumber().send().getBlockNumber().longValue());
+            Assert.assertTrue("Hedged request should not wait for the slow endpoint", System.currentTimeMillis() - start < 4000);
+            Assert.assertEquals(1, slowCount.get());
+            Assert.assertEquals(1, fastCount.get());
+        } finally {
+            service.close();
+            slow.stop(0);
+            fast.stop(0);
+        }
+    }
+
+    @Test
+    public void testNoFailoverAfterHedgedRequestWon() throws Exception {
+        AtomicInteger slowCount = new AtomicInteger();
+        AtomicInteger fastCount = new AtomicInteger();
+        AtomicInteger spareCount = new AtomicInteger();
+        HttpServer slow = endpoint(slowCount, 500, 1500, 0);
+        HttpServer fast = endpoint(fastCount, 200, 0, 2);
+        HttpServer spare = endpoint(spareCount, 200, 0, 3);
+        FailoverWeb3jService service = new FailoverWeb3jService(Arrays.asList(url(slow), url(fast), url(spare)), new OkHttpClient(), 95, 3, 60_000);
+        try {
+            Web3j web3j = Web3j.build(service);
+            Assert.assertEquals("The hedged request should win", 2, web3j.ethBlockNumber().send().getBlockNumber().longValue());
+
+            // the slow endpoint fails after the hedged request has won
+            for (int i = 0; i < 50 && slowCount.get() == 0; i++) {
+                Thread.sleep(100);
+            }
+            Thread.sleep(2000);
+            Assert.assertEquals("No other endpoint should be tried after the request succeeded", 0, spareCount.get());
+        } finally {
+            service.close();
+            slow.stop(0);
+            fast.stop(0);
+            spare.stop(0);
+        }
+    }
+
+    @Test
+    public void testLatencySamplesWrapAround() {
+        FailoverWeb3jService.Endpoint endpoint = new FailoverWeb3jService.Endpoint("http://localhost", null);
+        for (int i = 0; i < 1000; i++) {
+            endpoint.success(1000);
+        }
+        for (int i = 0; i < 1000; i++) {
+            endpoint.success(10);
+        }
+        Assert.assertEquals("Only the recent latencies should count", 10, endpoint.hedgeDelay(95));
+    }
+
+    @Test
+    public void testParseUrls() {
+        Assert.assertEquals(Arrays.asList("http://a", "http://b"), FailoverWeb3jService.parseUrls(" http://a, ,http://b,"));
+    }
+
+    private static HttpServer endpoint(AtomicInteger count, int status, long delayMs, long blockNumber) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            count.incrementAndGet();
+            String request = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            long id = Long.parseLong(request.replaceAll(".*\"id\":(\\d+).*", "$1"));
+            byte[] body = String.format(BLOCK_NUMBER, id, blockNumber).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return server;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int read;
+        while ((read = in.read(buf)) > 0) {
+            out.write(buf, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static String url(HttpServer server) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v2/key";
+    }
+}
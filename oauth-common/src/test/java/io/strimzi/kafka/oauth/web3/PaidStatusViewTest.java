@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PaidStatusViewTest {
+
+    private static final String ALICE = "72da2c71d561f2990d8ccecb28fe744fc746a757";
+    private static final String BOB = "000000000000000000000000000000000000dead";
+
+    @Test
+    public void testIndex() {
+        long now = System.currentTimeMillis();
+        ExpirationIndex index = ExpirationIndex.forContract("0x00000000000000000000000000000000000000a1");
+        index.update(ALICE, now / 1000 + 3600);
+        PaidStatusView view = new PaidStatusView(index, null, 60000, 10);
+
+        Assert.assertEquals(PaidStatusView.Status.PAID, view.status(ALICE, now));
+        Assert.assertEquals(PaidStatusView.Status.UNKNOWN, view.status(BOB, now));
+        Assert.assertEquals(PaidStatusView.Status.UNKNOWN, view.status(ALICE, now + 7200_000));
+
+        index.markComplete();
+        Assert.assertEquals(PaidStatusView.Status.UNPAID, view.status(BOB, now));
+        Assert.assertEquals(PaidStatusView.Status.UNPAID, view.status(ALICE, now + 7200_000));
+    }
+
+    @Test
+    public void testExpiredOrMissingAddressOfCompleteIndexIsLookedUp() throws Exception {
+        long now = System.currentTimeMillis();
+        ExpirationIndex index = new ExpirationIndex();
+        index.update(ALICE, now / 1000 - 3600);
+        index.markComplete();
+        AtomicInteger calls = new AtomicInteger();
+        ExpirationLookup lookup = new ExpirationLookup(null, null, null) {
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+
+            @Override
+            protected BigInteger fetchExpirationTime(String address) {
+                calls.incrementAndGet();
+                return BigInteger.valueOf(now / 1000 + 3600);
+            }
+        };
+        PaidStatusView view = new PaidStatusView(index, lookup, 60000, 10);
+
+        Assert.assertEquals("Renewal not indexed yet", PaidStatusView.Status.UNKNOWN, view.status(ALICE, now));
+        Assert.assertEquals("Payment not indexed yet", PaidStatusView.Status.UNKNOWN, view.status(BOB, now));
+        for (int i = 0; i < 50 && view.size() < 2; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(PaidStatusView.Status.PAID, view.status(ALICE, now));
+        Assert.assertEquals(PaidStatusView.Status.PAID, view.status(BOB, now));
+        Assert.assertEquals("Both addresses are looked up", 2, calls.get());
+        lookup.close();
+    }
+
+    @Test
+    public void testUnknownAddressIsResolvedInBackground() throws Exception {
+        long now = System.currentTimeMillis();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExpirationLookup lookup = new ExpirationLookup(null, null, null) {
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+
+            @Override
+            protected BigInteger fetchExpirationTime(String address) throws IOException {
+                calls.incrementAndGet();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return BigInteger.valueOf(ALICE.equals(address) ? now / 1000 + 3600 : 0);
+            }
+        };
+        PaidStatusView view = new PaidStatusView(null, lookup, 60000, 10);
+
+        Assert.assertEquals(PaidStatusView.Status.UNKNOWN, view.status(ALICE, now));
+        Assert.assertEquals(PaidStatusView.Status.UNKNOWN, view.status(ALICE, now));
+        Assert.assertEquals(PaidStatusView.Status.UNKNOWN, view.status(BOB, now));
+        release.countDown();
+
+        waitForSize(view, 2);
+        Assert.assertEquals("One lookup per address expected", 2, calls.get());
+        Assert.assertEquals(PaidStatusView.Status.PAID, view.status(ALICE, now));
+        Assert.assertEquals(PaidStatusView.Status.UNPAID, view.status(BOB, now));
+        Assert.assertEquals(PaidStatusView.Status.UNPAID, view.status(ALICE, now + 7200_000));
+    }
+
+    @Test
+    public void testStaleStatusIsRefreshed() throws Exception {
+        long now = System.currentTimeMillis();
+        AtomicInteger calls = new AtomicInteger();
+        ExpirationLookup lookup = new ExpirationLookup(null, null, null) {
+            @Override
+            public boolean isAvailable() {
+                return true;
+            }
+
+            @Override
+            protected BigInteger fetchExpirationTime(String address) {
+                calls.incrementAndGet();
+                return BigInteger.valueOf(now / 1000 + 3600);
+            }
+        };
+        PaidStatusView view = new PaidStatusView(null, lookup, 1000, 10);
+        view.put(ALICE, new PaidStatusView.Resolved(0, now - 2000));
+
+        // the stale result is used while the refresh is in progress
+        Assert.assertEquals(PaidStatusView.Status.UNPAID, view.status(ALICE, now));
+        for (int i = 0; i < 50 && view.status(ALICE, now) != PaidStatusView.Status.PAID; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(PaidStatusView.Status.PAID, view.status(ALICE, now));
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testBounded() {
+        PaidStatusView view = new PaidStatusView(null, null, 60000, 2);
+        for (int i = 0; i < 5; i++) {
+            view.put("address-" + i, new PaidStatusView.Resolved(0, 0));
+        }
+        Assert.assertEquals(2, view.size());
+        Assert.assertEquals(PaidStatusView.Status.UNKNOWN, view.status(BOB, System.currentTimeMillis()));
+    }
+
+    private static void waitForSize(PaidStatusView view, int size) throws InterruptedException {
+        for (int i = 0; i < 50 && view.size() < size; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(size, view.size());
+    }
+}
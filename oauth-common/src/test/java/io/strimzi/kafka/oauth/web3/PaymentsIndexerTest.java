@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.protocol.core.methods.response.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+public class PaymentsIndexerTest {
+
+    private static final String USER = "0xAbCdEf0123456789aBcDeF0123456789AbCdEf01";
+
+    @Test
+    public void testPaymentUserIsDecoded() {
+        Log paymentLog = new Log();
+        paymentLog.setData("0x" + FunctionEncoder.encodeConstructor(Arrays.asList(new Address(USER), new Uint256(1000))));
+
+        String user = PaymentsIndexer.paymentUser(paymentLog);
+        Assert.assertEquals("User address mismatch", ExpirationIndex.normalize(USER), ExpirationIndex.normalize(user));
+    }
+
+    @Test
+    public void testIndexOnlyMovesForward() {
+        ExpirationIndex index = new ExpirationIndex();
+        index.update(USER, 2000);
+        index.update(USER.toLowerCase(Locale.ROOT), 1000);
+
+        Assert.assertEquals("Expiration time should not move backwards", Long.valueOf(2000), index.get(USER.substring(2)));
+        Assert.assertEquals("Addresses should be normalized", 1, index.size());
+
+        index.update(USER, 3000);
+        Assert.assertEquals("Expiration time should move forward", Long.valueOf(3000), index.get(USER));
+    }
+
+    @Test
+    public void testSharedIndexerIsReleased() {
+        Web3RpcClient rpcClient = Web3RpcClient.forProvider("http://localhost:1", 2, 1, 1, 0);
+        ExpirationLookup lookup = ExpirationLookup.forContract(rpcClient, "0xadmin", "0xindexed", null, 0, 100);
+        PaymentsIndexer first = PaymentsIndexer.forContract(rpcClient, lookup, "0xindexed", -1, 1000, 12, 64, 3600);
+        PaymentsIndexer second = PaymentsIndexer.forContract(rpcClient, lookup, "0xindexed", -1, 1000, 12, 64, 3600);
+        Assert.assertSame("The handlers share the indexer", first, second);
+
+        // the indexer keeps the lookup and the client in use
+        lookup.close();
+        rpcClient.close();
+        Web3RpcClient client = Web3RpcClient.forProvider("http://localhost:1", 2, 1, 1, 0);
+        Assert.assertSame(rpcClient, client);
+        ExpirationLookup sharedLookup = ExpirationLookup.forContract(client, "0xadmin", "0xindexed", null, 0, 100);
+        Assert.assertSame(lookup, sharedLookup);
+        sharedLookup.close();
+        client.close();
+
+        first.close();
+        second.close();
+        client = Web3RpcClient.forProvider("http://localhost:1", 2, 1, 1, 0);
+        Assert.assertNotSame("Released by the last user", rpcClient, client);
+        client.close();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.web3;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Web3RpcClientTest {
+
+    @Test
+    public void testConsecutiveFailures() throws Exception {
+        // nothing listens on the port, so the initial probe fails
+        Web3RpcClient client = new Web3RpcClient("http://localhost:1", 2, 1, 1, 3600, 0, 3, 30, 0);
+        try {
+            Thread.sleep(1000);
+            Assert.assertTrue("A single failed probe keeps the provider healthy", client.isHealthy());
+
+            client.recordFailure();
+            client.recordFailure();
+            Assert.assertFalse("Failed probes and calls are counted together", client.isHealthy());
+
+            client.recordSuccess();
+            Assert.assertTrue(client.isHealthy());
+
+            client.recordFailure();
+            client.recordFailure();
+            Assert.assertTrue("A transient failure keeps the provider healthy", client.isHealthy());
+            client.recordSuccess();
+            client.recordFailure();
+            client.recordFailure();
+            Assert.assertTrue("A success resets the consecutive failures", client.isHealthy());
+
+            client.recordFailure();
+            Assert.assertFalse(client.isHealthy());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testFailedProbesMarkProviderUnhealthy() throws Exception {
+        Web3RpcClient client = new Web3RpcClient("http://localhost:1", 2, 1, 1, 3600, 0, 1, 30, 0);
+        try {
+            for (int i = 0; i < 50 && client.isHealthy(); i++) {
+                Thread.sleep(100);
+            }
+            Assert.assertFalse("Failed probes up to the threshold mark the provider unhealthy", client.isHealthy());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testSharedInstancesAreReferenceCounted() {
+        Web3RpcClient first = Web3RpcClient.forProvider("http://localhost:1", 2, 1, 1, 0);
+        Web3RpcClient second = Web3RpcClient.forProvider("http://localhost:1", 2, 1, 1, 0);
+        Web3RpcClient other = Web3RpcClient.forProvider("http://localhost:1", 4, 1, 1, 0);
+        try {
+            Assert.assertSame("Same provider and settings share the client", first, second);
+            Assert.assertNotSame("Other settings get their own client", first, other);
+
+            first.close();
+            Web3RpcClient third = Web3RpcClient.forProvider("http://localhost:1", 2, 1, 1, 0);
+            Assert.assertSame("Still in use", second, third);
+            third.close();
+            second.close();
+
+            Web3RpcClient fourth = Web3RpcClient.forProvider("http://localhost:1", 2, 1, 1, 0);
+            Assert.assertNotSame("Released by the last user", first, fourth);
+            fourth.close();
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testCloseStopsHeadPoller() {
+        Web3RpcClient client = Web3RpcClient.forProvider("http://localhost:1,http://localhost:2", 2, 1, 1, 0, 95, 3, 30, 1000);
+        Assert.assertNotNull(client.callCache());
+
+        client.close();
+        Assert.assertTrue("Head poller of the call cache should be stopped", client.callCache().executor.isShutdown());
+        Assert.assertTrue("Hedging timer should be stopped", client.service().hedgeScheduler.isShutdown());
+        Assert.assertTrue("HTTP client should be released", client.httpClient().dispatcher().executorService().isShutdown());
+
+        // releasing a closed client is a no-op
+        client.close();
+    }
+}
@@ -16,17 +16,25 @@ import io.strimzi.kafka.oauth.common.ConfigUtil;
 import io.strimzi.kafka.oauth.common.JSONUtil;
 import io.strimzi.kafka.oauth.common.SSLUtil;
 import io.strimzi.kafka.oauth.common.TimeUtil;
+import io.strimzi.kafka.oauth.common.WalletAddress;
+import io.strimzi.kafka.oauth.common.Web3Identity;
 import io.strimzi.kafka.oauth.metrics.SensorKeyProducer;
 import io.strimzi.kafka.oauth.server.OAuthKafkaPrincipal;
 //import io.strimzi.kafka.oauth.server.authorizer.metrics.GrantsHttpSensorKeyProducer;
 //import io.strimzi.kafka.oauth.server.authorizer.metrics.KeycloakAuthorizationSensorKeyProducer;
 import io.strimzi.kafka.oauth.services.OAuthMetrics;
 import io.strimzi.kafka.oauth.validator.AccessValidator;
+import io.strimzi.kafka.oauth.validator.VerifierCache;
+import io.strimzi.kafka.oauth.web3.ExpirationIndex;
+import io.strimzi.kafka.oauth.web3.ExpirationLookup;
+import io.strimzi.kafka.oauth.web3.PaidStatusView;
+import io.strimzi.kafka.oauth.web3.Web3RpcClient;
 //import io.strimzi.kafka.oauth.services.ServiceException;
 //import io.strimzi.kafka.oauth.services.Services;
 //import io.strimzi.kafka.oauth.services.SessionFuture;
 //import io.strimzi.kafka.oauth.services.Sessions;
 import io.strimzi.kafka.oauth.server.OAuthKafkaPrincipalBuilder;
+import io.strimzi.kafka.oauth.server.ServerConfig;
 //import io.strimzi.kafka.oauth.validator.DaemonThreadFactory;
 import kafka.security.authorizer.AclAuthorizer;
 import org.apache.kafka.common.Endpoint;
@@ -53,6 +61,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
@@ -205,6 +214,13 @@ public class KeycloakRBACAuthorizer extends AclAuthorizer {
     private String adminAdress;
     private String whispeerAdress;
     private String validation;
+    private VerifierCache verifierCache;
+    private int sessionCacheMaxSize;
+    private PaidStatusView paidStatus;
+    private Web3RpcClient rpcClient;
+    private ExpirationLookup expirationLookup;
+    private ExpirationIndex expirationIndex;
+    private AuthorizationResult unknownWalletDecision;
 
     /**
      * Create a new instance
@@ -239,7 +255,63 @@ public class KeycloakRBACAuthorizer extends AclAuthorizer {
         adminAdress = (String) configs.get("web3.adminAdress");
         whispeerAdress = (String) configs.get("web3.whispeerAdress");
         validation = (String) configs.get("web3.validation");
+        Config web3Config = new Config(configs);
+        verifierCache = new VerifierCache(web3Config.getValueAsInt(ServerConfig.WEB3_VERIFIER_CACHE_MAX_SIZE, 10000));
+        sessionCacheMaxSize = web3Config.getValueAsInt(ServerConfig.WEB3_AUTHZ_SESSION_CACHE_MAX_SIZE, 64);
+        configurePaidStatus(web3Config);
+    }
+
+    private void configurePaidStatus(Config web3Config) {
+        String decision = web3Config.getValue(ServerConfig.WEB3_AUTHZ_UNKNOWN_WALLET_DECISION, "allow").toLowerCase(Locale.ROOT);
+        if (!"allow".equals(decision) && !"deny".equals(decision)) {
+            throw new ConfigException("Invalid value of '" + ServerConfig.WEB3_AUTHZ_UNKNOWN_WALLET_DECISION + "': " + decision + " (should be 'allow' or 'deny')");
+        }
+        unknownWalletDecision = "allow".equals(decision) ? AuthorizationResult.ALLOWED : AuthorizationResult.DENIED;
+
+        // release the lookup of a previous configuration
+        closePaidStatus();
+
+        // Without on-chain validation every wallet is treated as paid
+        if (!"required".equalsIgnoreCase(validation) || whispeerAdress == null) {
+            return;
+        }
 
+        if (provider != null) {
+            rpcClient = Web3RpcClient.forProvider(provider,
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_MAX_CONNECTIONS, 20),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_CONNECT_TIMEOUT_SECONDS, 10),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_READ_TIMEOUT_SECONDS, 10),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_HEALTH_CHECK_INTERVAL_SECONDS, 30),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_HEDGE_PERCENTILE, 95),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_CIRCUIT_FAILURE_THRESHOLD, 3),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_CIRCUIT_OPEN_SECONDS, 30),
+                    web3Config.getValueAsLong(ServerConfig.WEB3_CALL_CACHE_HEAD_POLL_INTERVAL_MS, 2000));
+        }
+        // the same lookup and batcher as the validator callback handlers
+        expirationLookup = rpcClient == null ? null : ExpirationLookup.forContract(rpcClient, adminAdress, whispeerAdress,
+                web3Config.getValue(ServerConfig.WEB3_MULTICALL_ADDRESS),
+                web3Config.getValueAsInt(ServerConfig.WEB3_LOOKUP_BATCH_WINDOW_MS, 20),
+                web3Config.getValueAsInt(ServerConfig.WEB3_LOOKUP_BATCH_MAX_SIZE, 100));
+        expirationIndex = ExpirationIndex.forContract(whispeerAdress);
+        paidStatus = new PaidStatusView(expirationIndex, expirationLookup,
+                web3Config.getValueAsInt(ServerConfig.WEB3_AUTHZ_STATUS_REFRESH_SECONDS, 60) * 1000L,
+                web3Config.getValueAsInt(ServerConfig.WEB3_EXPIRATION_CACHE_MAX_SIZE, 100000));
+    }
+
+    private void closePaidStatus() {
+        paidStatus = null;
+        if (expirationLookup != null) {
+            expirationLookup.close();
+            expirationLookup = null;
+        }
+        if (rpcClient != null) {
+            rpcClient.close();
+            rpcClient = null;
+        }
+        if (expirationIndex != null) {
+            expirationIndex.close();
+            expirationIndex = null;
+        }
     }
 
 
@@ -379,9 +451,26 @@ public class KeycloakRBACAuthorizer extends AclAuthorizer {
 
             OAuthKafkaPrincipal jwtPrincipal = (OAuthKafkaPrincipal) principal;
 
-            String token = jwtPrincipal.getJwt().value();
-            AccessValidator validator = new AccessValidator(token, validation.equalsIgnoreCase("required"));
-            result = allowOrDeny(actions, validator);
+            // The identity validated at authentication is used as is, the token is only verified here
+            // if it was validated by a handler that does not provide the identity
+            Web3Identity identity = jwtPrincipal.getWeb3Identity();
+            if (identity != null) {
+                if (identity.isExpired(System.currentTimeMillis())) {
+                    if (DENY_LOG.isDebugEnabled()) {
+                        DENY_LOG.debug("Authorization DENIED due to token expiry - " + identity + ", user: " + principal);
+                    }
+                    return Collections.nCopies(actions.size(), AuthorizationResult.DENIED);
+                }
+                PaidStatusView.Status status = paidStatus(identity.web3().address);
+                SessionDecisions decisions = sessionDecisions(jwtPrincipal.getJwt(), status);
+                result = decisions != null
+                        ? allowOrDeny(actions, identity.address(), status, decisions)
+                        : allowOrDeny(actions, identity.address(), status);
+            } else {
+                String token = jwtPrincipal.getJwt().value();
+                AccessValidator validator = new AccessValidator(token, validation.equalsIgnoreCase("required"));
+                result = allowOrDeny(actions, validator);
+            }
 
             return result;
 
@@ -407,46 +496,85 @@ public class KeycloakRBACAuthorizer extends AclAuthorizer {
     //Alice can not read the topic of Bob
     //Only Bob can read the message from topic of Bob
     private List<AuthorizationResult> allowOrDeny(List<Action> actions, AccessValidator validator) {
-        List<AuthorizationResult> results = new ArrayList<>(actions.size());
-        if (!validator.signatureValidate()) {
+        if (!validator.signatureValidate(verifierCache)) {
             return Collections.nCopies(actions.size(), AuthorizationResult.DENIED);
         }
+        return allowOrDeny(actions, validator.getWeb3().walletAddress, paidStatus(validator.getWeb3().address));
+    }
+
+    // Only ever looks at local state, the chain is queried in the background
+    private PaidStatusView.Status paidStatus(String address) {
+        return paidStatus == null ? PaidStatusView.Status.PAID : paidStatus.status(address, System.currentTimeMillis());
+    }
+
+    private SessionDecisions sessionDecisions(BearerTokenWithPayload token, PaidStatusView.Status status) {
+        if (sessionCacheMaxSize <= 0) {
+            return null;
+        }
+        Object current = token.getPayload();
+        if (current instanceof SessionDecisions && ((SessionDecisions) current).status() == status) {
+            return (SessionDecisions) current;
+        }
+        synchronized (token) {
+            Object payload = token.getPayload();
+            if (payload == null || payload instanceof SessionDecisions && ((SessionDecisions) payload).status() != status) {
+                // decisions made with a different subscription status are discarded
+                payload = new SessionDecisions(sessionCacheMaxSize, status);
+                token.setPayload(payload);
+            }
+            // the payload may be used by another extension, in which case decisions are not cached
+            return payload instanceof SessionDecisions ? (SessionDecisions) payload : null;
+        }
+    }
+
+    private List<AuthorizationResult> allowOrDeny(List<Action> actions, WalletAddress address, PaidStatusView.Status status, SessionDecisions decisions) {
+        List<AuthorizationResult> results = new ArrayList<>(actions.size());
+        for (Action action : actions) {
+            AuthorizationResult result = decisions.get(action);
+            if (result == null) {
+                result = allowOrDeny(action, address, status);
+                decisions.put(action, result);
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    private List<AuthorizationResult> allowOrDeny(List<Action> actions, WalletAddress address, PaidStatusView.Status status) {
+        List<AuthorizationResult> results = new ArrayList<>(actions.size());
 
         //
         // Iterate authorization rules and try to find a match
         //
         for (Action action : actions) {
-            //If Alice have paied, then She will have access to writing, configing, creating ...
-            //otherwise there is only read access
-            log.debug("allowOrDeny action: {}", action);
-//            if (!validator.ethValidate(provider, adminAdress, whispeerAdress)) {
-//                if (action.operation() != AclOperation.READ) {
-//                    results.add(AuthorizationResult.DENIED);
-//                } else {
-//                    results.add(readAllowed(action, validator));
-//                }
-//            } else {
-//                if (action.operation() == AclOperation.READ) {
-//                    results.add(readAllowed(action, validator));
-//                } else {
-//                    results.add(writeAllowed(action, validator));
-//                }
-//            }
-
-            if (action.operation() == AclOperation.READ) {
-                results.add(readAllowed(action, validator));
-            } else {
-                results.add(writeAllowed(action, validator));
-            }
+            results.add(allowOrDeny(action, address, status));
         }
         return results;
     }
 
+    private AuthorizationResult allowOrDeny(Action action, WalletAddress address, PaidStatusView.Status status) {
+        //If Alice have paied, then She will have access to writing, configing, creating ...
+        //otherwise there is only read access
+        log.debug("allowOrDeny action: {}, status: {}", action, status);
+        if (action.operation() == AclOperation.READ) {
+            return readAllowed(action, address);
+        }
+        if (status == PaidStatusView.Status.PAID
+                || status == PaidStatusView.Status.UNKNOWN && unknownWalletDecision == AuthorizationResult.ALLOWED) {
+            return writeAllowed(action);
+        }
+        // Describing its own topic is part of reading it
+        if (action.operation() == AclOperation.DESCRIBE) {
+            return readAllowed(action, address);
+        }
+        return AuthorizationResult.DENIED;
+    }
+
     // Action(resourcePattern='ResourcePattern(resourceType=TOPIC, name=72da2c71d561f2990d8ccecb28fe744fc746a757, patternType=LITERAL)', 
     // operation='DESCRIBE', resourceReferenceCount='1', logIfAllowed='true', logIfDenied='true')
-    private AuthorizationResult readAllowed(Action action, AccessValidator validator) {
+    private AuthorizationResult readAllowed(Action action, WalletAddress address) {
         if (action.resourcePattern().resourceType() == ResourceType.TOPIC &&
-            !validator.getWeb3().accessReadTopic(action.resourcePattern().name())) {
+            !address.equals(WalletAddress.ofTopic(action.resourcePattern().name()))) {
             log.debug("XXXXXXXXXXXXXXXXXXXXXXXXXXX readAllowed DENIED: {}", action.resourcePattern().name());
             return AuthorizationResult.DENIED;
         } else {
@@ -454,13 +582,13 @@ public class KeycloakRBACAuthorizer extends AclAuthorizer {
         }
     }
 
-    private AuthorizationResult writeAllowed(Action action, AccessValidator validator) {
+    private AuthorizationResult writeAllowed(Action action) {
         if (action.resourcePattern().resourceType() != ResourceType.TOPIC) {
             return AuthorizationResult.ALLOWED;
         }
 
         String topicName = action.resourcePattern().name();
-        if (validator.getWeb3().isValidAddress(topicName)) {
+        if (WalletAddress.ofTopic(topicName) != null) {
             return AuthorizationResult.ALLOWED;
         } else {
             log.debug("XXXXXXXXXXXXXXXXXXXXXXXXXXX writeAllowed DENIED: {}", topicName);
@@ -605,6 +733,7 @@ public class KeycloakRBACAuthorizer extends AclAuthorizer {
         } catch (Exception e) {
             log.error("Failed to shutdown the worker pool", e);
         }
+        closePaidStatus();
         super.close();
     }
 
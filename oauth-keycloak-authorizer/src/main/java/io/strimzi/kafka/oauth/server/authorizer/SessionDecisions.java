@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.server.authorizer;
+
+import io.strimzi.kafka.oauth.web3.PaidStatusView;
+import org.apache.kafka.common.acl.AclOperation;
+import org.apache.kafka.common.resource.ResourcePattern;
+import org.apache.kafka.server.authorizer.Action;
+import org.apache.kafka.server.authorizer.AuthorizationResult;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The authorization decisions made for one session, keyed by the resource pattern (resource type, name and pattern type)
+ * and the operation of the action.
+ * <p>
+ * An instance is attached to the {@link io.strimzi.kafka.oauth.common.BearerTokenWithPayload} of the session, so that
+ * it is discarded when re-authentication replaces the token. The authorizer checks the token expiry before consulting it.
+ * </p>
+ * <p>
+ * The decisions depend on the subscription status of the wallet, so they are only valid for the status they were made with.
+ * The authorizer starts over with a new instance when the status changes.
+ * </p>
+ * <p>
+ * Once the maximum number of resources is reached, decisions for further resources are not cached.
+ * </p>
+ */
+class SessionDecisions {
+
+    private static final int OPERATIONS = AclOperation.values().length;
+
+    private final ConcurrentHashMap<ResourcePattern, AuthorizationResult[]> decisions = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+
+    private final PaidStatusView.Status status;
+
+    SessionDecisions(int maxSize, PaidStatusView.Status status) {
+        this.maxSize = maxSize;
+        this.status = status;
+    }
+
+    /**
+     * Get the subscription status of the wallet the decisions were made with
+     *
+     * @return The status
+     */
+    PaidStatusView.Status status() {
+        return status;
+    }
+
+    /**
+     * Get the decision for the action
+     *
+     * @param action The action
+     * @return The cached decision, or null if there is none
+     */
+    AuthorizationResult get(Action action) {
+        AuthorizationResult[] results = decisions.get(action.resourcePattern());
+        return results == null ? null : results[action.operation().ordinal()];
+    }
+
+    /**
+     * Remember the decision for the action
+     *
+     * @param action The action
+     * @param result The decision
+     */
+    void put(Action action, AuthorizationResult result) {
+        AuthorizationResult[] results = decisions.get(action.resourcePattern());
+        if (results == null) {
+            if (decisions.size() >= maxSize) {
+                return;
+            }
+            results = decisions.computeIfAbsent(action.resourcePattern(), k -> new AuthorizationResult[OPERATIONS]);
+        }
+        // concurrent writes for the same action store the same decision
+        results[action.operation().ordinal()] = result;
+    }
+
+    /**
+     * Get the number of resources with cached decisions
+     *
+     * @return The number of resources
+     */
+    int size() {
+        return decisions.size();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017-2023, Strimzi authors.
+ * License: Apache License 2.0 (see the file LICENSE or http://apache.org/licenses/LICENSE-2.0.html).
+ */
+package io.strimzi.kafka.oauth.server.authorizer;
+
+import io.strimzi.kafka.oauth.web3.PaidStatusView;
+import org.apache.kafka.common.acl.AclOperation;
+import org.apache.kafka.common.resource.PatternType;
+import org.apache.kafka.common.resource.ResourcePattern;
+import org.apache.kafka.common.resource.ResourceType;
+import org.apache.kafka.server.authorizer.Action;
+import org.apache.kafka.server.authorizer.AuthorizationResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SessionDecisionsTest {
+
+    @Test
+    public void testDecisionsPerOperationAndResource() {
+        SessionDecisions decisions = new SessionDecisions(10, PaidStatusView.Status.PAID);
+        Action write = action(AclOperation.WRITE, ResourceType.TOPIC, "72da2c71d561f2990d8ccecb28fe744fc746a757", PatternType.LITERAL);
+        Action read = action(AclOperation.READ, ResourceType.TOPIC, "72da2c71d561f2990d8ccecb28fe744fc746a757", PatternType.LITERAL);
+
+        Assert.assertNull(decisions.get(write));
+        decisions.put(write, AuthorizationResult.ALLOWED);
+        decisions.put(read, AuthorizationResult.DENIED);
+
+        Assert.assertEquals(AuthorizationResult.ALLOWED,
+                decisions.get(action(AclOperation.WRITE, ResourceType.TOPIC, "72da2c71d561f2990d8ccecb28fe744fc746a757", PatternType.LITERAL)));
+        Assert.assertEquals(AuthorizationResult.DENIED, decisions.get(read));
+        Assert.assertNull(decisions.get(action(AclOperation.DESCRIBE, ResourceType.TOPIC, "72da2c71d561f2990d8ccecb28fe744fc746a757", PatternType.LITERAL)));
+        Assert.assertNull(decisions.get(action(AclOperation.WRITE, ResourceType.TOPIC, "72da2c71d561f2990d8ccecb28fe744fc746a757", PatternType.PREFIXED)));
+        Assert.assertNull(decisions.get(action(AclOperation.WRITE, ResourceType.GROUP, "72da2c71d561f2990d8ccecb28fe744fc746a757", PatternType.LITERAL)));
+        Assert.assertEquals(1, decisions.size());
+    }
+
+    @Test
+    public void testBounded() {
+        SessionDecisions decisions = new SessionDecisions(2, PaidStatusView.Status.PAID);
+        for (int i = 0; i < 5; i++) {
+            decisions.put(action(AclOperation.WRITE, ResourceType.TOPIC, "topic-" + i, PatternType.LITERAL), AuthorizationResult.ALLOWED);
+        }
+        Assert.assertEquals(2, decisions.size());
+        Assert.assertNull(decisions.get(action(AclOperation.WRITE, ResourceType.TOPIC, "topic-4", PatternType.LITERAL)));
+
+        // decisions for resources that are already cached are still added
+        decisions.put(action(AclOperation.READ, ResourceType.TOPIC, "topic-0", PatternType.LITERAL), AuthorizationResult.DENIED);
+        Assert.assertEquals(AuthorizationResult.DENIED, decisions.get(action(AclOperation.READ, ResourceType.TOPIC, "topic-0", PatternType.LITERAL)));
+    }
+
+    private static Action action(AclOperation operation, ResourceType type, String name, PatternType patternType) {
+        return new Action(operation, new ResourcePattern(type, name, patternType), 1, true, true);
+    }
+}
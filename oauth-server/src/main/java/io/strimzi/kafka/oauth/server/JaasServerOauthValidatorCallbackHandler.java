@@ -7,7 +7,7 @@ package io.strimzi.kafka.oauth.server;
 //import com.nimbusds.jose.JWSObject;
 //import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-//import io.strimzi.kafka.oauth.common.Config;
+import io.strimzi.kafka.oauth.common.Config;
 //import io.strimzi.kafka.oauth.common.ConfigException;
 import io.strimzi.kafka.oauth.common.ConfigUtil;
 import io.strimzi.kafka.oauth.common.BearerTokenWithPayload;
@@ -25,10 +25,19 @@ import io.strimzi.kafka.oauth.services.OAuthMetrics;
 //import io.strimzi.kafka.oauth.services.ValidatorKey;
 //import io.strimzi.kafka.oauth.validator.JWTSignatureValidator;
 import io.strimzi.kafka.oauth.common.TokenInfo;
+import io.strimzi.kafka.oauth.common.Web3Identity;
 //import io.strimzi.kafka.oauth.validator.OAuthIntrospectionValidator;
 import io.strimzi.kafka.oauth.validator.TokenValidator;
 import io.strimzi.kafka.oauth.validator.AccessValidator;
+import io.strimzi.kafka.oauth.validator.ExpirationCache;
 import io.strimzi.kafka.oauth.validator.TokenValidationException;
+import io.strimzi.kafka.oauth.validator.VerifiedTokenCache;
+import io.strimzi.kafka.oauth.validator.BatchSignatureVerifier;
+import io.strimzi.kafka.oauth.validator.VerifierCache;
+import io.strimzi.kafka.oauth.web3.ExpirationIndex;
+import io.strimzi.kafka.oauth.web3.ExpirationLookup;
+import io.strimzi.kafka.oauth.web3.PaymentsIndexer;
+import io.strimzi.kafka.oauth.web3.Web3RpcClient;
 import org.apache.kafka.common.errors.SaslAuthenticationException;
 import org.apache.kafka.common.security.auth.AuthenticateCallbackHandler;
 import org.apache.kafka.common.security.oauthbearer.OAuthBearerLoginModule;
@@ -42,9 +51,9 @@ import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.UnsupportedCallbackException;
 import javax.security.auth.login.AppConfigurationEntry;
 
-import java.math.BigInteger;
-import java.util.HashMap;
 //import java.net.URI;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -237,8 +246,18 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
     private String whispeerAdress;
     private String validation;
 
-    private Map<String, BigInteger> whiteList;
-    private Map<String, BigInteger> blackList;
+    private ExpirationCache whiteList;
+    private ExpirationCache blackList;
+    private long blackListTtlMs;
+    private Web3RpcClient rpcClient;
+    private ExpirationLookup expirationLookup;
+    private ExpirationIndex expirationIndex;
+    private PaymentsIndexer paymentsIndexer;
+    private long staleGraceMs;
+    private long lookupTimeoutMs;
+
+    private VerifiedTokenCache tokenCache;
+    private VerifierCache verifierCache;
 
     @Override
     public void configure(Map<String, ?> configs, String saslMechanism, List<AppConfigurationEntry> jaasConfigEntries) {
@@ -254,6 +273,9 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
             throw new IllegalArgumentException(String.format("Unexpected SASL mechanism: %s", saslMechanism));
         }
 
+        // release the resources of a previous configuration
+        close();
+
         parseJaasConfig(jaasConfigEntries);
         verifier = ConfigUtil.createHostnameVerifier(config);
         
@@ -261,8 +283,64 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
         adminAdress = (String) configs.get("web3.adminAdress");
         whispeerAdress = (String) configs.get("web3.whispeerAdress");
         validation = (String) configs.get("web3.validation");
-        whiteList = new HashMap<String, BigInteger>();
-        blackList = new HashMap<String, BigInteger>();
+
+        Config web3Config = new Config(configs);
+        int expirationCacheMaxSize = web3Config.getValueAsInt(ServerConfig.WEB3_EXPIRATION_CACHE_MAX_SIZE, 100000);
+        whiteList = new ExpirationCache(expirationCacheMaxSize);
+        blackList = new ExpirationCache(expirationCacheMaxSize);
+        blackListTtlMs = web3Config.getValueAsInt(ServerConfig.WEB3_BLACKLIST_TTL_SECONDS, 60) * 1000L;
+        staleGraceMs = web3Config.getValueAsInt(ServerConfig.WEB3_STALE_GRACE_SECONDS, 0) * 1000L;
+        lookupTimeoutMs = web3Config.getValueAsLong(ServerConfig.WEB3_LOOKUP_TIMEOUT_MS, 0);
+        rpcClient = null;
+        if (provider != null) {
+            rpcClient = Web3RpcClient.forProvider(provider,
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_MAX_CONNECTIONS, 20),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_CONNECT_TIMEOUT_SECONDS, 10),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_READ_TIMEOUT_SECONDS, 10),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_HEALTH_CHECK_INTERVAL_SECONDS, 30),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_HEDGE_PERCENTILE, 95),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_CIRCUIT_FAILURE_THRESHOLD, 3),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_PROVIDER_CIRCUIT_OPEN_SECONDS, 30),
+                    web3Config.getValueAsLong(ServerConfig.WEB3_CALL_CACHE_HEAD_POLL_INTERVAL_MS, 2000));
+        }
+        // shared with the authorizer and the handlers of the other listeners
+        expirationLookup = rpcClient == null
+                ? new ExpirationLookup(null, adminAdress, whispeerAdress)
+                : ExpirationLookup.forContract(rpcClient, adminAdress, whispeerAdress,
+                        web3Config.getValue(ServerConfig.WEB3_MULTICALL_ADDRESS),
+                        web3Config.getValueAsInt(ServerConfig.WEB3_LOOKUP_BATCH_WINDOW_MS, 20),
+                        web3Config.getValueAsInt(ServerConfig.WEB3_LOOKUP_BATCH_MAX_SIZE, 100));
+        boolean indexerEnabled = rpcClient != null && web3Config.getValueAsBoolean(ServerConfig.WEB3_INDEXER_ENABLE, false);
+        String snapshotPath = web3Config.getValue(ServerConfig.WEB3_SNAPSHOT_PATH);
+        if (whispeerAdress != null && (indexerEnabled || snapshotPath != null)) {
+            expirationIndex = ExpirationIndex.forContract(whispeerAdress);
+            if (snapshotPath != null) {
+                try {
+                    expirationIndex.persistTo(Paths.get(snapshotPath));
+                } catch (IOException e) {
+                    log.warn("Failed to open the expiration snapshot: {}", snapshotPath, e);
+                }
+            }
+        }
+        if (indexerEnabled) {
+            paymentsIndexer = PaymentsIndexer.forContract(rpcClient, expirationLookup, whispeerAdress,
+                    web3Config.getValueAsLong(ServerConfig.WEB3_INDEXER_START_BLOCK, -1),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_INDEXER_MAX_BLOCK_RANGE, 2000),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_INDEXER_CONFIRMATIONS, 12),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_INDEXER_RESCAN_BLOCKS, 64),
+                    web3Config.getValueAsInt(ServerConfig.WEB3_INDEXER_POLL_INTERVAL_SECONDS, 15));
+        }
+        tokenCache = new VerifiedTokenCache(web3Config.getValueAsInt(ServerConfig.WEB3_TOKEN_CACHE_MAX_SIZE, 10000));
+        int verifierCacheMaxSize = web3Config.getValueAsInt(ServerConfig.WEB3_VERIFIER_CACHE_MAX_SIZE, 10000);
+        int signatureBatchWindowMs = web3Config.getValueAsInt(ServerConfig.WEB3_SIGNATURE_BATCH_WINDOW_MS, 0);
+        if (signatureBatchWindowMs > 0) {
+            verifierCache = new BatchSignatureVerifier(verifierCacheMaxSize,
+                    web3Config.getValueAsInt(ServerConfig.WEB3_SIGNATURE_BATCH_THREADS, Runtime.getRuntime().availableProcessors()),
+                    signatureBatchWindowMs,
+                    web3Config.getValueAsInt(ServerConfig.WEB3_SIGNATURE_BATCH_MAX_SIZE, 8));
+        } else {
+            verifierCache = new VerifierCache(verifierCacheMaxSize);
+        }
         log.debug("XXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXXX provider: {}", provider);
     }
 
@@ -289,7 +367,25 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
 
     @Override
     public void close() {
-
+        if (verifierCache instanceof BatchSignatureVerifier) {
+            ((BatchSignatureVerifier) verifierCache).close();
+        }
+        if (paymentsIndexer != null) {
+            paymentsIndexer.close();
+            paymentsIndexer = null;
+        }
+        if (expirationLookup != null) {
+            expirationLookup.close();
+            expirationLookup = null;
+        }
+        if (expirationIndex != null) {
+            expirationIndex.close();
+            expirationIndex = null;
+        }
+        if (rpcClient != null) {
+            rpcClient.close();
+            rpcClient = null;
+        }
     }
 
     @Override
@@ -335,12 +431,14 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
         NimbusPayloadTransformer transformer = new NimbusPayloadTransformer();
         AccessValidator validator = new AccessValidator(token, validation.equalsIgnoreCase("required"));
 
-        if (!validator.signatureValidate()) {
+        if (!validator.signatureValidate(tokenCache, verifierCache)) {
             callback.error("validation error", "signature failure", validator.getWeb3().address);
             return;
         }
 
-        if (!validator.ethValidate(whiteList, blackList, provider, adminAdress, whispeerAdress)) {
+        boolean ethValid = validator.ethValidate(whiteList, blackList, blackListTtlMs, expirationLookup, expirationIndex, staleGraceMs, lookupTimeoutMs);
+        log.debug("On-chain access check of {}: {} ({})", validator.getWeb3().address, ethValid ? "allowed" : "denied", validator.getFreshness());
+        if (!ethValid) {
             callback.error("validation error", "eth validation failure", validator.getWeb3().address);
             return;
         }
@@ -349,7 +447,8 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
             debugLogToken(token);
 
             TokenInfo ti = new TokenInfo(validator.getPayload(), token, validator.getWeb3().address);
-            BearerTokenWithPayload tokenWithPayload = new BearerTokenWithPayloadImpl(ti);
+            Web3Identity identity = new Web3Identity(validator.getWeb3(), ti.expiresAtMs(), validator.getPayload());
+            BearerTokenWithPayload tokenWithPayload = new BearerTokenWithPayloadImpl(ti, identity);
 
             callback.token(tokenWithPayload);
 
@@ -478,13 +577,19 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
     static class BearerTokenWithPayloadImpl implements BearerTokenWithPayload {
 
         private final TokenInfo ti;
+        private final Web3Identity identity;
         private volatile Object payload;
 
         BearerTokenWithPayloadImpl(TokenInfo ti) {
+            this(ti, null);
+        }
+
+        BearerTokenWithPayloadImpl(TokenInfo ti, Web3Identity identity) {
             if (ti == null) {
                 throw new IllegalArgumentException("TokenInfo == null");
             }
             this.ti = ti;
+            this.identity = identity;
         }
 
         @Override
@@ -502,6 +607,11 @@ public class JaasServerOauthValidatorCallbackHandler implements AuthenticateCall
             return ti.groups();
         }
 
+        @Override
+        public Web3Identity getWeb3Identity() {
+            return identity;
+        }
+
         @Override
         public ObjectNode getJSON() {
             return ti.payload();
@@ -5,6 +5,7 @@
 package io.strimzi.kafka.oauth.server;
 
 import io.strimzi.kafka.oauth.common.BearerTokenWithPayload;
+import io.strimzi.kafka.oauth.common.Web3Identity;
 import org.apache.kafka.common.security.auth.KafkaPrincipal;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -76,6 +77,15 @@ public final class OAuthKafkaPrincipal extends KafkaPrincipal {
         return jwt;
     }
 
+    /**
+     * Get the wallet identity established when the token of the session was validated
+     *
+     * @return The identity, or null if not available
+     */
+    public Web3Identity getWeb3Identity() {
+        return jwt != null ? jwt.getWeb3Identity() : null;
+    }
+
     /**
      * Get the initialised groups associated with this principal
      *
@@ -103,6 +103,156 @@ public class ServerConfig extends Config {
      */
     public static final String STRIMZI_AUTHORIZER_GRANT_WHEN_NO_DELEGATE = "strimzi.authorizer.grant.when.no.delegate";
 
+    /**
+     * "web3.token.cache.max.size"
+     */
+    public static final String WEB3_TOKEN_CACHE_MAX_SIZE = "web3.token.cache.max.size";
+
+    /**
+     * "web3.verifier.cache.max.size"
+     */
+    public static final String WEB3_VERIFIER_CACHE_MAX_SIZE = "web3.verifier.cache.max.size";
+
+    /**
+     * "web3.authz.session.cache.max.size"
+     */
+    public static final String WEB3_AUTHZ_SESSION_CACHE_MAX_SIZE = "web3.authz.session.cache.max.size";
+
+    /**
+     * "web3.authz.unknown.wallet.decision"
+     */
+    public static final String WEB3_AUTHZ_UNKNOWN_WALLET_DECISION = "web3.authz.unknown.wallet.decision";
+
+    /**
+     * "web3.authz.status.refresh.seconds"
+     */
+    public static final String WEB3_AUTHZ_STATUS_REFRESH_SECONDS = "web3.authz.status.refresh.seconds";
+
+    /**
+     * "web3.signature.batch.window.ms"
+     */
+    public static final String WEB3_SIGNATURE_BATCH_WINDOW_MS = "web3.signature.batch.window.ms";
+
+    /**
+     * "web3.signature.batch.max.size"
+     */
+    public static final String WEB3_SIGNATURE_BATCH_MAX_SIZE = "web3.signature.batch.max.size";
+
+    /**
+     * "web3.signature.batch.threads"
+     */
+    public static final String WEB3_SIGNATURE_BATCH_THREADS = "web3.signature.batch.threads";
+
+    /**
+     * "web3.expiration.cache.max.size"
+     */
+    public static final String WEB3_EXPIRATION_CACHE_MAX_SIZE = "web3.expiration.cache.max.size";
+
+    /**
+     * "web3.blacklist.ttl.seconds"
+     */
+    public static final String WEB3_BLACKLIST_TTL_SECONDS = "web3.blacklist.ttl.seconds";
+
+    /**
+     * "web3.provider.max.connections"
+     */
+    public static final String WEB3_PROVIDER_MAX_CONNECTIONS = "web3.provider.max.connections";
+
+    /**
+     * "web3.provider.connect.timeout.seconds"
+     */
+    public static final String WEB3_PROVIDER_CONNECT_TIMEOUT_SECONDS = "web3.provider.connect.timeout.seconds";
+
+    /**
+     * "web3.provider.read.timeout.seconds"
+     */
+    public static final String WEB3_PROVIDER_READ_TIMEOUT_SECONDS = "web3.provider.read.timeout.seconds";
+
+    /**
+     * "web3.provider.health.check.interval.seconds"
+     */
+    public static final String WEB3_PROVIDER_HEALTH_CHECK_INTERVAL_SECONDS = "web3.provider.health.check.interval.seconds";
+
+    /**
+     * "web3.provider.hedge.percentile"
+     */
+    public static final String WEB3_PROVIDER_HEDGE_PERCENTILE = "web3.provider.hedge.percentile";
+
+    /**
+     * "web3.provider.circuit.failure.threshold"
+     */
+    public static final String WEB3_PROVIDER_CIRCUIT_FAILURE_THRESHOLD = "web3.provider.circuit.failure.threshold";
+
+    /**
+     * "web3.provider.circuit.open.seconds"
+     */
+    public static final String WEB3_PROVIDER_CIRCUIT_OPEN_SECONDS = "web3.provider.circuit.open.seconds";
+
+    /**
+     * "web3.call.cache.head.poll.interval.ms"
+     */
+    public static final String WEB3_CALL_CACHE_HEAD_POLL_INTERVAL_MS = "web3.call.cache.head.poll.interval.ms";
+
+    /**
+     * "web3.lookup.batch.window.ms"
+     */
+    public static final String WEB3_LOOKUP_BATCH_WINDOW_MS = "web3.lookup.batch.window.ms";
+
+    /**
+     * "web3.lookup.batch.max.size"
+     */
+    public static final String WEB3_LOOKUP_BATCH_MAX_SIZE = "web3.lookup.batch.max.size";
+
+    /**
+     * "web3.multicall.address"
+     */
+    public static final String WEB3_MULTICALL_ADDRESS = "web3.multicall.address";
+
+    /**
+     * "web3.indexer.enable"
+     */
+    public static final String WEB3_INDEXER_ENABLE = "web3.indexer.enable";
+
+    /**
+     * "web3.indexer.start.block"
+     */
+    public static final String WEB3_INDEXER_START_BLOCK = "web3.indexer.start.block";
+
+    /**
+     * "web3.indexer.max.block.range"
+     */
+    public static final String WEB3_INDEXER_MAX_BLOCK_RANGE = "web3.indexer.max.block.range";
+
+    /**
+     * "web3.indexer.confirmations"
+     */
+    public static final String WEB3_INDEXER_CONFIRMATIONS = "web3.indexer.confirmations";
+
+    /**
+     * "web3.indexer.rescan.blocks"
+     */
+    public static final String WEB3_INDEXER_RESCAN_BLOCKS = "web3.indexer.rescan.blocks";
+
+    /**
+     * "web3.indexer.poll.interval.seconds"
+     */
+    public static final String WEB3_INDEXER_POLL_INTERVAL_SECONDS = "web3.indexer.poll.interval.seconds";
+
+    /**
+     * "web3.snapshot.path"
+     */
+    public static final String WEB3_SNAPSHOT_PATH = "web3.snapshot.path";
+
+    /**
+     * "web3.stale.grace.seconds"
+     */
+    public static final String WEB3_STALE_GRACE_SECONDS = "web3.stale.grace.seconds";
+
+    /**
+     * "web3.lookup.timeout.ms"
+     */
+    public static final String WEB3_LOOKUP_TIMEOUT_MS = "web3.lookup.timeout.ms";
+
     /**
      * "oauth.validation.skip.type.check"
      */
@@ -8,6 +8,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import io.strimzi.kafka.oauth.common.BearerTokenWithPayload;
 import io.strimzi.kafka.oauth.common.JSONUtil;
 import io.strimzi.kafka.oauth.common.TokenInfo;
+import io.strimzi.kafka.oauth.common.WEB3;
+import io.strimzi.kafka.oauth.common.Web3Identity;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -76,5 +78,25 @@ public class OAuthKafkaPrincipalTest {
         OAuthKafkaPrincipal principalJwt = new OAuthKafkaPrincipal("User", "bob", jwt);
 
         Assert.assertEquals("Can access parsed JWT", parsed, principalJwt.getJwt().getJSON());
+        Assert.assertNull("No identity without wallet validation", principalJwt.getWeb3Identity());
+    }
+
+    @Test
+    public void testWeb3Identity() throws IOException {
+        WEB3 web3 = new WEB3();
+        JsonNode parsed = JSONUtil.readJSON("{\"exp\": 1667257200}", JsonNode.class);
+        TokenInfo tki = new TokenInfo(parsed, "token-ignored", web3.address);
+        Web3Identity identity = new Web3Identity(WEB3.publicWEB3(web3.publicKey), tki.expiresAtMs(), parsed);
+        BearerTokenWithPayload jwt = new JaasServerOauthValidatorCallbackHandler.BearerTokenWithPayloadImpl(tki, identity);
+        OAuthKafkaPrincipal principal = new OAuthKafkaPrincipal("User", web3.address, jwt);
+
+        Assert.assertSame(identity, principal.getWeb3Identity());
+        Assert.assertEquals(web3.walletAddress, principal.getWeb3Identity().address());
+        Assert.assertEquals(1667257200000L, identity.expiresAtMs());
+        Assert.assertTrue(identity.isExpired(1667257200000L));
+        Assert.assertFalse(identity.isExpired(1667257199999L));
+        Assert.assertEquals(parsed, identity.payload());
+        Assert.assertNotSame("Payload should be copied", parsed, identity.payload());
+        Assert.assertEquals("Identity should not affect equality", principal, new OAuthKafkaPrincipal("User", web3.address));
     }
 }